@@ -1,8 +1,12 @@
-let count = 0;
 const counterEl = document.querySelector('[data-id="counter"]');
 const incEl = document.querySelector('[data-action="inc"]');
 
+// счётчик общий для всех открытых страниц: сервер рассылает его через SSE
+const events = new EventSource('/events/stream');
+events.addEventListener('count', (event) => {
+   counterEl.textContent = event.data;
+});
+
 incEl.addEventListener('click', () => {
-   count++;
-   counterEl.textContent = `${count}`;
+   fetch('/events/click', {method: 'POST'});
 });
@@ -0,0 +1,451 @@
+package ru.netology;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Пакет статических ресурсов: публичная директория, упакованная в один файл, который при запуске
+ * отображается в память целиком. Ответ на запрос ресурса не требует ни разрешения пути,
+ * ни обращений к файловой системе: путь ищется в хэш-индексе внутри файла, а тип содержимого,
+ * ETag и сжатый вариант посчитаны при упаковке. Подходит для неизменяемых выкладок; для разработки
+ * остаётся работа с живой директорией ({@link ResourceCache}).
+ * <p>
+ * Упаковать директорию можно заранее: {@code java -cp ... ru.netology.AssetBundle public public.bundle},
+ * или при запуске сервера ({@code server.bundle.pack=true}).
+ * <p>
+ * Формат (числа big-endian): заголовок — {@code int} {@value #MAGIC}, {@code int} версия,
+ * {@code int} число ресурсов, {@code int} размер хэш-таблицы (степень двойки), {@code long} время
+ * упаковки; хэш-таблица — номера ресурсов ({@code -1} — пусто, коллизии разрешаются линейным
+ * пробированием); смещения описаний ресурсов; описания — {@code int} хэш пути, путь, тип
+ * содержимого, ETag (каждое — {@code short} длина и байты UTF-8), {@code long} время изменения,
+ * {@code int} смещение и длина содержимого, {@code int} смещение и длина сжатого варианта
+ * ({@code -1}, если его нет); затем содержимое. Файл целиком должен помещаться в одно
+ * отображение, то есть быть меньше 2 ГБ.
+ */
+public class AssetBundle {
+    static final int MAGIC = 0x4E414231;     // "NAB1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    /**
+     * Сжатый вариант хранится, только если он заметно меньше исходного.
+     */
+    private static final int MIN_GZIP_SIZE = 256;
+    private static final double MAX_GZIP_RATIO = 0.9;
+
+    private final Path file;
+    private final MappedByteBuffer map;
+    private final int count;
+    private final int tableSize;
+    private final long createdAt;
+    private final int offsetsStart;
+    /**
+     * Разобранные описания по номеру ресурса; заполняются при первом обращении.
+     */
+    private final Asset[] assets;
+
+    private AssetBundle(Path file, MappedByteBuffer map) throws IOException {
+        this.file = file;
+        this.map = map;
+        if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC)
+            throw new IOException("Не пакет ресурсов: " + file);
+        if (map.getInt(4) != VERSION)
+            throw new IOException("Неизвестная версия пакета " + map.getInt(4) + ": " + file);
+        count = map.getInt(8);
+        tableSize = map.getInt(12);
+        createdAt = map.getLong(16);
+        if (count < 0 || tableSize <= 0 || Integer.bitCount(tableSize) != 1 ||
+                HEADER_SIZE + 4L * tableSize + 4L * count > map.capacity())
+            throw new IOException("Повреждённый пакет ресурсов: " + file);
+        offsetsStart = HEADER_SIZE + 4 * tableSize;
+        assets = new Asset[count];
+    }
+
+    /**
+     * Отображает пакет в память. Файл после этого можно не держать открытым.
+     * @param file файл пакета.
+     * @return пакет.
+     * @throws IOException если файл не читается или это не пакет ресурсов.
+     */
+    public static AssetBundle open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Пакет ресурсов больше 2 ГБ: " + file);
+            final var map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // ресурсы отдаются с первого запроса без ожидания чтения с диска
+            map.load();
+            return new AssetBundle(file, map);
+        }
+    }
+
+    /**
+     * Ищет ресурс по пути из запроса.
+     * @param requestPath путь ресурса (например, {@code /index.html}).
+     * @return ресурс или {@code null}, если в пакете его нет.
+     */
+    public Asset find(String requestPath) {
+        final var path = normalize(requestPath);
+        if (path == null) return null;
+        final int hash = hash(path);
+        final byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        final int mask = tableSize - 1;
+        for (int slot = hash & mask, probes = 0; probes < tableSize; slot = (slot + 1) & mask, probes++) {
+            final int ordinal = map.getInt(HEADER_SIZE + 4 * slot);
+            if (ordinal < 0) return null;
+            final int entry = map.getInt(offsetsStart + 4 * ordinal);
+            if (map.getInt(entry) == hash && keyEquals(entry + 4, key)) return asset(ordinal, entry);
+        }
+        return null;
+    }
+
+    /**
+     * Выдаёт сведения о ресурсе пакета в том же виде, что и {@link ResourceCache}.
+     * @param requestPath путь ресурса из запроса.
+     * @return сведения о ресурсе; для отсутствующего {@link Resource#exists()} ложно.
+     */
+    public Resource resolve(String requestPath) {
+        final var asset = find(requestPath);
+        return asset != null ? asset.resource :
+                new Resource(Path.of(requestPath), false, 0, 0, MimeTypes.DEFAULT_TYPE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Возвращает число ресурсов в пакете.
+     * @return значение поля count.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "AssetBundle [%s: ресурсов %d, %d Б, упакован %s]"
+                .formatted(file, count, map.capacity(), Instant.ofEpochMilli(createdAt));
+    }
+
+    private boolean keyEquals(int at, byte[] key) {
+        if ((map.getShort(at) & 0xFFFF) != key.length) return false;
+        for (int i = 0; i < key.length; i++)
+            if (map.get(at + 2 + i) != key[i]) return false;
+        return true;
+    }
+
+    private Asset asset(int ordinal, int entry) {
+        // описание неизменяемо, поэтому гонка при первом разборе безвредна
+        var asset = assets[ordinal];
+        if (asset == null) {
+            asset = new Asset(entry);
+            assets[ordinal] = asset;
+        }
+        return asset;
+    }
+
+    private String string(int at) {
+        final int length = map.getShort(at) & 0xFFFF;
+        final byte[] bytes = new byte[length];
+        map.get(at + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int hash(String path) {
+        final int h = path.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Приводит путь запроса к виду ключа пакета: {@code /} в начале, без {@code .} и {@code ..}.
+     * @param requestPath путь ресурса из запроса.
+     * @return нормализованный путь или {@code null}, если путь выходит за пределы директории.
+     */
+    static String normalize(String requestPath) {
+        if (!requestPath.contains("/.") && !requestPath.contains("//") && !requestPath.contains("\\"))
+            return requestPath.startsWith("/") ? requestPath : "/" + requestPath;
+        final var segments = new ArrayDeque<String>();
+        for (String segment : requestPath.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) continue;
+            if ("..".equals(segment)) {
+                if (segments.isEmpty()) return null;
+                segments.removeLast();
+            } else {
+                segments.addLast(segment);
+            }
+        }
+        return "/" + String.join("/", segments);
+    }
+
+    /**
+     * Упаковывает директорию в пакет. Пакет пишется во временный файл и заменяет прежний целиком.
+     * @param directory директория с ресурсами.
+     * @param bundle    файл пакета.
+     * @param mimeTypes таблица типов содержимого.
+     * @param gzip      добавлять ли сжатые варианты текстовых ресурсов.
+     * @return число упакованных ресурсов.
+     * @throws IOException если директория не читается или пакет не записывается.
+     */
+    public static int pack(Path directory, Path bundle, MimeTypes mimeTypes, boolean gzip) throws IOException {
+        final var root = directory.toAbsolutePath().normalize();
+        final List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        // содержимое пишется во временный файл, пока не известны размеры описаний
+        final var data = bundle.resolveSibling(bundle.getFileName() + ".data");
+        final var entries = new ArrayList<Entry>();
+        try {
+            long dataSize = 0;
+            try (OutputStream out = Files.newOutputStream(data)) {
+                for (Path file : files) {
+                    final byte[] content = Files.readAllBytes(file);
+                    final var relative = root.relativize(file).toString().replace('\\', '/');
+                    final var entry = new Entry("/" + relative, mimeTypes.lookup(file.getFileName().toString()),
+                            etag(content), Files.getLastModifiedTime(file).toMillis());
+                    entry.offset = dataSize;
+                    entry.length = content.length;
+                    out.write(content);
+                    dataSize += content.length;
+                    final byte[] compressed = gzip && isCompressible(entry.mimeType) ? gzip(content) : null;
+                    if (compressed != null && compressed.length <= content.length * MAX_GZIP_RATIO) {
+                        entry.gzipOffset = dataSize;
+                        entry.gzipLength = compressed.length;
+                        out.write(compressed);
+                        dataSize += compressed.length;
+                    }
+                    entries.add(entry);
+                }
+            }
+
+            int tableSize = 2;
+            while (tableSize < entries.size() * 2) tableSize <<= 1;
+            // описания идут перед содержимым, поэтому смещения содержимого сдвигаются на их размер
+            final int[] offsets = new int[entries.size()];
+            long dataStart = HEADER_SIZE + 4L * tableSize + 4L * entries.size();
+            for (int i = 0; i < entries.size(); i++) {
+                offsets[i] = (int) dataStart;
+                dataStart += entries.get(i).size();
+            }
+            if (dataStart + dataSize > Integer.MAX_VALUE)
+                throw new IOException("Пакет ресурсов получается больше 2 ГБ: " + directory);
+
+            final int[] table = new int[tableSize];
+            Arrays.fill(table, -1);
+            for (int i = 0; i < entries.size(); i++) {
+                int slot = hash(entries.get(i).path) & (tableSize - 1);
+                while (table[slot] >= 0) slot = (slot + 1) & (tableSize - 1);
+                table[slot] = i;
+            }
+
+            final var temporary = bundle.resolveSibling(bundle.getFileName() + ".tmp");
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(temporary), 64 * 1024))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(entries.size());
+                    out.writeInt(tableSize);
+                    out.writeLong(System.currentTimeMillis());
+                    for (int slot : table) out.writeInt(slot);
+                    for (int offset : offsets) out.writeInt(offset);
+                    for (Entry entry : entries) entry.writeTo(out, dataStart);
+                    Files.copy(data, out);
+                }
+                Files.move(temporary, bundle, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } finally {
+            Files.deleteIfExists(data);
+        }
+        return entries.size();
+    }
+
+    /**
+     * Упаковывает директорию: {@code AssetBundle <директория> <файл пакета> [gzip=false]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Использование: AssetBundle <директория> <файл пакета> [gzip=false]");
+            return;
+        }
+        final boolean gzip = args.length < 3 || !"gzip=false".equals(args[2]);
+        final int packed = pack(Path.of(args[0]), Path.of(args[1]), new MimeTypes(), gzip);
+        System.out.println(open(Path.of(args[1])) + ": упаковано " + packed);
+    }
+
+    private static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.endsWith("+xml") || mimeType.endsWith("/json") ||
+                mimeType.endsWith("/xml") || mimeType.equals("application/wasm") || mimeType.equals("image/x-icon");
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        if (content.length < MIN_GZIP_SIZE) return null;
+        final var compressed = new ByteArrayOutputStream(content.length / 2);
+        try (var out = new GZIPOutputStream(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static String etag(byte[] content) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+        final byte[] hash = digest.digest(content);
+        final var hex = new StringBuilder(34).append('"');
+        for (int i = 0; i < 16; i++)
+            hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+        return hex.append('"').toString();
+    }
+
+    /**
+     * Описание ресурса при упаковке.
+     */
+    private static final class Entry {
+        private final String path;
+        private final String mimeType;
+        private final String etag;
+        private final long lastModified;
+        private long offset;
+        private int length;
+        private long gzipOffset = -1;
+        private int gzipLength = -1;
+
+        private Entry(String path, String mimeType, String etag, long lastModified) {
+            this.path = path;
+            this.mimeType = mimeType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Размер описания в пакете.
+         */
+        private int size() {
+            return 4 + 6 + utf8Length(path) + utf8Length(mimeType) + utf8Length(etag) + 8 + 16;
+        }
+
+        private void writeTo(DataOutputStream out, long dataStart) throws IOException {
+            out.writeInt(hash(path));
+            writeString(out, path);
+            writeString(out, mimeType);
+            writeString(out, etag);
+            out.writeLong(lastModified);
+            out.writeInt((int) (dataStart + offset));
+            out.writeInt(length);
+            out.writeInt(gzipOffset < 0 ? -1 : (int) (dataStart + gzipOffset));
+            out.writeInt(gzipLength);
+        }
+
+        private static int utf8Length(String value) {
+            return value.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) throw new IOException("Слишком длинный путь: " + value);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Ресурс пакета: содержимое — вид на отображённую память, без копирования.
+     */
+    public final class Asset {
+        private final String path;
+        private final String mimeType;
+        private final String etag;
+        private final long lastModified;
+        private final ByteBuffer content;
+        private final ByteBuffer gzipContent;
+        private final Resource resource;
+
+        private Asset(int entry) {
+            int at = entry + 4;
+            path = string(at);
+            at += 2 + (map.getShort(at) & 0xFFFF);
+            mimeType = string(at);
+            at += 2 + (map.getShort(at) & 0xFFFF);
+            etag = string(at);
+            at += 2 + (map.getShort(at) & 0xFFFF);
+            lastModified = map.getLong(at);
+            content = map.slice(map.getInt(at + 8), map.getInt(at + 12)).asReadOnlyBuffer();
+            final int gzipOffset = map.getInt(at + 16);
+            gzipContent = gzipOffset < 0 ? null : map.slice(gzipOffset, map.getInt(at + 20)).asReadOnlyBuffer();
+            resource = new Resource(Path.of(path), true, content.capacity(), lastModified, mimeType,
+                    Long.MAX_VALUE, content);
+        }
+
+        /**
+         * Возвращает нормализованный путь ресурса.
+         * @return значение поля path.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Возвращает тип содержимого.
+         * @return значение поля mimeType.
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * Возвращает ETag содержимого (в кавычках); у сжатого варианта свой ETag.
+         * @param gzip для сжатого варианта.
+         * @return ETag.
+         */
+        public String getETag(boolean gzip) {
+            return gzip ? etag.substring(0, etag.length() - 1) + "-gz\"" : etag;
+        }
+
+        /**
+         * Возвращает время изменения исходного файла.
+         * @return значение поля lastModified, мс от эпохи.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Возвращает содержимое. Каждый вызов даёт независимый вид с позицией в начале.
+         * @return содержимое только для чтения.
+         */
+        public ByteBuffer getContent() {
+            return content.duplicate();
+        }
+
+        /**
+         * Возвращает сжатый gzip вариант содержимого.
+         * @return вид только для чтения или {@code null}, если сжатого варианта нет.
+         */
+        public ByteBuffer getGzipContent() {
+            return gzipContent == null ? null : gzipContent.duplicate();
+        }
+    }
+}
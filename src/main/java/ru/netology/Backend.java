@@ -0,0 +1,135 @@
+package ru.netology;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сервер за обратным прокси: адрес, число запросов к нему в работе и состояние здоровья.
+ * Здоровье отмечают и проверки, и сами проксируемые запросы: после заданного числа отказов подряд
+ * сервер исключается из балансировки, первый же успех возвращает его. Исключённому серверу
+ * раз в заданный срок доверяется один пробный запрос, чтобы он вернулся и без периодических проверок.
+ */
+public class Backend {
+    private final String host;
+    private final int port;
+    private final String baseUri;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger failuresInRow = new AtomicInteger();
+    /**
+     * Когда исключённому серверу можно отдать пробный запрос (по {@link System#nanoTime()}).
+     */
+    private final AtomicLong probeAt = new AtomicLong();
+    private volatile boolean healthy = true;
+
+    /**
+     * Создаёт описание сервера.
+     * @param host имя или адрес.
+     * @param port порт.
+     */
+    public Backend(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.baseUri = "http://" + host + ":" + port;
+    }
+
+    @Override
+    public String toString() {
+        return "%s:%d (%s, в работе %d, всего %d)"
+                .formatted(host, port, healthy ? "жив" : "недоступен", active.get(), requests.get());
+    }
+
+    /**
+     * Возвращает имя или адрес сервера.
+     * @return значение поля host.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Возвращает порт сервера.
+     * @return значение поля port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Сообщает, сколько запросов к серверу сейчас в работе.
+     * @return текущее значение счётчика active.
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * Сообщает, сколько запросов отправлено серверу.
+     * @return текущее значение счётчика requests.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Сообщает, участвует ли сервер в балансировке.
+     * @return значение поля healthy.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Занимает право на пробный запрос к исключённому серверу: не чаще раза в {@code cooldownNanos}.
+     * @param now           текущее значение {@link System#nanoTime()}.
+     * @param cooldownNanos срок между пробными запросами.
+     * @return {@code true}, если сервер исключён и этому вызову досталась проба.
+     */
+    boolean tryProbe(long now, long cooldownNanos) {
+        if (healthy) return false;
+        final long at = probeAt.get();
+        return now - at >= 0 && probeAt.compareAndSet(at, now + cooldownNanos);
+    }
+
+    /**
+     * Составляет адрес ресурса на этом сервере.
+     * @param pathAndQuery путь со строкой запроса.
+     * @return полный адрес.
+     */
+    String uri(String pathAndQuery) {
+        return baseUri + pathAndQuery;
+    }
+
+    void begin() {
+        active.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    void end() {
+        active.decrementAndGet();
+    }
+
+    /**
+     * Отмечает успешный ответ; недоступный сервер возвращается в балансировку.
+     */
+    void markSuccess() {
+        failuresInRow.set(0);
+        if (!healthy) {
+            healthy = true;
+            System.out.println("BACKEND_UP " + host + ":" + port);        // мониторинг
+        }
+    }
+
+    /**
+     * Отмечает отказ; после {@code threshold} отказов подряд сервер исключается из балансировки.
+     * @param threshold     допустимое число отказов подряд.
+     * @param cooldownNanos через сколько исключённому серверу можно отдать пробный запрос.
+     */
+    void markFailure(int threshold, long cooldownNanos) {
+        if (failuresInRow.incrementAndGet() >= threshold && healthy) {
+            probeAt.set(System.nanoTime() + cooldownNanos);
+            healthy = false;
+            System.out.println("BACKEND_DOWN " + host + ":" + port);      // мониторинг
+        }
+    }
+}
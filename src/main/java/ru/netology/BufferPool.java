@@ -0,0 +1,190 @@
+package ru.netology;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул байтовых буферов, разбитых по классам размеров (степени двойки от 4 КиБ до 1 МиБ).
+ * <p>
+ * Буфер берётся методом {@link #acquire(int)} и возвращается закрытием {@link PooledBuffer}.
+ * Небольшие буферы сначала оседают в кэше потока и достаются оттуда без синхронизации,
+ * остальные — в общей очереди своего класса. Буферы больше наибольшего класса не пулируются.
+ * <p>
+ * Пулов два: в куче — для разбора запросов и записи в потоки подключения
+ * (им нужен доступ к массиву), и вне кучи — для работы с файловыми каналами.
+ * С системным свойством {@code ru.netology.bufferpool.debug=true} для каждого буфера
+ * запоминается место выдачи, и буфер, не возвращённый до сборки мусора, сообщается как утечка.
+ */
+public class BufferPool {
+    public static final int MIN_CLASS_SIZE = 4 * 1024;
+    public static final int MAX_CLASS_SIZE = 1024 * 1024;
+    private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_CLASS_SHIFT + 1;
+    private static final int THREAD_CACHED_MAX_SIZE = 64 * 1024;   // крупные буферы в кэше потока не держим
+    private static final int THREAD_CACHED_PER_CLASS = 2;
+    private static final long SHARED_BYTES_PER_CLASS = 8 * 1024 * 1024;
+
+    private static final boolean DEBUG = Boolean.getBoolean("ru.netology.bufferpool.debug");
+    private static final Cleaner LEAK_WATCHER = DEBUG ? Cleaner.create() : null;
+
+    private static final BufferPool HEAP = new BufferPool(false);
+    private static final BufferPool DIRECT = new BufferPool(true);
+
+    private final boolean direct;
+    private final Queue<ByteBuffer>[] shared;
+    private final AtomicInteger[] sharedCount;
+    private final int[] sharedLimit;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCache;
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong unpooled = new AtomicLong();
+    private final AtomicLong leaked = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private BufferPool(boolean direct) {
+        this.direct = direct;
+        shared = new Queue[CLASSES];
+        sharedCount = new AtomicInteger[CLASSES];
+        sharedLimit = new int[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+            sharedCount[i] = new AtomicInteger();
+            sharedLimit[i] = (int) Math.max(2, Math.min(256, SHARED_BYTES_PER_CLASS / classSize(i)));
+        }
+        threadCache = ThreadLocal.withInitial(() -> {
+            final ArrayDeque<ByteBuffer>[] cache = new ArrayDeque[CLASSES];
+            for (int i = 0; i < CLASSES; i++)
+                cache[i] = new ArrayDeque<>(THREAD_CACHED_PER_CLASS);
+            return cache;
+        });
+    }
+
+    /**
+     * Возвращает пул буферов в куче.
+     * @return общий пул буферов в куче.
+     */
+    public static BufferPool heap() {
+        return HEAP;
+    }
+
+    /**
+     * Возвращает пул буферов вне кучи.
+     * @return общий пул буферов вне кучи.
+     */
+    public static BufferPool direct() {
+        return DIRECT;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool %s: выделено %d, переиспользовано %d, вне пула %d, утечек %d"
+                .formatted(direct ? "direct" : "heap", allocated.get(), reused.get(), unpooled.get(), leaked.get());
+    }
+
+    /**
+     * Выдаёт буфер вместимостью не меньше запрошенной, очищенный для записи.
+     * Вместимость может оказаться больше запрошенной — до размера класса.
+     * @param minCapacity наименьшая нужная вместимость в байтах.
+     * @return буфер, который нужно вернуть закрытием.
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        if (minCapacity < 0)
+            throw new IllegalArgumentException("Отрицательная вместимость: " + minCapacity);
+        if (minCapacity > MAX_CLASS_SIZE) {
+            unpooled.incrementAndGet();
+            return new PooledBuffer(null, allocate(minCapacity), tracker());
+        }
+        final int sizeClass = classOf(minCapacity);
+        ByteBuffer buffer = null;
+        if (classSize(sizeClass) <= THREAD_CACHED_MAX_SIZE)
+            buffer = threadCache.get()[sizeClass].pollFirst();
+        if (buffer == null) {
+            buffer = shared[sizeClass].poll();
+            if (buffer != null) sharedCount[sizeClass].decrementAndGet();
+        }
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            buffer = allocate(classSize(sizeClass));
+        } else {
+            reused.incrementAndGet();
+            buffer.clear();
+        }
+        return new PooledBuffer(this, buffer, tracker());
+    }
+
+    /**
+     * Принимает буфер обратно в пул; лишние буферы отдаются сборщику мусора.
+     * @param buffer возвращаемый буфер.
+     */
+    void release(ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        if (capacity > MAX_CLASS_SIZE || Integer.bitCount(capacity) != 1 || capacity < MIN_CLASS_SIZE) return;
+        final int sizeClass = classOf(capacity);
+        if (capacity <= THREAD_CACHED_MAX_SIZE) {
+            final var local = threadCache.get()[sizeClass];
+            if (local.size() < THREAD_CACHED_PER_CLASS) {
+                local.offerFirst(buffer);
+                return;
+            }
+        }
+        if (sharedCount[sizeClass].incrementAndGet() <= sharedLimit[sizeClass]) {
+            shared[sizeClass].offer(buffer);
+        } else {
+            sharedCount[sizeClass].decrementAndGet();
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private LeakTracker tracker() {
+        return DEBUG ? new LeakTracker(this) : null;
+    }
+
+    /**
+     * Начинает следить за выданным буфером (только в отладочном режиме).
+     * @param handle выданный буфер.
+     * @param tracker сведения о выдаче.
+     * @return регистрация слежения.
+     */
+    static Cleaner.Cleanable watch(PooledBuffer handle, LeakTracker tracker) {
+        return LEAK_WATCHER.register(handle, tracker);
+    }
+
+    private static int classOf(int capacity) {
+        if (capacity <= MIN_CLASS_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(int sizeClass) {
+        return MIN_CLASS_SIZE << sizeClass;
+    }
+
+    /**
+     * Место выдачи буфера; срабатывает, если буфер собран сборщиком мусора, так и не вернувшись.
+     */
+    static class LeakTracker implements Runnable {
+        private final BufferPool pool;
+        private final Throwable acquiredAt = new Throwable("Буфер выдан здесь");
+        volatile boolean released = false;
+
+        private LeakTracker(BufferPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            if (released) return;
+            pool.leaked.incrementAndGet();
+            System.out.println("BUFFER_LEAK");          // мониторинг
+            acquiredAt.printStackTrace();
+        }
+    }
+}
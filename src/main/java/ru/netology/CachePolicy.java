@@ -0,0 +1,90 @@
+package ru.netology;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Правила кэширования ответов обработчика: сколько ответ живёт в кэше
+ * и от каких параметров строки запроса и заголовков он зависит.
+ * Метод и путь входят в ключ всегда. Объект неизменяем: методы {@code vary...} возвращают новый.
+ */
+public class CachePolicy {
+    private final Duration ttl;
+    private final List<String> params;
+    private final List<String> headers;
+
+    private CachePolicy(Duration ttl, List<String> params, List<String> headers) {
+        this.ttl = ttl;
+        this.params = params;
+        this.headers = headers;
+    }
+
+    /**
+     * Создаёт правило, по которому ответ хранится указанное время и зависит только от метода и пути.
+     * @param ttl время жизни ответа в кэше.
+     * @return новое правило.
+     */
+    public static CachePolicy ttl(Duration ttl) {
+        return new CachePolicy(ttl, List.of(), List.of());
+    }
+
+    /**
+     * Добавляет в ключ кэша значения указанных параметров строки запроса.
+     * @param names имена параметров.
+     * @return новое правило.
+     */
+    public CachePolicy varyOnParams(String... names) {
+        return new CachePolicy(ttl, List.of(names), headers);
+    }
+
+    /**
+     * Добавляет в ключ кэша значения указанных заголовков запроса.
+     * @param names имена заголовков.
+     * @return новое правило.
+     */
+    public CachePolicy varyOnHeaders(String... names) {
+        return new CachePolicy(ttl, params, List.of(names));
+    }
+
+    /**
+     * Сообщает время жизни ответа в кэше.
+     * @return значение поля ttl.
+     */
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Возвращает имена параметров строки запроса, входящих в ключ.
+     * @return значение поля params.
+     */
+    public List<String> getParams() {
+        return params;
+    }
+
+    /**
+     * Возвращает имена заголовков, входящих в ключ.
+     * @return значение поля headers.
+     */
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Составляет ключ кэша для запроса по этому правилу.
+     * @param request запрос.
+     * @return строковый ключ.
+     */
+    String keyOf(Request request) {
+        final var key = new StringBuilder(request.getMethod()).append(' ').append(request.getPath());
+        for (String name : params) {
+            key.append('\u0000').append(name).append('=');
+            request.getQueryParam(name).ifPresent(values -> key.append(String.join("\u0001", values)));
+        }
+        for (String name : headers) {
+            key.append('\u0000').append(name).append(':');
+            request.getHeader(name).ifPresent(key::append);
+        }
+        return key.toString();
+    }
+}
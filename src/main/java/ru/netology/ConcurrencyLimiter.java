@@ -0,0 +1,170 @@
+package ru.netology;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Адаптивный предел числа одновременно обслуживаемых подключений по градиенту задержки
+ * (в духе TCP Vegas). Задержка — ожидание рабочего потока плюс работа обработчика.
+ * Её среднее за короткое окно сравнивается с долгосрочной базой: пока задержка держится
+ * у базы, предел растёт на корень из себя за окно; когда задержка растёт — предел
+ * уменьшается пропорционально (не более чем вдвое за окно).
+ * <p>
+ * Подключения сверх предела отклоняются сразу при приёме, не занимая очередь.
+ * Предел растёт, только если в окне он действительно был занят хотя бы наполовину,
+ * чтобы при слабой нагрузке он не раздувался без проверки.
+ */
+public class ConcurrencyLimiter implements ConcurrencyLimiterMBean {
+    /**
+     * Окно усреднения: не короче этого времени и не меньше этого числа замеров.
+     */
+    private static final long WINDOW_NANOS = 100_000_000L;
+    private static final int WINDOW_SAMPLES = 10;
+    /**
+     * За сколько окон долгосрочная база догоняет новую задержку.
+     */
+    private static final double LONG_WINDOWS = 100;
+    /**
+     * Во сколько раз задержка может превысить базу, прежде чем предел начнёт снижаться.
+     */
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int limit;
+    private volatile IntConsumer listener = limit -> { };
+
+    // состояние окна и оценки; под замком this
+    private double estimate;
+    private long windowStart = System.nanoTime();
+    private long windowSum;
+    private int windowCount;
+    private int windowMaxInflight;
+    private volatile double shortLatency;
+    private volatile double longLatency;
+
+    /**
+     * Создаёт ограничитель.
+     * @param initialLimit начальный предел.
+     * @param minLimit     ниже этого предел не опускается.
+     * @param maxLimit     выше этого предел не поднимается.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.estimate = limit;
+    }
+
+    /**
+     * Задаёт, кого извещать о смене предела (например, чтобы подогнать число рабочих потоков).
+     * Вызывается в потоке, завершившем окно.
+     * @param listener получатель нового предела.
+     */
+    public void setListener(IntConsumer listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Занимает место под подключение, если предел позволяет.
+     * @return true, если подключение можно обслуживать; тогда по окончании нужно вызвать {@code release}.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = inflight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * Освобождает место без замера (подключение передано долгоживущему обработчику или оборвалось).
+     */
+    public void release() {
+        inflight.decrementAndGet();
+    }
+
+    /**
+     * Освобождает место и учитывает задержку обслуживания.
+     * @param latencyNanos ожидание рабочего потока и работа обработчика.
+     */
+    public void release(long latencyNanos) {
+        final int wasInflight = inflight.getAndDecrement();
+        final int changed;
+        synchronized (this) {
+            windowSum += latencyNanos;
+            windowCount++;
+            windowMaxInflight = Math.max(windowMaxInflight, wasInflight);
+            final long now = System.nanoTime();
+            if (windowCount < WINDOW_SAMPLES || now - windowStart < WINDOW_NANOS) return;
+            changed = update();
+            windowStart = now;
+            windowSum = 0;
+            windowCount = 0;
+            windowMaxInflight = 0;
+        }
+        if (changed > 0) listener.accept(changed);
+    }
+
+    /**
+     * Пересчитывает предел по завершённому окну.
+     * @return новый предел, если он изменился, иначе 0.
+     */
+    private int update() {
+        final double current = (double) windowSum / windowCount;
+        shortLatency = current;
+        double base = longLatency == 0 ? current : longLatency + (current - longLatency) / LONG_WINDOWS;
+        // задержка давно и сильно ниже базы — нагрузка сменилась, база опускается быстрее
+        if (base > 2 * current) base *= 0.95;
+        longLatency = base;
+
+        final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * base / current));
+        double target = estimate * gradient + Math.sqrt(estimate);
+        if (target > estimate && windowMaxInflight < estimate / 2) target = estimate;
+        estimate = Math.max(minLimit, Math.min(maxLimit, estimate * (1 - SMOOTHING) + target * SMOOTHING));
+
+        final int rounded = (int) estimate;
+        if (rounded == limit) return 0;
+        limit = rounded;
+        return rounded;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public double getShortLatencyMillis() {
+        return shortLatency / 1_000_000;
+    }
+
+    @Override
+    public double getLongLatencyMillis() {
+        return longLatency / 1_000_000;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiter [предел %d (%d–%d), в работе %d, отклонено %d, задержка %.1f мс при базе %.1f мс]"
+                .formatted(limit, minLimit, maxLimit, inflight.get(), rejected.get(),
+                        getShortLatencyMillis(), getLongLatencyMillis());
+    }
+}
@@ -0,0 +1,32 @@
+package ru.netology;
+
+/**
+ * Показатели {@link ConcurrencyLimiter} для мониторинга через JMX.
+ */
+public interface ConcurrencyLimiterMBean {
+
+    /**
+     * @return текущий предел одновременно обслуживаемых подключений.
+     */
+    int getLimit();
+
+    /**
+     * @return сколько подключений сейчас принято и не обслужено.
+     */
+    int getInflight();
+
+    /**
+     * @return сколько подключений отклонено из-за предела.
+     */
+    long getRejected();
+
+    /**
+     * @return средняя задержка за последнее окно, мс.
+     */
+    double getShortLatencyMillis();
+
+    /**
+     * @return долгосрочная (базовая) задержка, мс.
+     */
+    double getLongLatencyMillis();
+}
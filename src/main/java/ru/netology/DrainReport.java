@@ -0,0 +1,89 @@
+package ru.netology;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Итог плавной остановки сервера: сколько подключений закрыто без запроса,
+ * сколько сессий WebSocket закрыто с кодом 1001, сколько начатых запросов
+ * завершилось штатно и какие пришлось оборвать.
+ */
+public class DrainReport {
+    private final int idleClosed;
+    private final int webSocketsClosed;
+    private final int completed;
+    private final List<String> cutOff;
+    private final Duration elapsed;
+
+    public DrainReport(int idleClosed, int webSocketsClosed, int completed, List<String> cutOff, Duration elapsed) {
+        this.idleClosed = idleClosed;
+        this.webSocketsClosed = webSocketsClosed;
+        this.completed = completed;
+        this.cutOff = List.copyOf(cutOff);
+        this.elapsed = elapsed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder desc = new StringBuilder(
+                ("""
+                        \tОСТАНОВКА:
+                        закрыто простаивающих\t=\t%d
+                        закрыто сессий WebSocket\t=\t%d
+                        завершено запросов\t=\t%d
+                        оборвано запросов\t=\t%d
+                        заняло\t=\t%d мс
+                        """).formatted(idleClosed, webSocketsClosed, completed, cutOff.size(), elapsed.toMillis()));
+        for (String connection : cutOff)
+            desc.append("оборвано: ").append(connection).append("\n");
+        return desc.toString();
+    }
+
+    /**
+     * Сообщает, сколько подключений закрыто, не дождавшись от них запроса.
+     * @return значение поля idleClosed.
+     */
+    public int getIdleClosed() {
+        return idleClosed;
+    }
+
+    /**
+     * Сообщает, скольким сессиям WebSocket отправлено закрытие с кодом 1001.
+     * @return значение поля webSocketsClosed.
+     */
+    public int getWebSocketsClosed() {
+        return webSocketsClosed;
+    }
+
+    /**
+     * Сообщает, сколько начатых запросов завершилось до срока.
+     * @return значение поля completed.
+     */
+    public int getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Возвращает описания оборванных подключений: адрес клиента и строку запроса.
+     * @return значение поля cutOff.
+     */
+    public List<String> getCutOff() {
+        return cutOff;
+    }
+
+    /**
+     * Сообщает, сколько заняла остановка.
+     * @return значение поля elapsed.
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Сообщает, завершились ли все начатые запросы штатно.
+     * @return {@code true}, если ничего не оборвано.
+     */
+    public boolean isClean() {
+        return cutOff.isEmpty();
+    }
+}
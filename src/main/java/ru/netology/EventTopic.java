@@ -0,0 +1,269 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Тема серверных событий (Server-Sent Events): держит открытыми подключения подписчиков
+ * и рассылает им кадры {@code text/event-stream}.
+ * <p>
+ * Подписчик не занимает отдельный поток: у каждого есть ограниченная очередь кадров,
+ * которую по мере надобности вычерпывает небольшой общий пул рассыльщиков.
+ * Подписчик, чья очередь переполнилась (клиент не успевает читать), отключается.
+ * Так же отключается подписчик, запись которому зависла дольше отведённого срока:
+ * иначе несколько переставших читать клиентов заняли бы всех рассыльщиков темы.
+ * Раз в заданный интервал всем отправляется пустой комментарий, чтобы обнаруживать
+ * отвалившихся клиентов и не давать промежуточным узлам закрыть подключение.
+ */
+public class EventTopic {
+    private static final ExecutorService DISPATCHER = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2), daemon("sse-dispatcher"));
+    private static final ScheduledExecutorService HEARTBEAT =
+            Executors.newSingleThreadScheduledExecutor(daemon("sse-heartbeat"));
+    private static final byte[] HEARTBEAT_FRAME = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final String name;
+    private final int maxQueued;
+    private final int historySize;
+    private final long writeTimeoutNanos;
+    private final ScheduledFuture<?> heartbeat;
+    private final ScheduledFuture<?> writeWatchdog;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    /**
+     * Последние события для клиентов, переподключившихся с заголовком Last-Event-ID.
+     */
+    private final Deque<Frame> history = new ArrayDeque<>();
+    private final AtomicLong lastId = new AtomicLong();
+
+    /**
+     * Создаёт тему с настройками по умолчанию: очередь на 64 кадра,
+     * история из 16 событий, проверка подписчиков каждые 15 секунд
+     * и не больше 5 секунд на запись одному подписчику.
+     * @param name имя темы (для мониторинга).
+     */
+    public EventTopic(String name) {
+        this(name, 64, 16, 15, 5);
+    }
+
+    /**
+     * Создаёт тему с указанными настройками.
+     * @param name                имя темы (для мониторинга).
+     * @param maxQueued           сколько кадров может ждать отправки одному подписчику.
+     * @param historySize         сколько последних событий хранить для переподключившихся.
+     * @param heartbeatSeconds    период отправки пустого комментария (0 — не отправлять).
+     * @param writeTimeoutSeconds сколько может длиться запись одному подписчику,
+     *                            прежде чем он будет отключён (0 — без ограничения).
+     */
+    public EventTopic(String name, int maxQueued, int historySize, int heartbeatSeconds, int writeTimeoutSeconds) {
+        this.name = name;
+        this.maxQueued = maxQueued;
+        this.historySize = historySize;
+        this.writeTimeoutNanos = TimeUnit.SECONDS.toNanos(writeTimeoutSeconds);
+        heartbeat = heartbeatSeconds <= 0 ? null : HEARTBEAT.scheduleAtFixedRate(() -> {
+            for (Subscriber subscriber : subscribers)
+                subscriber.offer(HEARTBEAT_FRAME);
+        }, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        // закрытие подключения снимает блокировку с зависшей записи и освобождает рассыльщика
+        final long period = Math.max(50, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos) / 4));
+        writeWatchdog = writeTimeoutSeconds <= 0 ? null : HEARTBEAT.scheduleAtFixedRate(() -> {
+            final long now = System.nanoTime();
+            for (Subscriber subscriber : subscribers)
+                if (subscriber.isWriteStuck(now)) {
+                    System.out.println("SSE " + name + ": запись подписчику зависла, отключён");   // мониторинг
+                    subscriber.close();
+                }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Подписывает клиента: отправляет заголовки потока событий, при наличии
+     * Last-Event-ID досылает пропущенные события и оставляет подключение открытым.
+     * @param request запрос подписки.
+     * @param out     исходящий поток подключения; закрывается при отписке.
+     * @throws IOException если не удалось отправить заголовки.
+     */
+    public void subscribe(Request request, OutputStream out) throws IOException {
+        out.write(("""
+                HTTP/1.1 200 OK\r
+                Content-Type: text/event-stream; charset=utf-8\r
+                Cache-Control: no-cache\r
+                Connection: keep-alive\r
+                \r
+                retry: 3000
+
+                """).getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        final var subscriber = new Subscriber(out);
+        long since = -1;
+        final var lastEventId = request.getHeader("Last-Event-ID");
+        if (lastEventId.isPresent()) {
+            try {
+                since = Long.parseLong(lastEventId.get().trim());
+            } catch (NumberFormatException ignored) {
+                // непонятный идентификатор — просто без досылки
+            }
+        }
+        synchronized (history) {
+            if (since >= 0)
+                for (Frame frame : history)
+                    if (frame.id > since) subscriber.offer(frame.bytes);
+            subscribers.add(subscriber);
+        }
+        System.out.println("SSE " + name + ": подписчиков " + subscribers.size());   // мониторинг
+    }
+
+    /**
+     * Рассылает всем подписчикам безымянное событие.
+     * @param data данные события (может быть многострочным).
+     */
+    public void publish(String data) {
+        publish(null, data);
+    }
+
+    /**
+     * Рассылает всем подписчикам событие. Кадр кодируется один раз для всех.
+     * @param event имя события или {@code null} для события по умолчанию ("message").
+     * @param data  данные события (может быть многострочным).
+     */
+    public void publish(String event, String data) {
+        final long id = lastId.incrementAndGet();
+        final var frame = new StringBuilder().append("id: ").append(id).append('\n');
+        if (event != null) frame.append("event: ").append(event).append('\n');
+        for (String line : data.split("\r\n|\r|\n", -1))
+            frame.append("data: ").append(line).append('\n');
+        final var bytes = frame.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+
+        synchronized (history) {
+            if (historySize > 0) {
+                history.addLast(new Frame(id, bytes));
+                if (history.size() > historySize) history.removeFirst();
+            }
+            for (Subscriber subscriber : subscribers)
+                subscriber.offer(bytes);
+        }
+    }
+
+    /**
+     * Сообщает число текущих подписчиков.
+     * @return количество подписчиков.
+     */
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Отключает всех подписчиков и останавливает периодические проверки темы
+     * (например, при остановке сервера).
+     */
+    public void closeAll() {
+        if (heartbeat != null) heartbeat.cancel(false);
+        if (writeWatchdog != null) writeWatchdog.cancel(false);
+        for (Subscriber subscriber : subscribers)
+            subscriber.close();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        final var counter = new AtomicLong();
+        return r -> {
+            final var thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Закодированное событие с его идентификатором.
+     */
+    private static class Frame {
+        final long id;
+        final byte[] bytes;
+
+        Frame(long id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Подписчик: очередь кадров и признак того, что её уже вычерпывает рассыльщик.
+     */
+    private class Subscriber implements Runnable {
+        private final OutputStream out;
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(maxQueued);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed = false;
+        /**
+         * Момент начала текущей записи, 0 — запись не идёт.
+         */
+        private volatile long writeSince = 0;
+
+        Subscriber(OutputStream out) {
+            this.out = out;
+        }
+
+        void offer(byte[] frame) {
+            if (closed) return;
+            if (!queue.offer(frame)) {
+                System.out.println("SSE " + name + ": подписчик не успевает, отключён");   // мониторинг
+                close();
+                return;
+            }
+            if (scheduled.compareAndSet(false, true))
+                DISPATCHER.execute(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] frame;
+                while (!closed && (frame = queue.poll()) != null) {
+                    writeSince = System.nanoTime();
+                    out.write(frame);
+                }
+                writeSince = System.nanoTime();
+                out.flush();
+            } catch (IOException e) {
+                close();
+                return;
+            } finally {
+                writeSince = 0;
+                scheduled.set(false);
+            }
+            // кадр мог прийти между опустошением очереди и сбросом признака
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true))
+                DISPATCHER.execute(this);
+        }
+
+        boolean isWriteStuck(long now) {
+            final long since = writeSince;
+            return since != 0 && now - since > writeTimeoutNanos;
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            subscribers.remove(this);
+            queue.clear();
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // клиент уже ушёл
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Потоковый разбор параметров application/x-www-form-urlencoded прямо из байтов тела.
+ * <p>
+ * Тело проходится один раз: пары делятся по {@code &}, имя и значение — по первому {@code =}.
+ * Фрагмент без {@code %} и {@code +} сразу превращается в строку; остальные раскодируются
+ * в общий рабочий массив, так что ни строка всего тела, ни массив подстрок не создаются.
+ * Пара без {@code =} даёт пустое значение, пустые пары пропускаются.
+ */
+final class FormUrlDecoder {
+    private byte[] scratch = new byte[256];
+
+    private FormUrlDecoder() {
+    }
+
+    /**
+     * Разбирает параметры и добавляет их в карту в порядке следования.
+     * @param source массив с закодированными параметрами.
+     * @param from   начало параметров.
+     * @param to     конец параметров (не включительно).
+     * @param params карта "имя — список значений", в которую добавляются параметры.
+     * @throws IOException если в параметрах некорректная %-последовательность.
+     */
+    static void decode(byte[] source, int from, int to, Map<String, List<String>> params) throws IOException {
+        final var decoder = new FormUrlDecoder();
+        int pairStart = from;
+        int eq = -1;
+        for (int i = from; i <= to; i++) {
+            if (i < to && source[i] != '&') {
+                if (source[i] == '=' && eq == -1) eq = i;
+                continue;
+            }
+            if (i > pairStart) {
+                final int nameEnd = eq == -1 ? i : eq;
+                final var name = decoder.string(source, pairStart, nameEnd);
+                final var value = eq == -1 ? "" : decoder.string(source, eq + 1, i);
+                params.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+            }
+            pairStart = i + 1;
+            eq = -1;
+        }
+    }
+
+    /**
+     * Раскодирует фрагмент: {@code +} — пробел, {@code %XX} — байт; байты читаются как UTF-8.
+     */
+    private String string(byte[] source, int from, int to) throws IOException {
+        int i = from;
+        while (i < to && source[i] != '%' && source[i] != '+') i++;
+        if (i == to) return new String(source, from, to - from, StandardCharsets.UTF_8);
+
+        if (scratch.length < to - from) scratch = new byte[Math.max(to - from, scratch.length * 2)];
+        int length = i - from;
+        System.arraycopy(source, from, scratch, 0, length);
+        for (; i < to; i++) {
+            final byte b = source[i];
+            if (b == '+') {
+                scratch[length++] = ' ';
+            } else if (b == '%') {
+                if (i + 2 >= to) throw new IOException("Invalid request");
+                final int high = Character.digit(source[i + 1], 16);
+                final int low = Character.digit(source[i + 2], 16);
+                if (high < 0 || low < 0) throw new IOException("Invalid request");
+                scratch[length++] = (byte) (high << 4 | low);
+                i += 2;
+            } else {
+                scratch[length++] = b;
+            }
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,320 @@
+package ru.netology;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Заголовки запроса или части многочастного запроса.
+ * <p>
+ * Хранятся в порядке получения в двух плоских массивах имён и значений, повторы сохраняются.
+ * Имена сравниваются без учёта регистра. Для распространённых заголовков имя не создаётся
+ * заново, а берётся из общей таблицы (хэш считается сразу по байтам запроса),
+ * и первое вхождение такого заголовка находится без перебора.
+ */
+public class Headers {
+    /**
+     * Распространённые заголовки в принятом написании.
+     */
+    private static final String[] KNOWN = {
+            "Host", "Connection", "Content-Length", "Content-Type", "Content-Disposition",
+            "Transfer-Encoding", "Expect", "Upgrade", "Accept", "Accept-Encoding", "Accept-Language",
+            "User-Agent", "Referer", "Origin", "Cookie", "Authorization", "Cache-Control", "Pragma",
+            "If-None-Match", "If-Modified-Since", "Range", "Last-Event-ID", "Sec-WebSocket-Key",
+            "Sec-WebSocket-Version", "Sec-WebSocket-Extensions", "Sec-WebSocket-Protocol",
+            "Sec-Fetch-Site", "Sec-Fetch-Mode", "Sec-Fetch-Dest", "Upgrade-Insecure-Requests",
+            "DNT", "Keep-Alive", "X-Forwarded-For", "X-Request-ID",
+    };
+    private static final byte[][] KNOWN_LOWER = new byte[KNOWN.length][];
+    private static final int TABLE_MASK = 127;
+    private static final byte[] TABLE = new byte[TABLE_MASK + 1];   // номер в KNOWN + 1; 0 — пусто
+
+    static {
+        for (int k = 0; k < KNOWN.length; k++) {
+            KNOWN_LOWER[k] = new byte[KNOWN[k].length()];
+            for (int i = 0; i < KNOWN[k].length(); i++)
+                KNOWN_LOWER[k][i] = (byte) lower(KNOWN[k].charAt(i));
+            var slot = hash(KNOWN[k]) & TABLE_MASK;
+            while (TABLE[slot] != 0) slot = (slot + 1) & TABLE_MASK;
+            TABLE[slot] = (byte) (k + 1);
+        }
+    }
+
+    private String[] names;
+    private String[] values;
+    private int size;
+    /**
+     * Позиция первого вхождения каждого распространённого заголовка + 1; 0 — заголовка нет.
+     */
+    private final short[] firstKnown = new short[KNOWN.length];
+
+    /**
+     * Создаёт пустой набор заголовков.
+     */
+    public Headers() {
+        names = new String[8];
+        values = new String[8];
+    }
+
+    /**
+     * Разбирает блок заголовков вида {@code Имя: значение}, разделённых переводами строк.
+     * @param source  массив, содержащий блок.
+     * @param from    начало блока.
+     * @param to      конец блока (не включительно, без завершающей пустой строки).
+     * @param lenient пропускать ли строки без двоеточия вместо отказа.
+     * @return разобранные заголовки.
+     * @throws IllegalArgumentException если встречена некорректная строка, а {@code lenient} ложно.
+     */
+    public static Headers parse(byte[] source, int from, int to, boolean lenient) {
+        final var headers = new Headers();
+        var lineStart = from;
+        while (lineStart < to) {
+            var lineEnd = lineStart;
+            while (lineEnd < to && !(source[lineEnd] == '\r' && lineEnd + 1 < to && source[lineEnd + 1] == '\n'))
+                lineEnd++;
+            if (lineEnd > lineStart)
+                headers.addLine(source, lineStart, lineEnd, lenient);
+            lineStart = lineEnd + 2;
+        }
+        return headers;
+    }
+
+    private void addLine(byte[] source, int start, int end, boolean lenient) {
+        var colon = start;
+        while (colon < end && source[colon] != ':') colon++;
+        // имя не может быть пустым, начинаться с пробела (устаревший перенос) или кончаться пробелом
+        if (colon == end || colon == start || isSpace(source[start]) || isSpace(source[colon - 1])) {
+            if (lenient) return;
+            throw new IllegalArgumentException("Invalid header line");
+        }
+        var valueStart = colon + 1;
+        var valueEnd = end;
+        while (valueStart < valueEnd && isSpace(source[valueStart])) valueStart++;
+        while (valueEnd > valueStart && isSpace(source[valueEnd - 1])) valueEnd--;
+
+        final var known = knownIndex(source, start, colon);
+        final var name = known >= 0 ? KNOWN[known] : new String(source, start, colon - start);
+        add(name, known, new String(source, valueStart, valueEnd - valueStart));
+    }
+
+    /**
+     * Добавляет заголовок (повторы не заменяют прежние значения).
+     * @param name  имя заголовка.
+     * @param value значение.
+     */
+    public void add(String name, String value) {
+        final var known = knownIndex(name);
+        add(known >= 0 ? KNOWN[known] : name, known, value);
+    }
+
+    private void add(String name, int known, String value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        if (known >= 0 && firstKnown[known] == 0 && size < Short.MAX_VALUE)
+            firstKnown[known] = (short) (size + 1);
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Возвращает первое значение заголовка.
+     * @param name имя заголовка в любом регистре.
+     * @return значение или {@code null}, если заголовка нет.
+     */
+    public String get(String name) {
+        final var index = indexOf(name);
+        return index == -1 ? null : values[index];
+    }
+
+    /**
+     * Возвращает опционально первое значение заголовка.
+     * @param name имя заголовка в любом регистре.
+     * @return опциональ со значением либо пустую, если заголовка нет.
+     */
+    public Optional<String> first(String name) {
+        return Optional.ofNullable(get(name));
+    }
+
+    /**
+     * Возвращает все значения заголовка в порядке получения.
+     * @param name имя заголовка в любом регистре.
+     * @return список значений (пустой, если заголовка нет).
+     */
+    public List<String> getAll(String name) {
+        final var first = indexOf(name);
+        if (first == -1) return Collections.emptyList();
+        final var all = new ArrayList<String>(2);
+        all.add(values[first]);
+        final var canonical = names[first];
+        for (int i = first + 1; i < size; i++)
+            if (names[i] == canonical || names[i].equalsIgnoreCase(canonical))
+                all.add(values[i]);
+        return all;
+    }
+
+    /**
+     * Сообщает, есть ли заголовок.
+     * @param name имя заголовка в любом регистре.
+     * @return true, если заголовок получен хотя бы раз.
+     */
+    public boolean contains(String name) {
+        return indexOf(name) != -1;
+    }
+
+    /**
+     * Сообщает число полученных заголовков (с повторами).
+     * @return значение поля size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Возвращает имя заголовка по его порядковому номеру.
+     * @param index номер заголовка.
+     * @return имя в том виде, в каком оно хранится.
+     */
+    public String name(int index) {
+        return names[Objects.checkIndex(index, size)];
+    }
+
+    /**
+     * Возвращает значение заголовка по его порядковому номеру.
+     * @param index номер заголовка.
+     * @return значение.
+     */
+    public String value(int index) {
+        return values[Objects.checkIndex(index, size)];
+    }
+
+    /**
+     * Представляет заголовки картой «имя — первое значение» только для чтения.
+     * Ключи ищутся без учёта регистра; карта отражает последующие добавления.
+     * @return карта-представление этого набора заголовков.
+     */
+    public Map<String, String> asMap() {
+        return new MapView();
+    }
+
+    @Override
+    public String toString() {
+        final var desc = new StringBuilder();
+        for (int i = 0; i < size; i++)
+            desc.append(names[i]).append(": ").append(values[i]).append("\n");
+        return desc.toString();
+    }
+
+    /**
+     * Карта поверх набора: обходит первые вхождения имён в порядке получения.
+     */
+    private class MapView extends AbstractMap<String, String> {
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? Headers.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && contains((String) key);
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while (from < size && indexOf(names[from]) != from) from++;
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (next >= size) throw new NoSuchElementException();
+                            final var entry = new SimpleImmutableEntry<>(names[next], values[next]);
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int distinct = 0;
+                    for (int i = 0; i < size; i++)
+                        if (indexOf(names[i]) == i) distinct++;
+                    return distinct;
+                }
+            };
+        }
+    }
+
+    private int indexOf(String name) {
+        final var known = knownIndex(name);
+        if (known >= 0) return firstKnown[known] - 1;
+        for (int i = 0; i < size; i++)
+            if (names[i].equalsIgnoreCase(name)) return i;
+        return -1;
+    }
+
+    private static int knownIndex(String name) {
+        var slot = hash(name) & TABLE_MASK;
+        while (TABLE[slot] != 0) {
+            final var k = TABLE[slot] - 1;
+            if (KNOWN[k].equalsIgnoreCase(name)) return k;
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        return -1;
+    }
+
+    private static int knownIndex(byte[] source, int start, int end) {
+        var h = 0;
+        for (int i = start; i < end; i++) h = 31 * h + lower(source[i]);
+        var slot = h & TABLE_MASK;
+        outer:
+        while (TABLE[slot] != 0) {
+            final var k = TABLE[slot] - 1;
+            slot = (slot + 1) & TABLE_MASK;
+            final var candidate = KNOWN_LOWER[k];
+            if (candidate.length != end - start) continue;
+            for (int i = 0; i < candidate.length; i++)
+                if (lower(source[start + i]) != candidate[i]) continue outer;
+            return k;
+        }
+        return -1;
+    }
+
+    private static int hash(String name) {
+        var h = 0;
+        for (int i = 0; i < name.length(); i++) h = 31 * h + lower(name.charAt(i));
+        return h;
+    }
+
+    private static int lower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
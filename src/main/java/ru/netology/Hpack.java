@@ -0,0 +1,363 @@
+package ru.netology;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сжатие заголовков HTTP/2 (HPACK, RFC 7541): статическая и динамическая таблицы,
+ * целые с префиксом и строки с кодом Хаффмана.
+ * <p>
+ * Декодер поддерживает всё, что может прислать клиент. Кодировщик ответов динамическую таблицу
+ * не заполняет (литералы без индексации), поэтому его состояние не зависит от порядка ответов,
+ * а строки сжимает кодом Хаффмана, когда так короче.
+ */
+final class Hpack {
+    /**
+     * Статическая таблица (RFC 7541, приложение A); индексы начинаются с 1.
+     */
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"},
+            {":path", "/"}, {":path", "/index.html"}, {":scheme", "http"},
+            {":scheme", "https"}, {":status", "200"}, {":status", "204"},
+            {":status", "206"}, {":status", "304"}, {":status", "400"},
+            {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""},
+            {"accept", ""}, {"access-control-allow-origin", ""}, {"age", ""},
+            {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+            {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+            {"content-length", ""}, {"content-location", ""}, {"content-range", ""},
+            {"content-type", ""}, {"cookie", ""}, {"date", ""},
+            {"etag", ""}, {"expect", ""}, {"expires", ""},
+            {"from", ""}, {"host", ""}, {"if-match", ""},
+            {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+            {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""},
+            {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+            {"proxy-authorization", ""}, {"range", ""}, {"referer", ""},
+            {"refresh", ""}, {"retry-after", ""}, {"server", ""},
+            {"set-cookie", ""}, {"strict-transport-security", ""}, {"transfer-encoding", ""},
+            {"user-agent", ""}, {"vary", ""}, {"via", ""},
+            {"www-authenticate", ""},
+    };
+    /**
+     * Коды Хаффмана (RFC 7541, приложение B) для байтов 0..255, выровненные вправо, и их длины в битах.
+     * Символ конца строки (EOS) — 30 единичных битов.
+     */
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+    };
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+    };
+    private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELD_INDEX = new HashMap<>();
+    /**
+     * Дерево декодирования Хаффмана в плоском виде: для узла i дети — в 2i и 2i+1,
+     * значение — номер символа или -1 для внутреннего узла.
+     */
+    private static final int[] TREE_CHILDREN;
+    private static final short[] TREE_SYMBOLS;
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAME_INDEX.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_FIELD_INDEX.put(STATIC_TABLE[i][0] + ":" + STATIC_TABLE[i][1], i + 1);
+        }
+        // дерево из 256 листьев и EOS: не больше 513 узлов
+        final var children = new int[2 * 520];
+        final var symbols = new short[520];
+        java.util.Arrays.fill(symbols, (short) -1);
+        var nodes = 1;
+        for (int symbol = 0; symbol <= 256; symbol++) {
+            final int code = symbol == 256 ? 0x3fffffff : HUFFMAN_CODES[symbol];
+            final int length = symbol == 256 ? 30 : HUFFMAN_LENGTHS[symbol];
+            var node = 0;
+            for (int bit = length - 1; bit >= 0; bit--) {
+                final var slot = 2 * node + ((code >>> bit) & 1);
+                if (children[slot] == 0) children[slot] = nodes++;
+                node = children[slot];
+            }
+            symbols[node] = (short) symbol;
+        }
+        TREE_CHILDREN = children;
+        TREE_SYMBOLS = symbols;
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * Ошибка сжатия заголовков; для соединения HTTP/2 она неустранима.
+     */
+    static class CompressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        CompressionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Декодер блоков заголовков одного соединения (хранит динамическую таблицу между блоками).
+     */
+    static class Decoder {
+        private final ArrayDeque<String[]> dynamicTable = new ArrayDeque<>();
+        private final int maxTableSizeLimit;
+        private int maxTableSize;
+        private int tableSize;
+
+        /**
+         * @param maxTableSize размер динамической таблицы, объявленный клиенту (SETTINGS_HEADER_TABLE_SIZE).
+         */
+        Decoder(int maxTableSize) {
+            this.maxTableSizeLimit = maxTableSize;
+            this.maxTableSize = maxTableSize;
+        }
+
+        /**
+         * Декодирует блок заголовков.
+         * @param block   байты блока.
+         * @param maxSize наибольший суммарный размер заголовков (по правилам SETTINGS_MAX_HEADER_LIST_SIZE).
+         * @return заголовки в порядке получения, включая псевдозаголовки.
+         * @throws CompressionException если блок некорректен.
+         */
+        Headers decode(byte[] block, int maxSize) throws CompressionException {
+            final var headers = new Headers();
+            final var position = new int[]{0};
+            var listSize = 0;
+            var fieldSeen = false;
+            while (position[0] < block.length) {
+                final var b = block[position[0]] & 0xff;
+                final String name;
+                final String value;
+                if ((b & 0x80) != 0) {                         // индексированное поле
+                    final var entry = entry(readInt(block, position, 7));
+                    name = entry[0];
+                    value = entry[1];
+                } else if ((b & 0xc0) == 0x40) {               // литерал с добавлением в таблицу
+                    final var index = readInt(block, position, 6);
+                    name = index == 0 ? readString(block, position) : entry(index)[0];
+                    value = readString(block, position);
+                    add(name, value);
+                } else if ((b & 0xe0) == 0x20) {               // смена размера таблицы — только в начале блока
+                    if (fieldSeen) throw new CompressionException("Table size update after field");
+                    final var size = readInt(block, position, 5);
+                    if (size > maxTableSizeLimit) throw new CompressionException("Table size too large");
+                    maxTableSize = size;
+                    evict();
+                    continue;
+                } else {                                       // литерал без индексации или никогда не индексируемый
+                    final var index = readInt(block, position, 4);
+                    name = index == 0 ? readString(block, position) : entry(index)[0];
+                    value = readString(block, position);
+                }
+                fieldSeen = true;
+                listSize += name.length() + value.length() + 32;
+                if (listSize > maxSize) throw new CompressionException("Header list too large");
+                headers.add(name, value);
+            }
+            return headers;
+        }
+
+        private String[] entry(int index) throws CompressionException {
+            if (index <= 0) throw new CompressionException("Index 0");
+            if (index <= STATIC_TABLE.length) return STATIC_TABLE[index - 1];
+            final var dynamicIndex = index - STATIC_TABLE.length - 1;
+            if (dynamicIndex >= dynamicTable.size()) throw new CompressionException("Index out of table");
+            // новые записи — в начале
+            var i = 0;
+            for (String[] entry : dynamicTable)
+                if (i++ == dynamicIndex) return entry;
+            throw new CompressionException("Index out of table");
+        }
+
+        private void add(String name, String value) {
+            final var size = name.length() + value.length() + 32;
+            if (size > maxTableSize) {
+                dynamicTable.clear();
+                tableSize = 0;
+                return;
+            }
+            dynamicTable.addFirst(new String[]{name, value});
+            tableSize += size;
+            evict();
+        }
+
+        private void evict() {
+            while (tableSize > maxTableSize && !dynamicTable.isEmpty()) {
+                final var removed = dynamicTable.removeLast();
+                tableSize -= removed[0].length() + removed[1].length() + 32;
+            }
+        }
+    }
+
+    /**
+     * Кодирует заголовки ответа.
+     * @param fields пары имя/значение; имена уже в нижнем регистре, {@code :status} — первым.
+     * @return блок заголовков.
+     */
+    static byte[] encode(List<String[]> fields) {
+        final var out = new ByteArrayOutputStream(64 + 32 * fields.size());
+        for (String[] field : fields) {
+            final var full = STATIC_FIELD_INDEX.get(field[0] + ":" + field[1]);
+            if (full != null) {
+                writeInt(out, 0x80, 7, full);
+                continue;
+            }
+            final var nameIndex = STATIC_NAME_INDEX.get(field[0]);
+            if (nameIndex != null) {
+                writeInt(out, 0x00, 4, nameIndex);
+            } else {
+                out.write(0x00);
+                writeString(out, field[0]);
+            }
+            writeString(out, field[1]);
+        }
+        return out.toByteArray();
+    }
+
+    private static int readInt(byte[] block, int[] position, int prefixBits) throws CompressionException {
+        final var mask = (1 << prefixBits) - 1;
+        var value = block[position[0]++] & mask;
+        if (value < mask) return value;
+        var shift = 0;
+        while (true) {
+            if (position[0] >= block.length) throw new CompressionException("Truncated integer");
+            final var b = block[position[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            if (value < 0 || shift > 21) throw new CompressionException("Integer overflow");
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+
+    private static String readString(byte[] block, int[] position) throws CompressionException {
+        if (position[0] >= block.length) throw new CompressionException("Truncated string");
+        final var huffman = (block[position[0]] & 0x80) != 0;
+        final var length = readInt(block, position, 7);
+        if (length > block.length - position[0]) throw new CompressionException("Truncated string");
+        final var start = position[0];
+        position[0] += length;
+        if (!huffman) return new String(block, start, length, StandardCharsets.ISO_8859_1);
+        return huffmanDecode(block, start, length);
+    }
+
+    private static String huffmanDecode(byte[] block, int start, int length) throws CompressionException {
+        final var out = new ByteArrayOutputStream(length * 8 / 5 + 1);
+        var node = 0;
+        var depth = 0;                  // битов с последнего выданного символа
+        var allOnes = true;
+        for (int i = start; i < start + length; i++) {
+            final var b = block[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                final var one = (b >>> bit) & 1;
+                node = TREE_CHILDREN[2 * node + one];
+                if (node == 0) throw new CompressionException("Invalid Huffman code");
+                depth++;
+                allOnes &= one == 1;
+                final var symbol = TREE_SYMBOLS[node];
+                if (symbol == 256) throw new CompressionException("EOS in Huffman string");
+                if (symbol >= 0) {
+                    out.write(symbol);
+                    node = 0;
+                    depth = 0;
+                    allOnes = true;
+                }
+            }
+        }
+        // хвост — не длиннее 7 битов и только из единиц (начало EOS)
+        if (depth > 7 || !allOnes) throw new CompressionException("Invalid Huffman padding");
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int firstByte, int prefixBits, int value) {
+        final var mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            out.write(firstByte | value);
+            return;
+        }
+        out.write(firstByte | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        final var bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        long bits = 0;
+        for (byte b : bytes) bits += HUFFMAN_LENGTHS[b & 0xff];
+        final var huffmanLength = (int) ((bits + 7) / 8);
+        if (huffmanLength >= bytes.length) {
+            writeInt(out, 0x00, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return;
+        }
+        writeInt(out, 0x80, 7, huffmanLength);
+        long current = 0;
+        var pending = 0;
+        for (byte b : bytes) {
+            final var symbol = b & 0xff;
+            current = (current << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+            pending += HUFFMAN_LENGTHS[symbol];
+            while (pending >= 8) {
+                pending -= 8;
+                out.write((int) (current >>> pending));
+            }
+        }
+        // дополняем последний байт единицами (старшими битами EOS)
+        if (pending > 0)
+            out.write((int) ((current << (8 - pending)) | (0xff >>> pending)));
+    }
+}
@@ -0,0 +1,1377 @@
+package ru.netology;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Соединение HTTP/2 без шифрования (h2c, RFC 9113).
+ * <p>
+ * Соединение читается и пишется двумя собственными потоками вне рабочих групп сервера.
+ * Каждый поток (stream) HTTP/2 превращается в обычный запрос и отрабатывается теми же
+ * обработчиками, что и HTTP/1.1: запрос собирается из псевдозаголовков и заголовков,
+ * а ответ обработчика разбирается и переводится в кадры HEADERS и DATA.
+ * <p>
+ * Ответы нескольких потоков чередуются кадрами. Очерёдность задаёт заголовок {@code priority}
+ * (RFC 9218): сначала ответы с меньшей срочностью {@code u}, при равной — неинкрементальные
+ * по порядку номеров, инкрементальные ({@code i}) по кругу. Кадры PRIORITY из RFC 7540
+ * принимаются и не учитываются.
+ */
+public class Http2Connection {
+    // типы кадров
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+    private static final int PRIORITY_UPDATE = 0x10;
+    // флаги
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+    // параметры SETTINGS
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+    // коды ошибок
+    public static final int NO_ERROR = 0x0;
+    public static final int PROTOCOL_ERROR = 0x1;
+    public static final int INTERNAL_ERROR = 0x2;
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+    public static final int STREAM_CLOSED = 0x5;
+    public static final int FRAME_SIZE_ERROR = 0x6;
+    public static final int REFUSED_STREAM = 0x7;
+    public static final int CANCEL = 0x8;
+    public static final int COMPRESSION_ERROR = 0x9;
+    public static final int ENHANCE_YOUR_CALM = 0xb;
+    public static final int HTTP_1_1_REQUIRED = 0xd;
+
+    private static final byte[] CLIENT_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+    private static final int FRAME_HEADER_SIZE = 9;
+    private static final int DEFAULT_WINDOW = 65_535;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+    private static final int MIN_FRAME_SIZE = 16_384;               // и наш SETTINGS_MAX_FRAME_SIZE
+    private static final int MAX_FRAME_SIZE = 16_777_215;
+    private static final int MAX_SENT_FRAME = 64 * 1024;            // крупнее кадры не шлём, даже если клиент разрешил
+    private static final int HEADER_TABLE_SIZE = 4096;
+    private static final int STREAM_OUTPUT_LIMIT = 64 * 1024;       // сколько ответа потока может ждать отправки
+    private static final int MAX_CONTROL_BACKLOG = 1024;            // сколько служебных кадров может ждать отправки
+    private static final int MAX_RESPONSE_HEAD = 16 * 1024;
+    private static final int MAX_DISCARDED_BODY = 1024 * 1024;        // сколько отвергнутого тела дочитываем впустую
+    private static final int DEFAULT_URGENCY = 3;
+
+    private static final ExecutorService IO = Executors.newCachedThreadPool(r -> {
+        final var thread = new Thread(r, "h2-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicLong ids = new AtomicLong();
+
+    private final long id = ids.incrementAndGet();
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final boolean prefaceExpected;
+    private final Handler dispatcher;
+    private final Predicate<Request> http1Only;
+    private final RequestLimits limits;
+    private volatile RateLimiter rateLimiter;
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    private volatile long writeTimeoutNanos;
+    /**
+     * Момент начала текущей записи в подключение, 0 — запись не идёт.
+     */
+    private volatile long writeSince = 0;
+    private final ExecutorService workers;
+    private final int maxConcurrentStreams;
+    private final int idleTimeoutMillis;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(HEADER_TABLE_SIZE);
+    private Runnable onTerminate;
+
+    /**
+     * Общий замок состояния потоков и очереди отправки; на нём же ждут писатель и обработчики.
+     */
+    private final Object lock = new Object();
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final ArrayDeque<byte[]> control = new ArrayDeque<>();
+    private long connectionSendWindow = DEFAULT_WINDOW;
+    private long peerInitialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = MIN_FRAME_SIZE;
+    private int lastStreamId = 0;
+    private int lastIncrementalId = 0;
+    private boolean goingAway = false;
+    private boolean closeWhenFlushed = false;
+    private boolean closed = false;
+    private final AtomicBoolean terminated = new AtomicBoolean(false);
+
+    // состояние читателя
+    private int connectionReceiveWindow = DEFAULT_WINDOW;
+    private int continuationStream = 0;
+    private int continuationFlags;
+    private ByteArrayOutputStream continuationBlock;
+
+    /**
+     * Создаёт соединение поверх подключения, по которому клиент начал HTTP/2.
+     * @param socket               подключение.
+     * @param leftover             байты, уже прочитанные из подключения сверх запроса (начало кадров).
+     * @param prefaceExpected      нужно ли ещё прочитать предисловие клиента (после обновления с HTTP/1.1).
+     * @param dispatcher           обработка запроса по правилам сервера.
+     * @param http1Only            запросы, которые можно обслужить только по HTTP/1.1.
+     * @param limits               ограничения размеров запроса.
+     * @param workers              потоки, в которых отрабатываются запросы.
+     * @param maxConcurrentStreams сколько потоков клиент может держать открытыми одновременно.
+     * @param idleTimeoutMillis    через сколько закрывать соединение без открытых потоков (0 — не закрывать).
+     * @throws IOException если подключение недоступно.
+     */
+    Http2Connection(Socket socket, byte[] leftover, boolean prefaceExpected, Handler dispatcher,
+                    Predicate<Request> http1Only, RequestLimits limits, ExecutorService workers,
+                    int maxConcurrentStreams, long idleTimeoutMillis) throws IOException {
+        this.socket = socket;
+        final InputStream socketIn = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+        this.in = new DataInputStream(leftover.length == 0 ? socketIn :
+                new SequenceInputStream(new ByteArrayInputStream(leftover), socketIn));
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 32 * 1024);
+        this.prefaceExpected = prefaceExpected;
+        this.dispatcher = dispatcher;
+        this.http1Only = http1Only;
+        this.limits = limits;
+        this.workers = workers;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.idleTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, idleTimeoutMillis);
+    }
+
+    /**
+     * Задаёт ограничение частоты: каждый поток расходует жетон клиента, как запрос HTTP/1.1.
+     * @param rateLimiter ограничитель; {@code null} — без ограничения.
+     */
+    void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Задаёт адаптивный предел: каждый поток занимает место под ним на время ожидания рабочего
+     * и обработки и сообщает пределу свою задержку; сверх предела поток отклоняется (REFUSED_STREAM).
+     * @param concurrencyLimiter адаптивный предел; {@code null} — без него.
+     */
+    void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Задаёт срок записи: сколько обработчик ждёт места в очереди ответа потока, прежде чем
+     * поток будет сброшен (CANCEL). Клиент, не открывающий окно, так не держит рабочих бесконечно.
+     * @param writeTimeout срок; нулевой — ждать без ограничения.
+     */
+    void setWriteTimeout(Duration writeTimeout) {
+        this.writeTimeoutNanos = writeTimeout.toNanos();
+    }
+
+    /**
+     * Сообщает, зависла ли запись в подключение: клиент перестал читать.
+     * @param now     текущее значение {@link System#nanoTime()}.
+     * @param timeout сколько может длиться одна запись.
+     * @return {@code true}, если текущая запись идёт дольше срока.
+     */
+    boolean isWriteStuck(long now, long timeout) {
+        final long since = writeSince;
+        return since != 0 && now - since > timeout;
+    }
+
+    /**
+     * Применяет параметры клиента из заголовка {@code HTTP2-Settings} запроса на обновление.
+     * @param encoded значение заголовка (base64url без выравнивания).
+     * @throws IllegalArgumentException если значение некорректно.
+     */
+    void applyUpgradeSettings(String encoded) {
+        final byte[] payload;
+        try {
+            payload = Base64.getUrlDecoder().decode(encoded.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid HTTP2-Settings", e);
+        }
+        try {
+            applySettings(payload);
+        } catch (ConnectionError e) {
+            throw new IllegalArgumentException("Invalid HTTP2-Settings: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Отправляет свои параметры и запускает чтение и запись соединения.
+     * @param upgrade     запрос, с которого соединение обновилось до HTTP/2 (становится потоком 1), или null.
+     * @param onTerminate что сделать после окончательного закрытия соединения.
+     */
+    void start(Request upgrade, Runnable onTerminate) {
+        this.onTerminate = onTerminate;
+        synchronized (lock) {
+            control.add(settingsFrame());
+            if (upgrade != null) {
+                final var stream = new Stream(1, null, false);
+                stream.upgradeRequest = upgrade;
+                stream.remoteClosed = true;
+                stream.headRequest = "HEAD".equals(upgrade.getMethod());
+                streams.put(1, stream);
+                lastStreamId = 1;
+                dispatch(stream);
+            }
+        }
+        IO.execute(this::writeLoop);
+        IO.execute(this::readLoop);
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "HTTP/2#" + id + " " + socket.getRemoteSocketAddress() + " streams=" + streams.size();
+        }
+    }
+
+    /**
+     * Плавно завершает соединение: сообщает клиенту GOAWAY, дообслуживает начатые потоки
+     * и закрывается, когда их не останется.
+     */
+    public void shutdown() {
+        goAway(NO_ERROR, "Server stopping");
+    }
+
+    /**
+     * Сообщает, закрыто ли соединение.
+     * @return значение поля closed.
+     */
+    public boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    /**
+     * Немедленно закрывает соединение; незаконченные ответы обрываются.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            for (Stream stream : streams.values())
+                stream.reset = true;
+            streams.clear();
+            lock.notifyAll();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // уже закрыто
+        }
+        if (terminated.compareAndSet(false, true) && onTerminate != null)
+            onTerminate.run();
+    }
+
+    // ------------------------------------------------------------------ чтение
+
+    private void readLoop() {
+        try {
+            socket.setSoTimeout(idleTimeoutMillis);
+            if (prefaceExpected) {
+                final var preface = in.readNBytes(CLIENT_PREFACE.length);
+                if (!Arrays.equals(preface, CLIENT_PREFACE))
+                    throw new ConnectionError(PROTOCOL_ERROR, "Invalid connection preface");
+            }
+            final var header = new byte[FRAME_HEADER_SIZE];
+            while (!isClosed()) {
+                final int first;
+                try {
+                    first = in.read();
+                } catch (SocketTimeoutException e) {
+                    if (isIdle()) {
+                        goAway(NO_ERROR, "Idle timeout");
+                        return;
+                    }
+                    continue;
+                }
+                if (first == -1) break;
+                header[0] = (byte) first;
+                in.readFully(header, 1, FRAME_HEADER_SIZE - 1);
+                final int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+                final int type = header[3] & 0xff;
+                final int flags = header[4] & 0xff;
+                final int streamId = readInt(header, 5) & 0x7fffffff;
+                if (length > MIN_FRAME_SIZE)
+                    throw new ConnectionError(FRAME_SIZE_ERROR, "Frame too large: " + length);
+                final var payload = new byte[length];
+                in.readFully(payload);
+                onFrame(type, flags, streamId, payload);
+                // клиент, который шлёт PING и SETTINGS, но не читает ответы, иначе растил бы очередь без предела
+                if (controlBacklog() > MAX_CONTROL_BACKLOG)
+                    throw new ConnectionError(ENHANCE_YOUR_CALM, "Control frame flood");
+            }
+        } catch (ConnectionError e) {
+            System.out.println("H2_PROTOCOL_ERROR " + socket.getRemoteSocketAddress() + ": " + e.getMessage()); // мониторинг
+            goAway(e.code, e.getMessage());
+            return;
+        } catch (IOException e) {
+            // клиент ушёл или соединение закрыто
+        }
+        close();
+    }
+
+    private boolean isIdle() {
+        synchronized (lock) {
+            return streams.isEmpty();
+        }
+    }
+
+    private int controlBacklog() {
+        synchronized (lock) {
+            return control.size();
+        }
+    }
+
+    private void onFrame(int type, int flags, int streamId, byte[] payload) throws ConnectionError {
+        if (continuationStream != 0 && (type != CONTINUATION || streamId != continuationStream))
+            throw new ConnectionError(PROTOCOL_ERROR, "Expected CONTINUATION");
+        switch (type) {
+            case DATA:
+                onData(flags, streamId, payload);
+                break;
+            case HEADERS:
+                onHeaders(flags, streamId, payload);
+                break;
+            case PRIORITY:
+                // приоритеты RFC 7540 не учитываются, проверяется только форма кадра
+                if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "PRIORITY on stream 0");
+                if (payload.length != 5) resetStream(streamId, FRAME_SIZE_ERROR);
+                break;
+            case RST_STREAM:
+                onRstStream(streamId, payload);
+                break;
+            case SETTINGS:
+                onSettings(flags, streamId, payload);
+                break;
+            case PUSH_PROMISE:
+                throw new ConnectionError(PROTOCOL_ERROR, "PUSH_PROMISE from client");
+            case PING:
+                if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "PING on a stream");
+                if (payload.length != 8) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad PING length");
+                if ((flags & FLAG_ACK) == 0) sendControl(frame(PING, FLAG_ACK, 0, payload, 0, 8));
+                break;
+            case GOAWAY:
+                if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "GOAWAY on a stream");
+                // клиент больше не откроет потоков: дообслуживаем начатые и закрываемся
+                goAway(NO_ERROR, "");
+                break;
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload);
+                break;
+            case CONTINUATION:
+                onContinuation(flags, streamId, payload);
+                break;
+            case PRIORITY_UPDATE:
+                onPriorityUpdate(streamId, payload);
+                break;
+            default:
+                // неизвестные типы кадров пропускаются
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, byte[] payload) throws ConnectionError {
+        if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "HEADERS on stream 0");
+        var offset = 0;
+        var end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (payload.length < 1) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad padding");
+            end -= payload[0] & 0xff;
+            offset = 1;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) offset += 5;
+        if (end < offset) throw new ConnectionError(PROTOCOL_ERROR, "Bad padding");
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            onHeaderBlock(streamId, flags, Arrays.copyOfRange(payload, offset, end));
+        } else {
+            continuationStream = streamId;
+            continuationFlags = flags;
+            continuationBlock = new ByteArrayOutputStream(2 * (end - offset));
+            continuationBlock.write(payload, offset, end - offset);
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, byte[] payload) throws ConnectionError {
+        if (continuationStream == 0 || streamId != continuationStream)
+            throw new ConnectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        continuationBlock.write(payload, 0, payload.length);
+        // сжатый блок не длиннее списка заголовков больше чем вдвое; иначе это попытка истощить память
+        if (continuationBlock.size() > 2 * limits.getMaxHeaderSize() + MIN_FRAME_SIZE)
+            throw new ConnectionError(ENHANCE_YOUR_CALM, "Header block too large");
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            final var block = continuationBlock.toByteArray();
+            continuationStream = 0;
+            continuationBlock = null;
+            onHeaderBlock(streamId, continuationFlags, block);
+        }
+    }
+
+    private void onHeaderBlock(int streamId, int flags, byte[] block) throws ConnectionError {
+        // блок декодируется всегда, даже для отклоняемого потока: таблица сжатия общая на соединение
+        final Headers headers;
+        try {
+            headers = decoder.decode(block, limits.getMaxHeaderSize());
+        } catch (Hpack.CompressionException e) {
+            if ("Header list too large".equals(e.getMessage())) {
+                // разжать удалось бы, но список больше объявленного; отклоняем только поток
+                synchronized (lock) {
+                    if (streamId > lastStreamId) lastStreamId = streamId;
+                }
+                resetStream(streamId, REFUSED_STREAM);
+                return;
+            }
+            throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+        final boolean endStream = (flags & FLAG_END_STREAM) != 0;
+        synchronized (lock) {
+            final var existing = streams.get(streamId);
+            if (existing != null) {
+                // завершающие заголовки (trailers) после тела: сами поля не нужны
+                if (existing.remoteClosed) {
+                    resetStream(existing, STREAM_CLOSED);
+                    return;
+                }
+                if (!endStream) throw new ConnectionError(PROTOCOL_ERROR, "Trailers without END_STREAM");
+                onRemoteEnd(existing);
+                return;
+            }
+            if (streamId <= lastStreamId) throw new ConnectionError(STREAM_CLOSED, "HEADERS on closed stream");
+            if (streamId % 2 == 0) throw new ConnectionError(PROTOCOL_ERROR, "Even stream id from client");
+            lastStreamId = streamId;
+            if (goingAway || streams.size() >= maxConcurrentStreams) {
+                control.add(rstStreamFrame(streamId, REFUSED_STREAM));
+                lock.notifyAll();
+                return;
+            }
+            final var stream = new Stream(streamId, headers, endStream);
+            streams.put(streamId, stream);
+            final var priority = headers.get("priority");
+            if (priority != null) stream.applyPriority(priority);
+
+            final var declared = headers.get("content-length");
+            if (declared != null) {
+                try {
+                    stream.declaredLength = Long.parseLong(declared.trim());
+                } catch (NumberFormatException e) {
+                    resetStream(stream, PROTOCOL_ERROR);
+                    return;
+                }
+                // как и в HTTP/1.1, отказываем по объявленной длине до приёма тела
+                if (stream.declaredLength > stream.maxBodySize) {
+                    rejectTooLarge(stream);
+                    return;
+                }
+            }
+            if (endStream) onRemoteEnd(stream);
+        }
+    }
+
+    private void onData(int flags, int streamId, byte[] payload) throws ConnectionError {
+        if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "DATA on stream 0");
+        // окно соединения расходуется всем кадром вместе с выравниванием, даже для закрытого потока
+        connectionReceiveWindow -= payload.length;
+        if (connectionReceiveWindow < 0) throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window exceeded");
+        if (connectionReceiveWindow <= DEFAULT_WINDOW / 2) {
+            sendControl(windowUpdateFrame(0, DEFAULT_WINDOW - connectionReceiveWindow));
+            connectionReceiveWindow = DEFAULT_WINDOW;
+        }
+        var offset = 0;
+        var end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (payload.length < 1) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad padding");
+            end -= payload[0] & 0xff;
+            offset = 1;
+            if (end < offset) throw new ConnectionError(PROTOCOL_ERROR, "Bad padding");
+        }
+        synchronized (lock) {
+            final var stream = streams.get(streamId);
+            if (stream == null || stream.remoteClosed) {
+                if (streamId > lastStreamId) throw new ConnectionError(PROTOCOL_ERROR, "DATA on idle stream");
+                // поток уже сброшен нами — кадры, отправленные клиентом до сброса, пропускаются
+                if (stream != null) resetStream(stream, STREAM_CLOSED);
+                return;
+            }
+            stream.receiveWindow -= payload.length;
+            if (stream.receiveWindow < 0) {
+                resetStream(stream, FLOW_CONTROL_ERROR);
+                return;
+            }
+            if (stream.rejected) {
+                // клиенты плохо переносят сброс потока посреди отправки тела, поэтому небольшой остаток дочитываем
+                stream.discarded += end - offset;
+                if (stream.discarded > MAX_DISCARDED_BODY) {
+                    resetStream(stream, NO_ERROR);
+                    return;
+                }
+            } else {
+                if (stream.bodySize + (end - offset) > stream.maxBodySize) {
+                    rejectTooLarge(stream);
+                    return;
+                }
+                stream.appendBody(payload, offset, end - offset);
+            }
+            if ((flags & FLAG_END_STREAM) != 0) {
+                onRemoteEnd(stream);
+            } else if (stream.receiveWindow <= DEFAULT_WINDOW / 2) {
+                control.add(windowUpdateFrame(streamId, DEFAULT_WINDOW - stream.receiveWindow));
+                stream.receiveWindow = DEFAULT_WINDOW;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Клиент закончил передачу запроса: если запрос корректен, он уходит обработчику.
+     * Вызывается под замком.
+     */
+    private void onRemoteEnd(Stream stream) {
+        stream.remoteClosed = true;
+        if (stream.rejected) {
+            if (stream.endSent) forget(stream);
+            return;
+        }
+        if (stream.declaredLength >= 0 && stream.declaredLength != stream.bodySize) {
+            resetStream(stream, PROTOCOL_ERROR);
+            return;
+        }
+        stream.requestHead = stream.buildRequestHead();
+        if (stream.requestHead == null) {
+            resetStream(stream, PROTOCOL_ERROR);
+            return;
+        }
+        dispatch(stream);
+    }
+
+    private void onRstStream(int streamId, byte[] payload) throws ConnectionError {
+        if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM on stream 0");
+        if (payload.length != 4) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad RST_STREAM length");
+        synchronized (lock) {
+            if (streamId > lastStreamId) throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM on idle stream");
+            final var stream = streams.get(streamId);
+            if (stream != null) {
+                stream.reset = true;
+                forget(stream);
+            }
+        }
+    }
+
+    private void onSettings(int flags, int streamId, byte[] payload) throws ConnectionError {
+        if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS on a stream");
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.length != 0) throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+            return;
+        }
+        applySettings(payload);
+        sendControl(frame(SETTINGS, FLAG_ACK, 0, new byte[0], 0, 0));
+    }
+
+    private void applySettings(byte[] payload) throws ConnectionError {
+        if (payload.length % 6 != 0) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad SETTINGS length");
+        for (int i = 0; i < payload.length; i += 6) {
+            final int setting = (payload[i] & 0xff) << 8 | payload[i + 1] & 0xff;
+            final long value = readInt(payload, i + 2) & 0xffffffffL;
+            switch (setting) {
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) throw new ConnectionError(PROTOCOL_ERROR, "Bad ENABLE_PUSH");
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW) throw new ConnectionError(FLOW_CONTROL_ERROR, "Bad INITIAL_WINDOW_SIZE");
+                    synchronized (lock) {
+                        final long delta = value - peerInitialWindow;
+                        for (Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                            if (stream.sendWindow > MAX_WINDOW)
+                                throw new ConnectionError(FLOW_CONTROL_ERROR, "Stream window overflow");
+                        }
+                        peerInitialWindow = value;
+                        lock.notifyAll();
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < MIN_FRAME_SIZE || value > MAX_FRAME_SIZE)
+                        throw new ConnectionError(PROTOCOL_ERROR, "Bad MAX_FRAME_SIZE");
+                    synchronized (lock) {
+                        peerMaxFrameSize = (int) Math.min(value, MAX_SENT_FRAME);
+                    }
+                    break;
+                default:
+                    // размер таблицы клиента не важен: динамическую таблицу при кодировании мы не используем
+            }
+        }
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws ConnectionError {
+        if (payload.length != 4) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad WINDOW_UPDATE length");
+        final int increment = readInt(payload, 0) & 0x7fffffff;
+        synchronized (lock) {
+            if (streamId == 0) {
+                if (increment == 0) throw new ConnectionError(PROTOCOL_ERROR, "Zero window increment");
+                connectionSendWindow += increment;
+                if (connectionSendWindow > MAX_WINDOW)
+                    throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window overflow");
+            } else {
+                final var stream = streams.get(streamId);
+                if (stream == null) return;
+                if (increment == 0) {
+                    resetStream(stream, PROTOCOL_ERROR);
+                    return;
+                }
+                stream.sendWindow += increment;
+                if (stream.sendWindow > MAX_WINDOW) {
+                    resetStream(stream, FLOW_CONTROL_ERROR);
+                    return;
+                }
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Кадр PRIORITY_UPDATE (RFC 9218): новый приоритет ответа уже открытого потока.
+     */
+    private void onPriorityUpdate(int streamId, byte[] payload) throws ConnectionError {
+        if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "PRIORITY_UPDATE on a stream");
+        if (payload.length < 4) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad PRIORITY_UPDATE length");
+        final int prioritized = readInt(payload, 0) & 0x7fffffff;
+        final var value = new String(payload, 4, payload.length - 4, StandardCharsets.ISO_8859_1);
+        synchronized (lock) {
+            final var stream = streams.get(prioritized);
+            if (stream != null) stream.applyPriority(value);
+        }
+    }
+
+    // ------------------------------------------------------------------ обработка потоков
+
+    /**
+     * Передаёт поток обработчику. Вызывается под замком.
+     */
+    private void dispatch(Stream stream) {
+        final var limiter = concurrencyLimiter;
+        if (limiter != null && !limiter.tryAcquire()) {
+            resetStream(stream, REFUSED_STREAM);
+            return;
+        }
+        final long dispatchedAt = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                try {
+                    serve(stream);
+                } finally {
+                    // задержка, как и для HTTP/1.1: ожидание рабочего плюс обработка
+                    if (limiter != null) limiter.release(System.nanoTime() - dispatchedAt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (limiter != null) limiter.release();
+            resetStream(stream, REFUSED_STREAM);
+        }
+    }
+
+    private void serve(Stream stream) {
+        final var response = new ResponseStream(stream);
+        Request request = stream.upgradeRequest;
+        final boolean owned = request == null;
+        try {
+            if (request == null) {
+                final InputStream raw = stream.bodySize == 0 ?
+                        new ByteArrayInputStream(stream.requestHead) :
+                        new SequenceInputStream(new ByteArrayInputStream(stream.requestHead),
+                                new ByteArrayInputStream(stream.body, 0, stream.bodySize));
+                stream.body = null;
+                request = Request.fromInputStream(raw, null, limits);
+            }
+            if (http1Only.test(request)) {
+                synchronized (lock) {
+                    resetStream(stream, HTTP_1_1_REQUIRED);
+                }
+                return;
+            }
+            // запрос обновления уже получил жетон, когда пришёл по HTTP/1.1
+            final var limiter = rateLimiter;
+            if (limiter != null && owned) {
+                final long retryAfter = limiter.acquire(socket.getInetAddress(), request.getPath());
+                if (retryAfter > 0) {
+                    System.out.println("RATE_LIMITED h2 " + socket.getRemoteSocketAddress() + " "
+                            + request.getMethod() + " " + request.getOriginalPath());      // мониторинг
+                    response.tooManyRequests(retryAfter);
+                    return;
+                }
+            }
+            dispatcher.handle(request, response);
+            response.finish();
+        } catch (PayloadTooLargeException e) {
+            response.fail(413);
+        } catch (IOException e) {
+            if (stream.isReset()) return;                  // клиент сбросил поток, пока шёл ответ
+            if ("Invalid request".equals(e.getMessage())) {
+                response.fail(400);
+            } else {
+                System.out.println("H2_HANDLE_ERROR");          // мониторинг
+                e.printStackTrace();
+                response.fail(500);
+            }
+        } catch (NumberFormatException e) {
+            response.fail(400);
+        } catch (RuntimeException e) {
+            System.out.println("H2_HANDLE_ERROR");              // мониторинг
+            e.printStackTrace();
+            response.fail(500);
+        } finally {
+            if (owned && request != null) request.release();
+        }
+    }
+
+    /**
+     * Отвечает 413 на запрос со слишком большим телом, не дожидаясь тела.
+     * Вызывается под замком.
+     */
+    private void rejectTooLarge(Stream stream) {
+        System.out.println("PAYLOAD_TOO_LARGE h2 " + socket.getRemoteSocketAddress());   // мониторинг
+        stream.rejected = true;
+        stream.body = null;
+        stream.queueHead(List.of(new String[]{":status", "413"}, new String[]{"content-length", "0"}), true);
+    }
+
+    private void resetStream(int streamId, int code) {
+        synchronized (lock) {
+            final var stream = streams.get(streamId);
+            if (stream != null) {
+                resetStream(stream, code);
+            } else {
+                control.add(rstStreamFrame(streamId, code));
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Сбрасывает поток со своей стороны. Вызывается под замком.
+     */
+    private void resetStream(Stream stream, int code) {
+        if (stream.reset) return;
+        stream.reset = true;
+        control.add(rstStreamFrame(stream.id, code));
+        forget(stream);
+    }
+
+    /**
+     * Убирает закрытый поток. Вызывается под замком.
+     */
+    private void forget(Stream stream) {
+        stream.chunks.clear();
+        stream.queued = 0;
+        streams.remove(stream.id);
+        if (goingAway && streams.isEmpty()) closeWhenFlushed = true;
+        lock.notifyAll();
+    }
+
+    private void goAway(int code, String debug) {
+        synchronized (lock) {
+            if (closed) return;
+            if (!goingAway) {
+                goingAway = true;
+                final var debugBytes = debug.getBytes(StandardCharsets.UTF_8);
+                final var payload = new byte[8 + debugBytes.length];
+                writeInt(payload, 0, lastStreamId);
+                writeInt(payload, 4, code);
+                System.arraycopy(debugBytes, 0, payload, 8, debugBytes.length);
+                control.add(frame(GOAWAY, 0, 0, payload, 0, payload.length));
+            }
+            if (code != NO_ERROR || streams.isEmpty()) closeWhenFlushed = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void sendControl(byte[] frame) {
+        synchronized (lock) {
+            control.add(frame);
+            lock.notifyAll();
+        }
+    }
+
+    // ------------------------------------------------------------------ запись
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                final byte[] frame;
+                final boolean more;
+                synchronized (lock) {
+                    byte[] next;
+                    while ((next = nextFrame()) == null && !closed && !closeWhenFlushed)
+                        lock.wait();
+                    frame = next;
+                    more = frame != null && (!control.isEmpty() || pickStream() != null);
+                }
+                writeSince = System.nanoTime();
+                if (frame == null) {
+                    out.flush();
+                    break;
+                }
+                out.write(frame);
+                if (!more) out.flush();
+                writeSince = 0;
+            }
+        } catch (IOException e) {
+            // клиент ушёл
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writeSince = 0;
+        }
+        close();
+    }
+
+    /**
+     * Выбирает следующий кадр: сначала служебные, затем кадр самого приоритетного ответа.
+     * Вызывается под замком.
+     */
+    private byte[] nextFrame() {
+        if (closed) return null;
+        if (!control.isEmpty()) return control.poll();
+        final var stream = pickStream();
+        if (stream == null) return null;
+        if (stream.incremental) lastIncrementalId = stream.id;
+
+        if (stream.pendingHead != null) {
+            final var block = Hpack.encode(stream.pendingHead);
+            stream.pendingHead = null;
+            stream.headSent = true;
+            final boolean end = stream.endQueued && stream.queued == 0;
+            final var frames = headerFrames(stream.id, block, end);
+            if (end) onLocalEnd(stream);
+            return frames;
+        }
+        final int length = (int) Math.min(Math.min(stream.queued, peerMaxFrameSize),
+                Math.min(stream.sendWindow, connectionSendWindow));
+        final var frame = new byte[FRAME_HEADER_SIZE + length];
+        var position = FRAME_HEADER_SIZE;
+        while (position < frame.length) {
+            final var chunk = stream.chunks.peekFirst();
+            final int take = Math.min(chunk.length - stream.chunkOffset, frame.length - position);
+            System.arraycopy(chunk, stream.chunkOffset, frame, position, take);
+            position += take;
+            stream.chunkOffset += take;
+            if (stream.chunkOffset == chunk.length) {
+                stream.chunks.pollFirst();
+                stream.chunkOffset = 0;
+            }
+        }
+        stream.queued -= length;
+        stream.sendWindow -= length;
+        connectionSendWindow -= length;
+        final boolean end = stream.endQueued && stream.queued == 0;
+        writeFrameHeader(frame, length, DATA, end ? FLAG_END_STREAM : 0, stream.id);
+        lock.notifyAll();           // в очереди потока освободилось место
+        if (end) onLocalEnd(stream);
+        return frame;
+    }
+
+    /**
+     * Выбирает поток по приоритету RFC 9218. Вызывается под замком.
+     */
+    private Stream pickStream() {
+        Stream best = null;
+        for (Stream stream : streams.values()) {
+            if (!stream.sendable()) continue;
+            if (best == null || precedes(stream, best)) best = stream;
+        }
+        return best;
+    }
+
+    private boolean precedes(Stream a, Stream b) {
+        if (a.urgency != b.urgency) return a.urgency < b.urgency;
+        if (a.incremental != b.incremental) return !a.incremental;
+        if (!a.incremental) return a.id < b.id;
+        // инкрементальные по кругу: первым идёт следующий за последним обслуженным
+        final boolean aNext = a.id > lastIncrementalId;
+        final boolean bNext = b.id > lastIncrementalId;
+        if (aNext != bNext) return aNext;
+        return a.id < b.id;
+    }
+
+    /**
+     * Ответ потока отправлен полностью. Поток, ответивший до конца запроса (413),
+     * остаётся открытым, пока клиент не дошлёт тело. Вызывается под замком.
+     */
+    private void onLocalEnd(Stream stream) {
+        stream.endSent = true;
+        if (stream.remoteClosed) forget(stream);
+    }
+
+    private byte[] headerFrames(int streamId, byte[] block, boolean endStream) {
+        final int maxFrame = peerMaxFrameSize;
+        final int frames = Math.max(1, (block.length + maxFrame - 1) / maxFrame);
+        final var result = new byte[block.length + frames * FRAME_HEADER_SIZE];
+        var position = 0;
+        for (int i = 0; i < frames; i++) {
+            final int from = i * maxFrame;
+            final int length = Math.min(maxFrame, block.length - from);
+            var flags = i == frames - 1 ? FLAG_END_HEADERS : 0;
+            if (i == 0 && endStream) flags |= FLAG_END_STREAM;
+            writeFrameHeader(result, position, length, i == 0 ? HEADERS : CONTINUATION, flags, streamId);
+            System.arraycopy(block, from, result, position + FRAME_HEADER_SIZE, length);
+            position += FRAME_HEADER_SIZE + length;
+        }
+        return result;
+    }
+
+    private byte[] settingsFrame() {
+        final var payload = new byte[3 * 6];
+        writeSetting(payload, 0, SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+        writeSetting(payload, 6, SETTINGS_MAX_FRAME_SIZE, MIN_FRAME_SIZE);
+        writeSetting(payload, 12, SETTINGS_MAX_HEADER_LIST_SIZE, limits.getMaxHeaderSize());
+        return frame(SETTINGS, 0, 0, payload, 0, payload.length);
+    }
+
+    private static void writeSetting(byte[] payload, int offset, int setting, int value) {
+        payload[offset] = (byte) (setting >>> 8);
+        payload[offset + 1] = (byte) setting;
+        writeInt(payload, offset + 2, value);
+    }
+
+    private static byte[] rstStreamFrame(int streamId, int code) {
+        final var payload = new byte[4];
+        writeInt(payload, 0, code);
+        return frame(RST_STREAM, 0, streamId, payload, 0, 4);
+    }
+
+    private static byte[] windowUpdateFrame(int streamId, int increment) {
+        final var payload = new byte[4];
+        writeInt(payload, 0, increment);
+        return frame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+    private static byte[] frame(int type, int flags, int streamId, byte[] payload, int offset, int length) {
+        final var frame = new byte[FRAME_HEADER_SIZE + length];
+        writeFrameHeader(frame, length, type, flags, streamId);
+        System.arraycopy(payload, offset, frame, FRAME_HEADER_SIZE, length);
+        return frame;
+    }
+
+    private static void writeFrameHeader(byte[] frame, int length, int type, int flags, int streamId) {
+        writeFrameHeader(frame, 0, length, type, flags, streamId);
+    }
+
+    private static void writeFrameHeader(byte[] target, int offset, int length, int type, int flags, int streamId) {
+        target[offset] = (byte) (length >>> 16);
+        target[offset + 1] = (byte) (length >>> 8);
+        target[offset + 2] = (byte) length;
+        target[offset + 3] = (byte) type;
+        target[offset + 4] = (byte) flags;
+        writeInt(target, offset + 5, streamId);
+    }
+
+    private static int readInt(byte[] source, int offset) {
+        return (source[offset] & 0xff) << 24 | (source[offset + 1] & 0xff) << 16
+                | (source[offset + 2] & 0xff) << 8 | source[offset + 3] & 0xff;
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Ошибка уровня соединения: после неё клиенту шлётся GOAWAY и соединение закрывается.
+     */
+    private static class ConnectionError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+
+        ConnectionError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    /**
+     * Поток HTTP/2: принимаемый запрос и очередь его ответа. Поля, кроме тела, — под замком соединения.
+     */
+    private final class Stream {
+        private final int id;
+        private final Headers headers;
+        private final long maxBodySize;
+        private Request upgradeRequest;
+        private boolean headRequest;
+        // приём
+        private long declaredLength = -1;
+        private byte[] body;
+        private int bodySize;
+        private byte[] requestHead;
+        private int receiveWindow = DEFAULT_WINDOW;
+        private boolean remoteClosed;
+        private boolean rejected;
+        private long discarded;
+        // отправка
+        private long sendWindow = peerInitialWindow;
+        private int urgency = DEFAULT_URGENCY;
+        private boolean incremental;
+        private List<String[]> pendingHead;
+        private boolean headSent;
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private int chunkOffset;
+        private long queued;
+        private boolean endQueued;
+        private boolean endSent;
+        private boolean reset;
+
+        Stream(int id, Headers headers, boolean endStream) {
+            this.id = id;
+            this.headers = headers;
+            if (headers == null) {
+                maxBodySize = 0;
+                return;
+            }
+            final var method = headers.get(":method");
+            headRequest = "HEAD".equals(method);
+            var path = headers.get(":path");
+            if (path != null && path.indexOf('?') >= 0) path = path.substring(0, path.indexOf('?'));
+            maxBodySize = endStream || method == null || path == null ?
+                    0 : Math.min(limits.maxBodySize(method, path), RequestLimits.MAX_POSSIBLE_BODY);
+        }
+
+        void appendBody(byte[] source, int offset, int length) {
+            if (length == 0) return;
+            if (body == null) {
+                body = new byte[(int) Math.max(length, Math.min(Math.max(declaredLength, 0), maxBodySize))];
+            } else if (bodySize + length > body.length) {
+                body = Arrays.copyOf(body, (int) Math.min(maxBodySize, Math.max(bodySize + length, body.length * 2L)));
+            }
+            System.arraycopy(source, offset, body, bodySize, length);
+            bodySize += length;
+        }
+
+        /**
+         * Собирает из заголовков потока начало запроса HTTP/1.1.
+         * @return байты строки запроса и заголовков или null, если запрос некорректен.
+         */
+        byte[] buildRequestHead() {
+            final var method = headers.get(":method");
+            final var path = headers.get(":path");
+            final var authority = headers.get(":authority");
+            if (method == null || path == null || headers.get(":scheme") == null || path.isEmpty()) return null;
+            final var head = new StringBuilder(256);
+            head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+            var hasHost = false;
+            var hasLength = false;
+            final var cookies = new StringBuilder();
+            for (int i = 0; i < headers.size(); i++) {
+                final var name = headers.name(i);
+                final var value = headers.value(i);
+                // перевод строки в поле превратил бы его в лишний заголовок HTTP/1.1
+                if (!isFieldSafe(name) || !isFieldSafe(value)) return null;
+                if (name.startsWith(":")) {
+                    if (!":method".equals(name) && !":path".equals(name) && !":scheme".equals(name)
+                            && !":authority".equals(name)) return null;
+                    continue;
+                }
+                if (isConnectionSpecific(name)) return null;
+                if ("Cookie".equals(name)) {
+                    if (cookies.length() > 0) cookies.append("; ");
+                    cookies.append(value);
+                    continue;
+                }
+                if ("Expect".equals(name)) continue;
+                if ("Host".equals(name)) hasHost = true;
+                if ("Content-Length".equals(name)) hasLength = true;
+                head.append(name).append(": ").append(value).append("\r\n");
+            }
+            if (!hasHost && authority != null) head.append("Host: ").append(authority).append("\r\n");
+            if (cookies.length() > 0) head.append("Cookie: ").append(cookies).append("\r\n");
+            if (!hasLength && bodySize > 0) head.append("Content-Length: ").append(bodySize).append("\r\n");
+            head.append("\r\n");
+            return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        void applyPriority(String value) {
+            for (String member : value.split(",")) {
+                final var item = member.trim();
+                if (item.startsWith("u=")) {
+                    try {
+                        final int u = Integer.parseInt(item.substring(2).trim());
+                        if (u >= 0 && u <= 7) urgency = u;
+                    } catch (NumberFormatException e) {
+                        // неизвестное значение пропускается (RFC 9218, 4)
+                    }
+                } else if ("i".equals(item) || "i=?1".equals(item)) {
+                    incremental = true;
+                } else if ("i=?0".equals(item)) {
+                    incremental = false;
+                }
+            }
+            lock.notifyAll();
+        }
+
+        boolean sendable() {
+            if (reset || endSent) return false;
+            if (pendingHead != null) return true;
+            if (!headSent) return false;
+            if (queued > 0) return connectionSendWindow > 0 && sendWindow > 0;
+            return endQueued;
+        }
+
+        boolean isReset() {
+            synchronized (lock) {
+                return reset;
+            }
+        }
+
+        /**
+         * Ставит в очередь заголовки ответа. Вызывается под замком.
+         */
+        void queueHead(List<String[]> fields, boolean end) {
+            if (reset) return;
+            pendingHead = fields;
+            endQueued = end;
+            lock.notifyAll();
+        }
+
+        void sendHead(List<String[]> fields, boolean end) {
+            synchronized (lock) {
+                queueHead(fields, end);
+            }
+        }
+
+        /**
+         * Ставит в очередь часть тела ответа; ждёт, если очередь потока заполнена,
+         * но не дольше срока записи: по его истечении поток сбрасывается.
+         * @param last последняя ли это часть.
+         */
+        void sendData(byte[] source, int offset, int length, boolean last) throws IOException {
+            synchronized (lock) {
+                try {
+                    final long timeout = writeTimeoutNanos;
+                    final long deadline = System.nanoTime() + timeout;
+                    while (queued >= STREAM_OUTPUT_LIMIT && !reset && !closed) {
+                        if (timeout == 0) {
+                            lock.wait();
+                            continue;
+                        }
+                        final long left = deadline - System.nanoTime();
+                        if (left <= 0) {
+                            // клиент не открывает окно (или не читает): не держим рабочего дальше
+                            System.out.println("H2_WRITE_TIMEOUT " + socket.getRemoteSocketAddress()
+                                    + " stream=" + id);     // мониторинг
+                            resetStream(this, CANCEL);
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(lock, left);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while sending response");
+                }
+                if (reset || closed) throw new IOException("Stream closed");
+                chunks.add(Arrays.copyOfRange(source, offset, offset + length));
+                queued += length;
+                if (last) endQueued = true;
+                lock.notifyAll();
+            }
+        }
+
+        void sendEnd() {
+            synchronized (lock) {
+                if (reset || endQueued) return;
+                endQueued = true;
+                lock.notifyAll();
+            }
+        }
+
+        void sendReset(int code) {
+            synchronized (lock) {
+                resetStream(this, code);
+            }
+        }
+    }
+
+    private static boolean isFieldSafe(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean isConnectionSpecific(String name) {
+        return "Connection".equals(name) || "Keep-Alive".equals(name) || "Transfer-Encoding".equals(name)
+                || "Upgrade".equals(name) || "proxy-connection".equals(name);
+    }
+
+    /**
+     * Поток, в который обработчик пишет ответ HTTP/1.1: начало ответа разбирается
+     * в заголовки HTTP/2, тело уходит кадрами DATA (не длиннее объявленного Content-Length).
+     */
+    private final class ResponseStream extends OutputStream {
+        private final Stream stream;
+        private ByteArrayOutputStream head;
+        private boolean headDone;
+        private boolean started;
+        private long remaining = -1;        // -1 — длина тела не объявлена
+
+        ResponseStream(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            started = true;
+            if (headDone) {
+                body(b, off, len);
+                return;
+            }
+            // обычно начало ответа приходит одной записью и разбирается прямо из неё
+            if (head == null) {
+                final int end = indexOfHeadEnd(b, off, off + len);
+                if (end >= 0) {
+                    head(b, off, end);
+                    if (end + 4 < off + len) write(b, end + 4, off + len - end - 4);
+                    return;
+                }
+                head = new ByteArrayOutputStream(256);
+            }
+            head.write(b, off, len);
+            final var bytes = head.toByteArray();
+            final int end = indexOfHeadEnd(bytes, 0, bytes.length);
+            if (end < 0) {
+                if (bytes.length > MAX_RESPONSE_HEAD) throw new IOException("Response head too large");
+                return;
+            }
+            head = null;
+            head(bytes, 0, end);
+            if (end + 4 < bytes.length) write(bytes, end + 4, bytes.length - end - 4);
+        }
+
+        private void head(byte[] source, int from, int end) throws IOException {
+            final var text = new String(source, from, end - from, StandardCharsets.ISO_8859_1);
+            final var lines = text.split("\r\n");
+            final var statusParts = lines[0].split(" ", 3);
+            if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/"))
+                throw new IOException("Malformed response head");
+            final int status;
+            try {
+                status = Integer.parseInt(statusParts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed response status");
+            }
+            // промежуточные ответы (100 Continue и т. п.) клиенту HTTP/2 не нужны
+            if (status < 200) return;
+            final List<String[]> fields = new ArrayList<>(lines.length);
+            fields.add(new String[]{":status", Integer.toString(status)});
+            for (int i = 1; i < lines.length; i++) {
+                final int colon = lines[i].indexOf(':');
+                if (colon <= 0) continue;
+                final var name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                final var value = lines[i].substring(colon + 1).trim();
+                if ("connection".equals(name) || "keep-alive".equals(name) || "proxy-connection".equals(name)
+                        || "transfer-encoding".equals(name) || "upgrade".equals(name)) continue;
+                if ("content-length".equals(name)) {
+                    try {
+                        remaining = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Malformed response Content-Length");
+                    }
+                }
+                fields.add(new String[]{name, value});
+            }
+            if (stream.headRequest || status == 204 || status == 304) remaining = 0;
+            headDone = true;
+            stream.sendHead(fields, remaining == 0);
+        }
+
+        private void body(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) return;                 // лишнее сверх Content-Length не отправляется
+            final int length = remaining < 0 ? len : (int) Math.min(len, remaining);
+            // последняя часть объявленного тела уходит сразу с признаком конца потока
+            stream.sendData(b, off, length, remaining == length);
+            if (remaining > 0) remaining -= length;
+        }
+
+        /**
+         * Обработчик закончил: поток закрывается, если ответ полон, иначе сбрасывается.
+         */
+        void finish() {
+            if (!headDone || remaining > 0) {
+                stream.sendReset(INTERNAL_ERROR);
+                return;
+            }
+            stream.sendEnd();
+        }
+
+        /**
+         * Отвечает кодом ошибки, если ответ ещё не начат, иначе сбрасывает поток.
+         * @param status код ответа.
+         */
+        void fail(int status) {
+            if (started) {
+                stream.sendReset(INTERNAL_ERROR);
+                return;
+            }
+            headDone = true;
+            stream.sendHead(List.of(new String[]{":status", Integer.toString(status)},
+                    new String[]{"content-length", "0"}), true);
+        }
+
+        /**
+         * Отвечает 429 без тела, сообщая в retry-after, через сколько секунд повторить.
+         */
+        void tooManyRequests(long retryAfter) {
+            headDone = true;
+            stream.sendHead(List.of(new String[]{":status", "429"},
+                    new String[]{"retry-after", Long.toString(retryAfter)},
+                    new String[]{"content-length", "0"}), true);
+        }
+
+        private int indexOfHeadEnd(byte[] source, int from, int to) {
+            for (int i = from; i + 3 < to; i++)
+                if (source[i] == '\r' && source[i + 1] == '\n' && source[i + 2] == '\r' && source[i + 3] == '\n')
+                    return i;
+            return -1;
+        }
+    }
+}
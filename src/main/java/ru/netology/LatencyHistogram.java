@@ -0,0 +1,127 @@
+package ru.netology;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Потокобезопасная лог-линейная гистограмма задержек (в микросекундах).
+ * Значения раскладываются по корзинам с относительной погрешностью не хуже 1/64,
+ * поэтому перцентили считаются без хранения всех замеров.
+ * Поддерживает поправку на скоординированное умолчание (coordinated omission).
+ */
+public class LatencyHistogram {
+    private static final int PRECISION_BITS = 7;
+    private static final int HALF = 1 << (PRECISION_BITS - 1);
+    private static final int BUCKETS = 64 * HALF + (1 << PRECISION_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Учитывает один замер.
+     * @param nanos длительность в наносекундах.
+     */
+    public void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    /**
+     * Учитывает замер с поправкой на скоординированное умолчание:
+     * если замер длиннее ожидаемого интервала между запросами, добавляются
+     * синтетические замеры тех запросов, которые не были отправлены, пока этот ждал.
+     * @param nanos            длительность в наносекундах.
+     * @param expectedInterval ожидаемый интервал между запросами в наносекундах (0 — без поправки).
+     */
+    public void recordNanosCorrected(long nanos, long expectedInterval) {
+        recordNanos(nanos);
+        if (expectedInterval <= 0) return;
+        for (long missing = nanos - expectedInterval; missing >= expectedInterval; missing -= expectedInterval)
+            recordNanos(missing);
+    }
+
+    /**
+     * Учитывает один замер в микросекундах.
+     * @param micros длительность в микросекундах.
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(indexOf(micros));
+        total.incrementAndGet();
+        max.accumulate(micros);
+    }
+
+    /**
+     * Добавляет в эту гистограмму все замеры другой.
+     * @param other гистограмма-источник.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.addAndGet(other.total.get());
+        max.accumulate(other.max.get());
+    }
+
+    /**
+     * Сообщает количество учтённых замеров.
+     * @return общее количество замеров.
+     */
+    public long count() {
+        return total.get();
+    }
+
+    /**
+     * Сообщает наибольший учтённый замер.
+     * @return максимум в микросекундах.
+     */
+    public long maxMicros() {
+        return max.get();
+    }
+
+    /**
+     * Вычисляет значение указанного перцентиля.
+     * @param percentile перцентиль от 0 до 100.
+     * @return верхняя граница корзины, в которую попал перцентиль, в микросекундах.
+     */
+    public long percentileMicros(double percentile) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(highestValueOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Краткая сводка: p50/p99/p999/max в миллисекундах.
+     * @return строка сводки.
+     */
+    public String summary() {
+        return "p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms".formatted(
+                percentileMicros(50) / 1000.0,
+                percentileMicros(99) / 1000.0,
+                percentileMicros(99.9) / 1000.0,
+                maxMicros() / 1000.0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < (1 << PRECISION_BITS)) return (int) value;
+        int exp = (63 - Long.numberOfLeadingZeros(value)) - (PRECISION_BITS - 1);
+        int mantissa = (int) (value >>> exp);
+        return Math.min(exp * HALF + mantissa, BUCKETS - 1);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < (1 << PRECISION_BITS)) return index;
+        int exp = index / HALF - 1;
+        long mantissa = index - (long) exp * HALF;
+        return ((mantissa + 1) << exp) - 1;
+    }
+}
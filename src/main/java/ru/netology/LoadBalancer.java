@@ -0,0 +1,148 @@
+package ru.netology;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Правило выбора сервера за обратным прокси.
+ */
+public interface LoadBalancer {
+
+    /**
+     * Выбирает сервер для запроса.
+     * @param candidates доступные серверы (не пустой список).
+     * @param request    проксируемый запрос.
+     * @return один из кандидатов.
+     */
+    Backend choose(List<Backend> candidates, Request request);
+
+    /**
+     * Возвращает правило по имени из настроек.
+     * @param name {@code round-robin}, {@code least-connections} или {@code consistent-hash}.
+     * @return новое правило.
+     * @throws IllegalArgumentException если имя неизвестно.
+     */
+    static LoadBalancer of(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "round-robin":
+                return new RoundRobin();
+            case "least-connections":
+                return new LeastConnections();
+            case "consistent-hash":
+                return new ConsistentHash(ConsistentHash.DEFAULT_VIRTUAL_NODES);
+            default:
+                throw new IllegalArgumentException("Неизвестное правило балансировки: " + name);
+        }
+    }
+
+    /**
+     * По кругу.
+     */
+    class RoundRobin implements LoadBalancer {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public Backend choose(List<Backend> candidates, Request request) {
+            return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+        }
+    }
+
+    /**
+     * Тому, у кого меньше запросов в работе; при равенстве — по кругу, чтобы не грузить первого.
+     */
+    class LeastConnections implements LoadBalancer {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public Backend choose(List<Backend> candidates, Request request) {
+            final int size = candidates.size();
+            final int start = Math.floorMod(next.getAndIncrement(), size);
+            Backend best = null;
+            for (int i = 0; i < size; i++) {
+                final var backend = candidates.get((start + i) % size);
+                if (best == null || backend.getActive() < best.getActive()) best = backend;
+            }
+            return best;
+        }
+    }
+
+    /**
+     * По согласованному хэшу пути: запросы к одному пути попадают на один сервер,
+     * а при выпадении сервера переезжают только его пути. Каждый сервер занимает на кольце
+     * несколько виртуальных точек, чтобы пути распределялись ровнее.
+     * <p>
+     * Кольцо одно на все когда-либо виденные серверы и дополняется только при появлении нового:
+     * недоступные и уже опробованные серверы не убираются с кольца, а пропускаются при обходе.
+     */
+    class ConsistentHash implements LoadBalancer {
+        static final int DEFAULT_VIRTUAL_NODES = 128;
+        private final int virtualNodes;
+        private volatile Ring ring = new Ring(Set.of(), new TreeMap<>());
+
+        /**
+         * @param virtualNodes число точек на кольце для каждого сервера.
+         */
+        public ConsistentHash(int virtualNodes) {
+            this.virtualNodes = Math.max(1, virtualNodes);
+        }
+
+        @Override
+        public Backend choose(List<Backend> candidates, Request request) {
+            var current = ring;
+            if (!current.backends.containsAll(candidates)) current = extend(candidates);
+            // по часовой стрелке от хэша пути до первой точки сервера из кандидатов
+            final long key = hash(request.getPath());
+            for (Backend backend : current.points.tailMap(key, true).values())
+                if (candidates.contains(backend)) return backend;
+            for (Backend backend : current.points.headMap(key, false).values())
+                if (candidates.contains(backend)) return backend;
+            return candidates.get(0);
+        }
+
+        /**
+         * Добавляет на кольцо точки новых серверов; прежние точки остаются на месте.
+         */
+        private synchronized Ring extend(List<Backend> candidates) {
+            final var current = ring;
+            if (current.backends.containsAll(candidates)) return current;
+            final var points = new TreeMap<>(current.points);
+            final var backends = new HashSet<>(current.backends);
+            for (Backend backend : candidates) {
+                if (!backends.add(backend)) continue;
+                for (int i = 0; i < virtualNodes; i++)
+                    points.put(hash(backend.getHost() + ":" + backend.getPort() + "#" + i), backend);
+            }
+            ring = new Ring(Set.copyOf(backends), points);
+            return ring;
+        }
+
+        /**
+         * 64-битный FNV-1a с перемешиванием, чтобы близкие строки расходились по кольцу.
+         */
+        private static long hash(String key) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        private static class Ring {
+            private final Set<Backend> backends;
+            private final TreeMap<Long, Backend> points;
+
+            Ring(Set<Backend> backends, TreeMap<Long, Backend> points) {
+                this.backends = backends;
+                this.points = points;
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package ru.netology;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Нагрузочный стенд: поднимает встроенный Сервер с обработчиками из {@link SiteRoutes}
+ * на свободном порту (или бьёт по внешнему адресу) и гоняет через Apache HttpClient
+ * смесь статических GET, POST-форм и многочастных загрузок.
+ * <p>
+ * Режимы:
+ * <ul>
+ *     <li>{@code mode=concurrency} — фиксированное число клиентов в замкнутом цикле;</li>
+ *     <li>{@code mode=rate} — фиксированная частота запросов по расписанию; задержка считается
+ *     от запланированного момента отправки, что исключает скоординированное умолчание.</li>
+ * </ul>
+ * Параметры задаются в виде {@code ключ=значение}, например:
+ * {@code mode=rate rate=500 concurrency=32 duration=30 warmup=5 mix=static:70,form:20,upload:10 keepalive=false}.
+ * Встроенный сервер настраивается так же, как {@link Main} (файл свойств и системные свойства);
+ * параметры {@code pool}, {@code acceptors}, {@code reuseport} и {@code backlog} перекрывают настройки.
+ */
+public class LoadGenerator {
+    private static final String[] STATIC_PATHS = {
+            "/index.html", "/links.html", "/styles.css", "/app.js", "/spring.svg", "/spring.png"
+    };
+
+    /**
+     * Виды запросов, из которых составляется смесь нагрузки.
+     */
+    enum Scenario {STATIC, FORM, UPLOAD}
+
+    private final String baseUri;
+    private final String mode;
+    private final int concurrency;
+    private final int rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final long expectedIntervalNanos;
+    private final boolean keepAlive;
+    private final Scenario[] mix;
+    private final byte[] uploadPayload;
+
+    private final Map<Scenario, LatencyHistogram> latencies = new EnumMap<>(Scenario.class);
+    private final LatencyHistogram overall = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong badStatuses = new AtomicLong();
+
+    LoadGenerator(String baseUri, Map<String, String> options) throws IOException {
+        this.baseUri = baseUri;
+        mode = options.getOrDefault("mode", "concurrency");
+        concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        rate = Integer.parseInt(options.getOrDefault("rate", "200"));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "20")));
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "3")));
+        // ожидаемый интервал для поправки в замкнутом режиме (мс), 0 — без поправки
+        expectedIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.getOrDefault("expected", "0")));
+        keepAlive = Boolean.parseBoolean(options.getOrDefault("keepalive", "true"));
+        mix = parseMix(options.getOrDefault("mix", "static:70,form:20,upload:10"));
+        uploadPayload = Files.readAllBytes(Path.of(".", "public", "spring.png"));
+        for (Scenario scenario : Scenario.values())
+            latencies.put(scenario, new LatencyHistogram());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        Server server = null;
+        String target = options.get("target");
+        if (target == null) {
+            // встроенный сервер настраивается как боевой, но на свободном порту
+            final var config = ServerConfig.fromEnvironment(Path.of(Main.CONFIG_FILE)).port(0);
+            if (options.containsKey("pool")) config.workers(Integer.parseInt(options.get("pool")));
+            if (options.containsKey("acceptors")) config.acceptors(Integer.parseInt(options.get("acceptors")));
+            if (options.containsKey("reuseport")) config.reusePort(Boolean.parseBoolean(options.get("reuseport")));
+            if (options.containsKey("backlog")) config.backlog(Integer.parseInt(options.get("backlog")));
+            server = new Server(config.build());
+            SiteRoutes.register(server);
+            server.start();
+            int port = server.awaitLocalPort();
+            if (port < 0) throw new IOException("Встроенный сервер не смог открыть порт");
+            target = "http://localhost:" + port;
+            System.out.println("Встроенный сервер слушает порт " + port);
+        }
+
+        try {
+            new LoadGenerator(target, options).run();
+        } finally {
+            if (server != null) server.stopServer();
+        }
+    }
+
+    /**
+     * Прогоняет нагрузку и печатает отчёт.
+     */
+    void run() throws InterruptedException, IOException {
+        final var connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(concurrency);
+        connectionManager.setDefaultMaxPerRoute(concurrency);
+        final var builder = HttpClients.custom().setConnectionManager(connectionManager);
+        if (!keepAlive) builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+
+        try (CloseableHttpClient client = builder.build()) {
+            final long start = System.nanoTime();
+            final long measureFrom = start + warmupNanos;
+            final long end = measureFrom + durationNanos;
+            final long interval = "rate".equals(mode) ? TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate) : 0;
+            final var tick = new AtomicLong();
+
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                Thread worker = new Thread(() -> {
+                    while (true) {
+                        long intended;
+                        if (interval > 0) {
+                            // открытый цикл: каждый запрос имеет своё запланированное время
+                            intended = start + tick.getAndIncrement() * interval;
+                            if (intended >= end) break;
+                            long wait;
+                            while ((wait = intended - System.nanoTime()) > 0)
+                                LockSupport.parkNanos(wait);
+                        } else {
+                            intended = System.nanoTime();
+                            if (intended >= end) break;
+                        }
+                        fire(client, intended, intended >= measureFrom);
+                    }
+                }, "load-" + i);
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) worker.join();
+            report(System.nanoTime() - measureFrom);
+        }
+    }
+
+    /**
+     * Отправляет один запрос случайного вида и учитывает результат.
+     * @param intended момент, от которого отсчитывается задержка.
+     * @param measured учитывать ли замер (вне разогрева).
+     */
+    private void fire(CloseableHttpClient client, long intended, boolean measured) {
+        final Scenario scenario = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+        final HttpUriRequest request = buildRequest(scenario);
+        try (CloseableHttpResponse response = client.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            final long latency = System.nanoTime() - intended;
+            if (!measured) return;
+            if (response.getStatusLine().getStatusCode() >= 400) badStatuses.incrementAndGet();
+            latencies.get(scenario).recordNanosCorrected(latency, expectedIntervalNanos);
+            overall.recordNanosCorrected(latency, expectedIntervalNanos);
+            completed.incrementAndGet();
+        } catch (IOException e) {
+            if (measured) errors.incrementAndGet();
+        }
+    }
+
+    private HttpUriRequest buildRequest(Scenario scenario) {
+        final var random = ThreadLocalRandom.current();
+        switch (scenario) {
+            case FORM: {
+                HttpPost post = new HttpPost(baseUri + "/index.html");
+                post.setEntity(new StringEntity(
+                        "title=load&value=" + random.nextInt(1000) + "&value=test",
+                        ContentType.APPLICATION_FORM_URLENCODED));
+                return post;
+            }
+            case UPLOAD: {
+                HttpPost post = new HttpPost(baseUri + "/upload-forms.html");
+                final var boundary = "----multiserver" + Long.toHexString(random.nextLong());
+                post.setEntity(new ByteArrayEntity(multipartBody(boundary),
+                        ContentType.create("multipart/form-data").withParameters(
+                                new BasicNameValuePair("boundary", boundary))));
+                return post;
+            }
+            default:
+                return new HttpGet(baseUri + STATIC_PATHS[random.nextInt(STATIC_PATHS.length)]);
+        }
+    }
+
+    /**
+     * Собирает тело многочастной формы, как его отправил бы браузер со страницы загрузки.
+     */
+    private byte[] multipartBody(String boundary) {
+        final var body = new ByteArrayOutputStream(uploadPayload.length + 512);
+        final var head = ("""
+                --%1$s\r
+                Content-Disposition: form-data; name="title"\r
+                \r
+                load-test\r
+                --%1$s\r
+                Content-Disposition: form-data; name="image"; filename="spring.png"\r
+                Content-Type: image/png\r
+                \r
+                """).formatted(boundary);
+        body.writeBytes(head.getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(uploadPayload);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private void report(long elapsedNanos) {
+        final double seconds = elapsedNanos / 1e9;
+        System.out.printf("%n\tОТЧЁТ (%s, клиентов: %d%s, keep-alive: %s)%n",
+                mode, concurrency, "rate".equals(mode) ? ", частота: " + rate + "/с" : "", keepAlive);
+        System.out.printf("выполнено\t= %d%nошибок связи\t= %d%nответов 4xx/5xx\t= %d%nпропускная\t= %.1f запр/с%n",
+                completed.get(), errors.get(), badStatuses.get(), completed.get() / seconds);
+        System.out.println("всего\t\t" + overall.summary());
+        for (Map.Entry<Scenario, LatencyHistogram> entry : latencies.entrySet())
+            if (entry.getValue().count() > 0)
+                System.out.printf("%s\t\t%s (n=%d)%n",
+                        entry.getKey(), entry.getValue().summary(), entry.getValue().count());
+    }
+
+    /**
+     * Разбирает описание смеси вида {@code static:70,form:20,upload:10}
+     * в массив сценариев, где каждый вид повторён пропорционально весу.
+     */
+    private static Scenario[] parseMix(String description) {
+        List<Scenario> weighted = new ArrayList<>();
+        for (String item : description.split(",")) {
+            String[] pair = item.trim().split(":");
+            Scenario scenario = Scenario.valueOf(pair[0].trim().toUpperCase());
+            int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) weighted.add(scenario);
+        }
+        if (weighted.isEmpty()) throw new IllegalArgumentException("Пустая смесь нагрузки");
+        return weighted.toArray(Scenario[]::new);
+    }
+}
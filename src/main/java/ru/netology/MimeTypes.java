@@ -0,0 +1,80 @@
+package ru.netology;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Определение типа содержимого по расширению файла.
+ * Заменяет {@code Files.probeContentType}, которая на каждый вызов может обращаться
+ * к детекторам типов и к файловой системе. Встроенную таблицу можно дополнить или переопределить.
+ */
+public class MimeTypes {
+    public static final String DEFAULT_TYPE = "application/octet-stream";
+
+    private static final Map<String, String> BUILT_IN = Map.ofEntries(
+            Map.entry("html", "text/html"),
+            Map.entry("htm", "text/html"),
+            Map.entry("css", "text/css"),
+            Map.entry("js", "text/javascript"),
+            Map.entry("mjs", "text/javascript"),
+            Map.entry("json", "application/json"),
+            Map.entry("map", "application/json"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("txt", "text/plain"),
+            Map.entry("csv", "text/csv"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("avif", "image/avif"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("bmp", "image/bmp"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"),
+            Map.entry("otf", "font/otf"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("zip", "application/zip"),
+            Map.entry("gz", "application/gzip"),
+            Map.entry("wasm", "application/wasm"),
+            Map.entry("mp3", "audio/mpeg"),
+            Map.entry("ogg", "audio/ogg"),
+            Map.entry("wav", "audio/wav"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("webm", "video/webm")
+    );
+
+    private final Map<String, String> types;
+
+    /**
+     * Создаёт таблицу только со встроенными типами.
+     */
+    public MimeTypes() {
+        this(Map.of());
+    }
+
+    /**
+     * Создаёт таблицу из встроенных типов, дополненных и переопределённых указанными.
+     * @param overrides соответствия "расширение (без точки) — тип содержимого".
+     */
+    public MimeTypes(Map<String, String> overrides) {
+        types = new HashMap<>(BUILT_IN);
+        for (Map.Entry<String, String> override : overrides.entrySet())
+            types.put(override.getKey().toLowerCase(Locale.ROOT), override.getValue());
+    }
+
+    /**
+     * Определяет тип содержимого по имени файла.
+     * @param fileName имя файла или путь к нему.
+     * @return тип содержимого либо {@link #DEFAULT_TYPE}, если расширение неизвестно.
+     */
+    public String lookup(String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        if (dot == -1 || dot < fileName.lastIndexOf('/')) return DEFAULT_TYPE;
+        final var type = types.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : DEFAULT_TYPE;
+    }
+}
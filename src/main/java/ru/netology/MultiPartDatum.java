@@ -2,15 +2,19 @@ package ru.netology;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
 public class MultiPartDatum {
-    private final Map<String, String> headers;
+    private final Headers headers;
     private final Map<String, String> contentDispositionProperties;
-    private final byte[] body;
+    private final byte[] source;        // массив, в котором лежит тело (например, буфер всего запроса)
+    private final int bodyOffset;
+    private final int bodyLength;
 
     /**
      * Создаёт многочасть из двух входных массивов байтов.
@@ -18,17 +22,23 @@ public class MultiPartDatum {
      * @param bodyArea  байты, соответствующие телу.
      */
     public MultiPartDatum(byte[] headersArea, byte[] bodyArea) {
-        var headerLines = (new String(headersArea)).split("\r\n");
-
-        Map<String, String> headerSlices = new HashMap<>();
-        for (String line : headerLines) {
-            int delimiter = line.indexOf(":");
-            if (delimiter == -1) continue;
-            var headerName = line.substring(0, delimiter);
-            var headerValue = line.substring(delimiter + 2);
-            headerSlices.put(headerName, headerValue);
-        }
-        headers = headerSlices;
+        this(Headers.parse(headersArea, 0, headersArea.length, true), bodyArea, 0, bodyArea.length);
+    }
+
+    /**
+     * Создаёт многочасть, ссылающуюся на свои заголовки и тело в общем массиве без копирования.
+     * @param source       массив, содержащий часть.
+     * @param headersStart начало заголовков.
+     * @param headersEnd   конец заголовков (не включительно).
+     * @param bodyStart    начало тела.
+     * @param bodyEnd      конец тела (не включительно).
+     */
+    MultiPartDatum(byte[] source, int headersStart, int headersEnd, int bodyStart, int bodyEnd) {
+        this(Headers.parse(source, headersStart, headersEnd, true), source, bodyStart, bodyEnd - bodyStart);
+    }
+
+    private MultiPartDatum(Headers headers, byte[] source, int bodyOffset, int bodyLength) {
+        this.headers = headers;
 
         contentDispositionProperties = new HashMap<>();
         var disposition = headers.get("Content-Disposition");
@@ -42,7 +52,9 @@ public class MultiPartDatum {
             }
         }
 
-        body = bodyArea;
+        this.source = source;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
 
 //        System.out.println(this);       // мониторинг
     }
@@ -50,12 +62,12 @@ public class MultiPartDatum {
     @Override
     public String toString() {
         StringBuilder representation = new StringBuilder("Многочасть:\n");
-        if (!headers.isEmpty()) {
+        if (headers.size() > 0) {
             representation.append("\tЗаголовки:\n");
-            for (Map.Entry<String, String> header : headers.entrySet())
+            for (int i = 0; i < headers.size(); i++)
                 representation
-                        .append(header.getKey()).append(" = ")
-                        .append(header.getValue()).append("\n");
+                        .append(headers.name(i)).append(" = ")
+                        .append(headers.value(i)).append("\n");
         }
         if (!contentDispositionProperties.isEmpty()) {
             representation.append("\tСвойства расположения:\n");
@@ -82,19 +94,37 @@ public class MultiPartDatum {
     }
 
     /**
-     * Возвращает карту из всех заголовков части.
-     * @return  значение поля headers.
+     * Возвращает карту из всех заголовков части: имя — первое значение.
+     * Ключи ищутся без учёта регистра; карта только для чтения.
+     * @return  представление поля headers картой.
      */
     public Map<String, String> getHeaders() {
+        return headers.asMap();
+    }
+
+    /**
+     * Возвращает все заголовки части в порядке получения, с повторами.
+     * @return  значение поля headers.
+     */
+    public Headers getAllHeaders() {
         return headers;
     }
 
     /**
-     * Возвращает массив байтов, соответствующий телу.
-     * @return значение поля body.
+     * Возвращает копию байтов тела, которую можно хранить и после обработки запроса.
+     * @return новый массив с байтами тела.
      */
     public byte[] getBody() {
-        return body;
+        return Arrays.copyOfRange(source, bodyOffset, bodyOffset + bodyLength);
+    }
+
+    /**
+     * Возвращает тело без копирования — как буфер только для чтения поверх буфера запроса.
+     * Пользоваться им можно лишь до возврата буфера запроса в пул ({@link Request#release()}).
+     * @return буфер с телом части.
+     */
+    public ByteBuffer getBodyBuffer() {
+        return ByteBuffer.wrap(source, bodyOffset, bodyLength).slice().asReadOnlyBuffer();
     }
 
     /**
@@ -102,7 +132,7 @@ public class MultiPartDatum {
      * @return новую строку, созданную из байтов тела.
      */
     public String getBodyString() {
-        return new String(body);
+        return new String(source, bodyOffset, bodyLength);
     }
 
     /**
@@ -111,7 +141,7 @@ public class MultiPartDatum {
      * @return  опциональ со значением, соответствующим заголовку, если такой найден.
      */
     public Optional<String> getHeader(String name) {
-        return Optional.ofNullable(headers.get(name));
+        return headers.first(name);
     }
 
     /**
@@ -121,7 +151,7 @@ public class MultiPartDatum {
      */
     public void saveBodyToFile(Path filePath) throws IOException {
         try (FileOutputStream fos = new FileOutputStream(filePath.toFile())) {
-            fos.write(body, 0, body.length);
+            fos.write(source, bodyOffset, bodyLength);
         }
 
     }
@@ -147,9 +177,7 @@ public class MultiPartDatum {
      * @return опциональ со значением заголовка 'Content-Type', если таковой присутствует.
      */
     public Optional<String> contentType() {
-        return headers.get("Content-Type") == null ?
-                Optional.empty() :
-                Optional.of(headers.get("Content-Type"));
+        return headers.first("Content-Type");
     }
 
     /**
@@ -157,15 +185,15 @@ public class MultiPartDatum {
      * @return true, если размер тела больше нуля.
      */
     public boolean hasBody() {
-        return body.length > 0;
+        return bodyLength > 0;
     }
 
     /**
      * Сообщает размер тела части.
-     * @return размер массива body.
+     * @return значение поля bodyLength.
      */
     public int bodySize() {
-        return body.length;
+        return bodyLength;
     }
 
     /**
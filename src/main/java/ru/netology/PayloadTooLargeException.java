@@ -0,0 +1,35 @@
+package ru.netology;
+
+import java.io.IOException;
+
+/**
+ * Заявленный размер тела запроса превышает допустимый; тело при этом не читается.
+ */
+public class PayloadTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long declared;
+    private final long allowed;
+
+    public PayloadTooLargeException(long declared, long allowed) {
+        super("Payload too large: %d > %d".formatted(declared, allowed));
+        this.declared = declared;
+        this.allowed = allowed;
+    }
+
+    /**
+     * Сообщает размер тела, заявленный клиентом.
+     * @return значение поля declared.
+     */
+    public long getDeclared() {
+        return declared;
+    }
+
+    /**
+     * Сообщает допустимый размер тела.
+     * @return значение поля allowed.
+     */
+    public long getAllowed() {
+        return allowed;
+    }
+}
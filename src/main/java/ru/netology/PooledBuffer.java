@@ -0,0 +1,65 @@
+package ru.netology;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+
+/**
+ * Буфер, взятый из {@link BufferPool}. Закрытие возвращает его в пул;
+ * после этого пользоваться буфером (и любыми видами на него) нельзя.
+ */
+public final class PooledBuffer implements AutoCloseable {
+    private final BufferPool pool;
+    private final BufferPool.LeakTracker tracker;
+    private final Cleaner.Cleanable leakWatch;
+    private ByteBuffer buffer;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, BufferPool.LeakTracker tracker) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.tracker = tracker;
+        this.leakWatch = tracker != null ? BufferPool.watch(this, tracker) : null;
+    }
+
+    /**
+     * Возвращает сам буфер.
+     * @return значение поля buffer.
+     * @throws IllegalStateException если буфер уже возвращён в пул.
+     */
+    public ByteBuffer buffer() {
+        final var current = buffer;
+        if (current == null) throw new IllegalStateException("Буфер уже возвращён в пул");
+        return current;
+    }
+
+    /**
+     * Возвращает массив, на котором построен буфер из кучи.
+     * @return массив буфера; его длина равна вместимости буфера.
+     * @throws UnsupportedOperationException для буфера вне кучи.
+     */
+    public byte[] array() {
+        return buffer().array();
+    }
+
+    /**
+     * Сообщает вместимость буфера.
+     * @return вместимость в байтах.
+     */
+    public int capacity() {
+        return buffer().capacity();
+    }
+
+    /**
+     * Возвращает буфер в пул. Повторное закрытие ничего не делает.
+     */
+    @Override
+    public void close() {
+        final var current = buffer;
+        if (current == null) return;
+        buffer = null;
+        if (tracker != null) {
+            tracker.released = true;
+            leakWatch.clean();
+        }
+        if (pool != null) pool.release(current);
+    }
+}
@@ -0,0 +1,245 @@
+package ru.netology;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ограничение частоты запросов от одного клиента (адреса) ведром жетонов:
+ * ведро вмещает {@code burst} жетонов и пополняется со скоростью {@code perSecond} в секунду,
+ * каждый запрос забирает жетон. Кроме общего ведра клиента можно задать отдельные правила
+ * для путей: запросы к такому пути расходуют своё ведро вместо общего.
+ * <p>
+ * Клиенты хранятся в таблице, разбитой на полосы со своими замками, так что потоки
+ * с разными клиентами почти не мешают друг другу. Клиент, чьи вёдра успели бы наполниться
+ * доверху, ничем не отличается от нового и при очередном обходе полосы удаляется.
+ */
+public class RateLimiter {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long MIN_SWEEP_INTERVAL = NANOS_PER_SECOND;
+    private static final long MAX_SWEEP_INTERVAL = 60 * NANOS_PER_SECOND;
+
+    private final Stripe[] stripes;
+    /**
+     * Правила: нулевое — общее для клиента, дальше — по путям.
+     */
+    private volatile Limit[] rules;
+    private final Map<String, Integer> routeRules = new ConcurrentHashMap<>();
+    /**
+     * Через сколько простоя все вёдра клиента наполняются доверху.
+     */
+    private volatile long expireNanos;
+
+    /**
+     * Создаёт ограничитель с общим правилом для каждого клиента.
+     * @param clientLimit правило для всех запросов клиента, кроме путей с отдельным правилом.
+     */
+    public RateLimiter(Limit clientLimit) {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        stripes = new Stripe[Integer.highestOneBit(Math.max(16, cores * 4) * 2 - 1)];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+        rules = new Limit[]{clientLimit};
+        expireNanos = rules[0].fillNanos;
+    }
+
+    /**
+     * Задаёт для пути отдельное правило; запросы к нему не расходуют общее ведро клиента.
+     * @param path  путь.
+     * @param limit правило для запросов клиента к этому пути.
+     * @return этот ограничитель.
+     */
+    public synchronized RateLimiter limitRoute(String path, Limit limit) {
+        final Integer existing = routeRules.get(path);
+        final Limit[] updated;
+        if (existing != null) {
+            updated = rules.clone();
+            updated[existing] = limit;
+        } else {
+            updated = new Limit[rules.length + 1];
+            System.arraycopy(rules, 0, updated, 0, rules.length);
+            updated[rules.length] = limit;
+        }
+        rules = updated;
+        if (existing == null) routeRules.put(path, updated.length - 1);
+        expireNanos = Math.max(expireNanos, limit.fillNanos);
+        return this;
+    }
+
+    /**
+     * Забирает жетон на запрос клиента.
+     * @param client адрес клиента.
+     * @param path   путь запроса.
+     * @return 0, если запрос разрешён; иначе через сколько секунд появится жетон.
+     */
+    public long acquire(InetAddress client, String path) {
+        final Integer routeRule = routeRules.isEmpty() ? null : routeRules.get(path);
+        final int index = routeRule == null ? 0 : routeRule;
+        final var rule = rules[index];
+        if (rule.unlimited) return 0;
+
+        final long now = System.nanoTime();
+        final var stripe = stripes[spread(client.hashCode()) & (stripes.length - 1)];
+        synchronized (stripe) {
+            if (now - stripe.nextSweep >= 0) stripe.sweep(now, expireNanos);
+            var state = stripe.clients.get(client);
+            if (state == null) {
+                state = new Client(rules.length);
+                stripe.clients.put(client, state);
+            }
+            return state.take(index, rule, now);
+        }
+    }
+
+    /**
+     * Сообщает, сколько клиентов сейчас отслеживается.
+     * @return число клиентов в таблице.
+     */
+    public int getTrackedClients() {
+        int count = 0;
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                count += stripe.clients.size();
+            }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        final var routes = new StringBuilder();
+        final var current = rules;
+        routeRules.forEach((path, index) -> routes.append(", ").append(path).append(" — ").append(current[index]));
+        return "RateLimiter [" + current[0] + routes + "; клиентов: " + getTrackedClients() + "]";
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * Правило ведра жетонов: средняя частота и объём ведра.
+     */
+    public static final class Limit {
+        /**
+         * Правило без ограничения.
+         */
+        public static final Limit NONE = new Limit(0, 0);
+
+        private final double perSecond;
+        private final int burst;
+        private final boolean unlimited;
+        private final double perNano;
+        private final long fillNanos;
+
+        /**
+         * Создаёт правило.
+         * @param perSecond сколько запросов в секунду разрешено в среднем; 0 — без ограничения.
+         * @param burst     сколько запросов подряд разрешено (объём ведра); не меньше одного.
+         */
+        public Limit(double perSecond, int burst) {
+            this.perSecond = perSecond;
+            this.burst = Math.max(1, burst);
+            this.unlimited = perSecond <= 0;
+            this.perNano = perSecond / NANOS_PER_SECOND;
+            this.fillNanos = unlimited ? 0 : (long) Math.ceil(this.burst / perNano);
+        }
+
+        /**
+         * Разбирает правило вида {@code частота[:объём]}, например {@code 20} или {@code 5:10}.
+         * Без объёма ведро вмещает секундную норму.
+         * @param spec запись правила.
+         * @return правило.
+         * @throws IllegalArgumentException если запись некорректна.
+         */
+        public static Limit parse(String spec) {
+            final var parts = spec.trim().split(":", 2);
+            final double perSecond = Double.parseDouble(parts[0].trim());
+            if (!(perSecond >= 0) || Double.isInfinite(perSecond))
+                throw new IllegalArgumentException("Некорректная частота: " + spec);
+            final int burst = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : (int) Math.ceil(perSecond);
+            if (burst < 0) throw new IllegalArgumentException("Некорректный объём: " + spec);
+            return new Limit(perSecond, burst);
+        }
+
+        /**
+         * Сообщает, ограничивает ли правило что-нибудь.
+         * @return true, если частота не задана.
+         */
+        public boolean isUnlimited() {
+            return unlimited;
+        }
+
+        /**
+         * Возвращает среднюю разрешённую частоту.
+         * @return значение поля perSecond.
+         */
+        public double getPerSecond() {
+            return perSecond;
+        }
+
+        /**
+         * Возвращает объём ведра.
+         * @return значение поля burst.
+         */
+        public int getBurst() {
+            return burst;
+        }
+
+        @Override
+        public String toString() {
+            return unlimited ? "без ограничения" : "%s/с, подряд до %d".formatted(perSecond, burst);
+        }
+    }
+
+    /**
+     * Вёдра одного клиента: по одному на правило, заводятся при первом запросе по правилу.
+     */
+    private static class Client {
+        private double[] tokens;
+        private long[] refilledAt;
+        private long lastSeen;
+
+        Client(int rules) {
+            tokens = new double[rules];
+            refilledAt = new long[rules];
+        }
+
+        long take(int index, Limit rule, long now) {
+            lastSeen = now;
+            if (index >= tokens.length) {
+                // правило добавлено после того, как клиент появился
+                tokens = Arrays.copyOf(tokens, index + 1);
+                refilledAt = Arrays.copyOf(refilledAt, index + 1);
+            }
+            double available;
+            if (refilledAt[index] == 0) {
+                available = rule.burst;
+            } else {
+                available = Math.min(rule.burst, tokens[index] + (now - refilledAt[index]) * rule.perNano);
+            }
+            refilledAt[index] = now;
+            if (available >= 1) {
+                tokens[index] = available - 1;
+                return 0;
+            }
+            tokens[index] = available;
+            return Math.max(1, (long) Math.ceil((1 - available) / rule.perNano / NANOS_PER_SECOND));
+        }
+    }
+
+    private static class Stripe {
+        private final HashMap<InetAddress, Client> clients = new HashMap<>();
+        private long nextSweep = System.nanoTime() + MIN_SWEEP_INTERVAL;
+
+        void sweep(long now, long expireNanos) {
+            for (Iterator<Client> it = clients.values().iterator(); it.hasNext(); )
+                if (now - it.next().lastSeen >= expireNanos) it.remove();
+            nextSweep = now + Math.max(MIN_SWEEP_INTERVAL, Math.min(MAX_SWEEP_INTERVAL, expireNanos));
+        }
+    }
+}
@@ -1,42 +1,49 @@
 package ru.netology;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URLDecoder;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
  * Содержит структуру запроса к северу: метод, путь, набор заголовков
  * и карту параметров, а также тело запроса.
- * Данная реализация также содержит значение пути по умолчанию
- * и значение лимита на длину запроса.
+ * Данная реализация также содержит значение пути по умолчанию;
+ * лимит на длину заголовков задаётся в {@link RequestLimits}.
  */
 public class Request {
-    private static final int limit = 4096;
     private static final byte[] LINE_DELIMITER = {'\r', '\n'};
     private static final byte[] HEADERS_DELIMITER = {'\r', '\n', '\r', '\n'};
     private static final String defaultPath = "/index.html";   // начальный путь
+    private static final String HTTP2_PREFACE_METHOD = "PRI";
+    private static final byte[] HTTP2_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+    private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
+    private static final RequestLimits NO_LIMITS = new RequestLimits(RequestLimits.MAX_POSSIBLE_BODY);
 
     private final String method;
     private final String originalPath;
     private final String path;
     private final Map<String, List<String>> queryParams;
-    private final Map<String, String> headers;
-    private final String body;                           // @Deprecated
+    private final Headers headers;
+    private final PooledBuffer bodyBuffer;               // null, если тела нет
+    private final int bodyLength;
+    private String body;                                 // строится при первом обращении
     private final Map<String, List<String>> postParams;
     private final List<MultiPartDatum> multiPartData;
 
 
     private Request(String method, String originalPath, String path,
-                    Map<String, List<String>> queryParams, Map<String, String> headers,
-                    String body, Map<String, List<String>> postParams, List<MultiPartDatum> multiPartData) {
+                    Map<String, List<String>> queryParams, Headers headers,
+                    PooledBuffer bodyBuffer, int bodyLength, String body,
+                    Map<String, List<String>> postParams, List<MultiPartDatum> multiPartData) {
         this.method = method;
         this.originalPath = originalPath;
         this.path = path;
         this.queryParams = queryParams;
         this.headers = headers;
+        this.bodyBuffer = bodyBuffer;
+        this.bodyLength = bodyLength;
         this.body = body;
         this.postParams = postParams;
         this.multiPartData = multiPartData;
@@ -53,10 +60,10 @@ public class Request {
                                 \tЗаголовки:
                                 """).formatted(method, path));
 
-        for (Map.Entry<String, String> header : headers.entrySet())
+        for (int i = 0; i < headers.size(); i++)
             desc
-                .append(header.getKey()).append("\t=\t")
-                .append(header.getValue()).append("\n");
+                .append(headers.name(i)).append("\t=\t")
+                .append(headers.value(i)).append("\n");
 
         if (hasQueryParams()) {
             desc.append("\tПараметры запроса из адресной строки́:\n");
@@ -65,8 +72,9 @@ public class Request {
                     desc.append(query.getKey()).append(" = ").append(value).append("\n");
         }
 
-        if (!body.isBlank() && !isMultipart()) {
-            desc.append("\tТело:\n").append(body);
+        // тело формы не собирается в строку: его параметры выводятся ниже
+        if (bodyLength > 0 && !isMultipart() && !isUrlEncoded() && !getBody().isBlank()) {
+            desc.append("\tТело:\n").append(getBody());
         }
 
         if (hasPostParams()) {
@@ -91,21 +99,81 @@ public class Request {
      * @throws IOException при проблемах со связью или при нерабочем запросе.
      */
     public static Request fromInputStream(InputStream inputStream) throws IOException, NumberFormatException {
-        final var in = new BufferedInputStream(inputStream);
-        in.mark(limit);
-        final var buffer = new byte[limit];
-        final var read = in.read(buffer);
+        return fromInputStream(inputStream, null, NO_LIMITS);
+    }
+
+    /**
+     * Создаёт структурированный запрос на основе входного потока, проверяя размер тела
+     * по заголовку Content-Length до его чтения. Если клиент прислал {@code Expect: 100-continue},
+     * ему отправляется промежуточный ответ 100 Continue, когда размер тела признан допустимым.
+     *
+     * @param inputStream  входной поток.
+     * @param outputStream исходящий поток подключения (для 100 Continue); может быть {@code null}.
+     * @param limits       ограничения размера тела.
+     * @return структурированный HTTP-запрос.
+     * @throws PayloadTooLargeException если заявленное тело больше допустимого.
+     * @throws IOException при проблемах со связью или при нерабочем запросе.
+     */
+    public static Request fromInputStream(InputStream inputStream, OutputStream outputStream,
+                                          RequestLimits limits) throws IOException {
+        return fromInputStream(inputStream, outputStream, limits, null);
+    }
+
+    /**
+     * Создаёт структурированный запрос, отмечая окончание разбора заголовков и тела в хронометраже.
+     *
+     * @param inputStream  входной поток.
+     * @param outputStream исходящий поток подключения (для 100 Continue); может быть {@code null}.
+     * @param limits       ограничения размера тела.
+     * @param trace        хронометраж подключения; может быть {@code null}.
+     * @return структурированный HTTP-запрос.
+     * @throws PayloadTooLargeException если заявленное тело больше допустимого.
+     * @throws IOException при проблемах со связью или при нерабочем запросе.
+     */
+    static Request fromInputStream(InputStream inputStream, OutputStream outputStream,
+                                   RequestLimits limits, RequestTrace trace) throws IOException {
+        // заголовки читаются в буфер из пула; всё, что пришло после них, — начало тела
+        final var head = BufferPool.heap().acquire(limits.getMaxHeaderSize());
+        try {
+            return parse(head.array(), inputStream, outputStream, limits, trace);
+        } finally {
+            head.close();
+        }
+    }
+
+    private static Request parse(byte[] buffer, InputStream inputStream, OutputStream outputStream,
+                                 RequestLimits limits, RequestTrace trace) throws IOException {
+        // дочитываем, пока не придут все заголовки (они могут прийти несколькими порциями)
+        final var limit = limits.getMaxHeaderSize();
+        var read = 0;
+        while (read < limit) {
+            final var n = inputStream.read(buffer, read, limit - read);
+            if (n == -1) break;
+            read += n;
+            if (indexOf(buffer, HEADERS_DELIMITER, Math.max(0, read - n - 3), read) != -1) break;
+        }
 
         final var requestLineEnd = indexOf(buffer, LINE_DELIMITER, 0, read);
 //        System.out.println("requestLineEnd = " + requestLineEnd + "\nbufferLength = " + read); // мониторинг
-        if (requestLineEnd == -1 && read > 0) {
+        if (requestLineEnd == -1) {
             throw new IOException("Invalid request");
         }
-        final var requestLineParts = new String(Arrays.copyOf(buffer, requestLineEnd)).split(" ");
+        final var requestLineParts = new String(buffer, 0, requestLineEnd).split(" ");
         if (requestLineParts.length != 3) {
             throw new IOException("Invalid request");
         }
 
+        // предисловие HTTP/2 при заранее известном протоколе: "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"
+        if (HTTP2_PREFACE_METHOD.equals(requestLineParts[0]) && "*".equals(requestLineParts[1])
+                && "HTTP/2.0".equals(requestLineParts[2])) {
+            final var preface = http2Preface(buffer, read, limit, inputStream);
+            if (trace != null) {
+                trace.headersParsed(HTTP2_PREFACE_METHOD, "*", HTTP2_PREFACE.length);
+                trace.bodyParsed(0, 0);
+            }
+            return preface;
+        }
+
         final var rqMethod = requestLineParts[0];
         final var rqOriginalPath = requestLineParts[1];
 
@@ -117,7 +185,8 @@ public class Request {
             int queryIndex = rqOriginalPath.indexOf("?");
             rqPath = rqOriginalPath.substring(0, queryIndex);
             final var queryString = rqOriginalPath.substring(queryIndex + 1);
-            rqQParams = paramStringToMap(queryString, "application/x-www-form-urlencoded");
+            final var queryBytes = queryString.getBytes(StandardCharsets.UTF_8);
+            FormUrlDecoder.decode(queryBytes, 0, queryBytes.length, rqQParams);
         }
 
         final var headersStart = requestLineEnd + LINE_DELIMITER.length;
@@ -125,93 +194,168 @@ public class Request {
         if (headersEnd == -1) {
             throw new IOException("Invalid request");
         }
-        in.reset();
-        in.skip(headersStart);
-        final var headersBytes = in.readNBytes(headersEnd - headersStart);
-
-        final var headerPairs = new String(headersBytes).split("\r\n");
-        Map<String, String> rqHeaders = new HashMap<>();
-        for (String line : headerPairs) {
-            var i = line.indexOf(":");
-            var headerName = line.substring(0, i);
-            var headerValue = line.substring(i + 2);
-            rqHeaders.put(headerName, headerValue);
+        final Headers rqHeaders;
+        try {
+            rqHeaders = Headers.parse(buffer, headersStart, headersEnd, false);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid request");
         }
+        if (trace != null) trace.headersParsed(rqMethod, rqPath, headersEnd + HEADERS_DELIMITER.length);
 
         // читаем тело
-        byte[] bodyBytes = new byte[0];
+        PooledBuffer bodyBuffer = null;
+        int bodyLength = 0;
         if (!rqMethod.equals("GET")) {
-            in.skip(HEADERS_DELIMITER.length);
+            final var bodyStart = headersEnd + HEADERS_DELIMITER.length;
+            final var contentLengthValues = rqHeaders.getAll("Content-Length");
+            // разные длины в повторных заголовках — признак попытки подмены запроса
+            if (contentLengthValues.stream().distinct().count() > 1)
+                throw new IOException("Invalid request");
             final var contentLengthString = rqHeaders.get("Content-Length");
-            if (contentLengthString != null)
-                bodyBytes = in.readNBytes(Integer.parseInt(contentLengthString));
+            if (contentLengthString != null) {
+                final var contentLength = parseContentLength(contentLengthString);
+                final var maxBodySize = limits.maxBodySize(rqMethod,
+                        "".equals(rqPath) || "/".equals(rqPath) ? defaultPath : rqPath);
+                // отказываем до выделения памяти и до чтения тела
+                if (contentLength > maxBodySize)
+                    throw new PayloadTooLargeException(contentLength, maxBodySize);
+
+                final var expect = rqHeaders.get("Expect");
+                if (expect != null && "100-continue".equalsIgnoreCase(expect.trim()) && outputStream != null) {
+                    outputStream.write(CONTINUE_RESPONSE);
+                    outputStream.flush();
+                }
+                if (inputStream instanceof SlowClientGuard)
+                    ((SlowClientGuard) inputStream).beginBody();
+                bodyLength = (int) contentLength;
+                bodyBuffer = BufferPool.heap().acquire(bodyLength);
+                try {
+                    final var early = Math.min(read - bodyStart, bodyLength);
+                    System.arraycopy(buffer, bodyStart, bodyBuffer.array(), 0, early);
+                    if (inputStream.readNBytes(bodyBuffer.array(), early, bodyLength - early) < bodyLength - early)
+                        throw new IOException("Invalid request");
+                } catch (IOException | RuntimeException e) {
+                    bodyBuffer.close();
+                    throw e;
+                }
+            }
         }
+        // разбор тела может отвергнуть запрос; буфер тела тогда возвращается в пул здесь
+        try {
+            final var bodyBytes = bodyBuffer == null ? new byte[0] : bodyBuffer.array();
 
-        final var body = new String(bodyBytes);         // потом едва ли будет нужно
+            Map<String, List<String>> rqPostParams = new HashMap<>();
+            List<MultiPartDatum> rqMultiPartData = new ArrayList<>();
 
-        Map<String, List<String>> rqPostParams = new HashMap<>();
-        List<MultiPartDatum> rqMultiPartData = new ArrayList<>();
-
-        var contentType = rqHeaders.get("Content-Type");
+            var contentType = rqHeaders.get("Content-Type");
 
 //        System.out.printf("Запрос к %s типа %s%n", rqPath, contentType);                // мониторинг
 //        System.out.printf("[%s]%n", body);                                              // мониторинг
 
-        //если существуют тело и тип содержимого
-        if (bodyBytes.length > 0 && contentType != null) {
-
-            // если тип не многочастный
-            if (!contentType.startsWith("multipart/form-data")){
-                // читаем из тела параметры
-                rqPostParams = paramStringToMap(body, contentType);
-
-            // если тип многочастный
-            } else {
-                // узнать разделитель
-                final var pre = new byte[]{'-', '-'};
-                final var boundaryString = contentType.substring(contentType.indexOf("=") + 1).getBytes();
-                byte[] boundary = new byte[pre.length + boundaryString.length];
-                System.arraycopy(pre, 0, boundary, 0, pre.length);
-                System.arraycopy(boundaryString, 0, boundary, pre.length, boundaryString.length);
-
-                // текущая позиция в теле на конце разделителя
-                int cur = boundary.length;
-
-                while (cur < bodyBytes.length) {            // обновить условие ← ↓ ?
-                    // если следом за разделителем не перевод строки
-                    if (!Arrays.equals(new byte[]{bodyBytes[cur], bodyBytes[cur + 1]}, LINE_DELIMITER)) {
-                        // значит это конец последней части
-                        break;
+            //если существуют тело и тип содержимого
+            String body = null;
+            if (bodyLength > 0 && contentType != null) {
+
+                // если параметры закодированы как в адресной строке, разбираем их прямо из байтов тела
+                if ("application/x-www-form-urlencoded".equals(contentType)) {
+                    FormUrlDecoder.decode(bodyBytes, 0, bodyLength, rqPostParams);
+
+                // если тип не многочастный
+                } else if (!contentType.startsWith("multipart/form-data")){
+                    // читаем из тела параметры
+                    body = new String(bodyBytes, 0, bodyLength);
+                    rqPostParams = paramStringToMap(body, contentType);
+
+                // если тип многочастный
+                } else {
+                    // узнать разделитель
+                    final var pre = new byte[]{'-', '-'};
+                    final var boundaryString = contentType.substring(contentType.indexOf("=") + 1).getBytes();
+                    byte[] boundary = new byte[pre.length + boundaryString.length];
+                    System.arraycopy(pre, 0, boundary, 0, pre.length);
+                    System.arraycopy(boundaryString, 0, boundary, pre.length, boundaryString.length);
+
+                    // текущая позиция в теле на конце разделителя
+                    int cur = boundary.length;
+
+                    while (cur + 1 < bodyLength) {
+                        // если следом за разделителем не перевод строки
+                        if (bodyBytes[cur] != '\r' || bodyBytes[cur + 1] != '\n') {
+                            // значит это конец последней части
+                            break;
+                        }
+                        // проматываем перевод строки
+                        cur += 2;
+                        // конец части:
+                        var partEnd = indexOf(bodyBytes, boundary, cur, bodyLength);
+                        if (partEnd == -1) break;
+                        // конец заголовков части:
+                        var headersAreaEnd = indexOf(bodyBytes, HEADERS_DELIMITER, cur, partEnd);
+                        if (headersAreaEnd == -1) break;
+                        final var headersAreaStart = cur;
+
+                        // проматываем до начала тела части
+                        cur = headersAreaEnd + HEADERS_DELIMITER.length;
+                        final var bodyAreaStart = cur;
+
+                        // проматываем до начала следующей части
+                        cur = partEnd + boundary.length;
+
+                        // часть ссылается на свои заголовки и тело (без финального перевода строки) в буфере запроса
+                        rqMultiPartData.add(new MultiPartDatum(bodyBytes, headersAreaStart, headersAreaEnd,
+                                bodyAreaStart, partEnd - 2));
                     }
-                    // проматываем перевод строки
-                    cur += 2;
-                    // конец части:
-                    var partEnd = indexOf(bodyBytes, boundary, cur, bodyBytes.length);
-                    // конец заголовков части:
-                    var headersAreaEnd = indexOf(bodyBytes, HEADERS_DELIMITER, cur, partEnd);
-                    // скопировать с текущей позиции по конец заголовков
-                    var headersArea = Arrays.copyOfRange(bodyBytes, cur, headersAreaEnd);
-
-                    // проматываем до начала тела части
-                    cur = headersAreaEnd + HEADERS_DELIMITER.length;
-
-                    // копируем с текущей позиции по конец части (без финального перевода строки)
-                    var bodyArea = Arrays.copyOfRange(bodyBytes, cur, partEnd - 2);
-
-                    // проматываем до начала следующей части
-                    cur = partEnd + boundary.length;
-
-                    // сохраняем заголовки и тело в новую часть
-                    rqMultiPartData.add(new MultiPartDatum(headersArea, bodyArea));
                 }
             }
+            if (trace != null) trace.bodyParsed(bodyLength, rqMultiPartData.size());
+            return new Request(rqMethod, rqOriginalPath, rqPath, rqQParams, rqHeaders,
+                    bodyBuffer, bodyLength, body, rqPostParams, rqMultiPartData);
+        } catch (IOException | RuntimeException e) {
+            if (bodyBuffer != null) bodyBuffer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Дочитывает предисловие HTTP/2 и возвращает запрос-метку с методом {@code PRI};
+     * его телом становятся байты, пришедшие следом за предисловием (начало кадров).
+     */
+    private static Request http2Preface(byte[] buffer, int read, int limit, InputStream inputStream)
+            throws IOException {
+        while (read < HTTP2_PREFACE.length) {
+            final var n = inputStream.read(buffer, read, limit - read);
+            if (n == -1) throw new IOException("Invalid request");
+            read += n;
         }
-        return new Request(rqMethod, rqOriginalPath, rqPath, rqQParams, rqHeaders, body, rqPostParams, rqMultiPartData);
+        if (!Arrays.equals(buffer, 0, HTTP2_PREFACE.length, HTTP2_PREFACE, 0, HTTP2_PREFACE.length))
+            throw new IOException("Invalid request");
+        final var leftover = read - HTTP2_PREFACE.length;
+        final var leftoverBuffer = BufferPool.heap().acquire(leftover);
+        System.arraycopy(buffer, HTTP2_PREFACE.length, leftoverBuffer.array(), 0, leftover);
+        return new Request(HTTP2_PREFACE_METHOD, "*", "*", new HashMap<>(), new Headers(),
+                leftoverBuffer, leftover, null, new HashMap<>(), new ArrayList<>());
+    }
+
+    /**
+     * Разбирает значение Content-Length: только десятичные цифры, без знака и переполнения.
+     * @param value значение заголовка.
+     * @return заявленная длина тела.
+     * @throws IOException если значение некорректно.
+     */
+    private static long parseContentLength(String value) throws IOException {
+        final var trimmed = value.trim();
+        if (trimmed.isEmpty() || trimmed.length() > 18)
+            throw new IOException("Invalid request");
+        for (int i = 0; i < trimmed.length(); i++)
+            if (trimmed.charAt(i) < '0' || trimmed.charAt(i) > '9')
+                throw new IOException("Invalid request");
+        return Long.parseLong(trimmed);
     }
 
     /**
      * Создаёт из полученной строки́ Карту <Имя, Список<Значение>>,
-     * разбивая материал пары ключ/значение в соответствии с указанной кодировкой.
+     * разбивая материал пары ключ/значение в соответствии с указанной кодировкой
+     * (формы application/x-www-form-urlencoded разбирает {@link FormUrlDecoder}).
      * @param material  разбираемая строка.
      * @param encType   тип содержимого (предполагается указанный в заголовке запроса).
      * @return  карту параметров "имя-значение".
@@ -219,19 +363,13 @@ public class Request {
     private static Map<String, List<String>> paramStringToMap(String material, String encType) {
         Map<String, List<String>> map = new HashMap<>();
 
-        if ("application/x-www-form-urlencoded".equals(encType)) {
-            for (String line : material.split("&")) {
-                int delimiterIndex = line.indexOf("=");
-                String name = URLDecoder.decode(line.substring(0, delimiterIndex), StandardCharsets.UTF_8);
-                String value = URLDecoder.decode(line.substring(delimiterIndex + 1), StandardCharsets.UTF_8);
-                map.putIfAbsent(name, new ArrayList<>());
-                map.get(name).add(value);
-            }
-        } else if ("text/plain".equals(encType)) {
+        if ("text/plain".equals(encType)) {
             for (String line : material.split("\r\n")) {
+                if (line.isEmpty()) continue;
+                // строка без "=" — поле с пустым значением, как и в формах application/x-www-form-urlencoded
                 int delimiterIndex = line.indexOf("=");
-                String name = line.substring(0, delimiterIndex);
-                String value = line.substring(delimiterIndex + 1);
+                String name = delimiterIndex == -1 ? line : line.substring(0, delimiterIndex);
+                String value = delimiterIndex == -1 ? "" : line.substring(delimiterIndex + 1);
                 map.putIfAbsent(name, new ArrayList<>());
                 map.get(name).add(value);
             }
@@ -258,20 +396,39 @@ public class Request {
     }
 
     /**
-     * Возвращает карту распознанных заголовков.
-     * @return значение поля headers.
+     * Возвращает карту распознанных заголовков: имя — первое значение.
+     * Ключи ищутся без учёта регистра; карта только для чтения.
+     * @return представление поля headers картой.
      */
     public Map<String, String> getHeaders() {
+        return headers.asMap();
+    }
+
+    /**
+     * Возвращает все распознанные заголовки в порядке получения, с повторами.
+     * @return значение поля headers.
+     */
+    public Headers getAllHeaders() {
         return headers;
     }
 
     /**
      * Возвращает опционально значение для запрашиваемого заголовка, если он найден.
+     * Имя заголовка сравнивается без учёта регистра; из повторов берётся первый.
      * @param header заголовок, значение которого нужно узнать.
      * @return  значение запрошенного заголовка либо, если он не найден, пустую опциональ.
      */
     public Optional<String> getHeader(String header) {
-        return Optional.ofNullable(headers.get(header));
+        return headers.first(header);
+    }
+
+    /**
+     * Возвращает все значения заголовка, если он передан несколько раз.
+     * @param header заголовок (без учёта регистра).
+     * @return список значений в порядке получения (пустой, если заголовка нет).
+     */
+    public List<String> getHeaderValues(String header) {
+        return headers.getAll(header);
     }
 
     /**
@@ -285,12 +442,49 @@ public class Request {
 
     /**
      * Возвращает строковое представление переданного тела запроса.
+     * Строка строится при первом обращении.
      * @return значение поля body.
      */
     public String getBody() {
+        if (body == null)
+            body = bodyLength == 0 ? "" : new String(bodyBuffer.array(), 0, bodyLength);
         return body;
     }
 
+    /**
+     * Возвращает копию байтов тела.
+     * @return новый массив с телом запроса.
+     */
+    public byte[] getBodyBytes() {
+        return bodyLength == 0 ? new byte[0] : Arrays.copyOf(bodyBuffer.array(), bodyLength);
+    }
+
+    /**
+     * Сообщает, что клиент начал соединение HTTP/2 без согласования (с предисловием {@code PRI *}).
+     * Тело такого запроса — байты, пришедшие сразу за предисловием.
+     * @return true для предисловия HTTP/2.
+     */
+    public boolean isHttp2Preface() {
+        return HTTP2_PREFACE_METHOD.equals(method) && "*".equals(path);
+    }
+
+    /**
+     * Сообщает длину тела запроса.
+     * @return значение поля bodyLength.
+     */
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * Возвращает буфер тела в пул. Вызывается сервером после обработки запроса;
+     * после этого тела частей многочастного запроса читать нельзя.
+     * Строковое тело, если оно уже было построено, остаётся доступным.
+     */
+    public void release() {
+        if (bodyBuffer != null) bodyBuffer.close();
+    }
+
     /**
      * Возвращает опционально значения из строки запроса, соответствующие запрашиваемому параметру.
      * @param name имя параметра.
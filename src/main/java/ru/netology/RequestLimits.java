@@ -0,0 +1,78 @@
+package ru.netology;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ограничения на размер запроса: на строку запроса с заголовками и на тело.
+ * Ограничение тела общее для сервера и, при необходимости, отдельное для конкретных метода и пути;
+ * оно проверяется по заголовку Content-Length до того, как под тело будет выделена память.
+ */
+public class RequestLimits {
+    /**
+     * Больше этого тело всё равно не поместится в массив.
+     */
+    public static final long MAX_POSSIBLE_BODY = Integer.MAX_VALUE - 8;
+    public static final int DEFAULT_MAX_HEADER_SIZE = 4096;
+
+    private volatile int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+    private volatile long maxBodySize;
+    private final Map<String, Long> routeMaxBodySize = new ConcurrentHashMap<>();
+
+    /**
+     * Создаёт ограничения с указанным общим пределом тела.
+     * @param maxBodySize наибольший размер тела в байтах.
+     */
+    public RequestLimits(long maxBodySize) {
+        setMaxBodySize(maxBodySize);
+    }
+
+    /**
+     * Устанавливает наибольший размер строки запроса вместе с заголовками.
+     * @param maxHeaderSize размер в байтах (не меньше 256).
+     */
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = Math.max(256, maxHeaderSize);
+    }
+
+    /**
+     * Возвращает наибольший размер строки запроса вместе с заголовками.
+     * @return значение поля maxHeaderSize.
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * Устанавливает общий предел размера тела.
+     * @param maxBodySize наибольший размер тела в байтах.
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = clamp(maxBodySize);
+    }
+
+    /**
+     * Устанавливает предел размера тела для конкретных метода и пути (может быть и больше, и меньше общего).
+     * @param method      метод запроса.
+     * @param path        путь ресурса.
+     * @param maxBodySize наибольший размер тела в байтах.
+     */
+    public void setMaxBodySize(String method, String path, long maxBodySize) {
+        routeMaxBodySize.put(method + " " + path, clamp(maxBodySize));
+    }
+
+    /**
+     * Сообщает предел размера тела для запроса.
+     * @param method метод запроса.
+     * @param path   путь ресурса.
+     * @return наибольший допустимый размер тела в байтах.
+     */
+    public long maxBodySize(String method, String path) {
+        final var routeLimit = routeMaxBodySize.get(method + " " + path);
+        return routeLimit != null ? routeLimit : maxBodySize;
+    }
+
+    private static long clamp(long size) {
+        return Math.max(0, Math.min(size, MAX_POSSIBLE_BODY));
+    }
+}
@@ -0,0 +1,303 @@
+package ru.netology;
+
+import java.net.Socket;
+
+/**
+ * Хронометраж подключения HTTP/1.1 по фазам: ожидание в очереди к рабочим потокам,
+ * заголовки, тело, выбор обработчика, работа обработчика и запись ответа.
+ * <p>
+ * По каждой фазе записывается событие из {@link ServerEvents}. Запрос, обработка которого
+ * заняла не меньше порога, выводится в мониторинг с раскладкой по фазам и записывается
+ * событием {@link ServerEvents.SlowRequest}. Статус ответа узнаётся из первых записанных байтов.
+ * <p>
+ * Создаётся приёмщиком, дальше используется одним рабочим потоком.
+ */
+final class RequestTrace {
+    private static final int STATUS_LINE_PREFIX = "HTTP/1.1 200".length();
+
+    private final String remoteAddress;
+    private final long slowThresholdNanos;
+
+    private final ServerEvents.ConnectionAccept acceptEvent = new ServerEvents.ConnectionAccept();
+    private final ServerEvents.HeaderParse headerEvent = new ServerEvents.HeaderParse();
+    private final ServerEvents.BodyParse bodyEvent = new ServerEvents.BodyParse();
+    private final ServerEvents.Dispatch dispatchEvent = new ServerEvents.Dispatch();
+    private final ServerEvents.HandlerExecution handlerEvent = new ServerEvents.HandlerExecution();
+    private final ServerEvents.ResponseWrite writeEvent = new ServerEvents.ResponseWrite();
+
+    // отметки System.nanoTime() по окончании фаз; 0 — фаза не завершилась
+    private final long acceptedAt;
+    private long startedAt;
+    private long headersAt;
+    private long bodyAt;
+    private long dispatchedAt;
+    private volatile long completedAt;      // читается и потоками, пишущими в поток событий
+
+    private String method;
+    private String path;
+    private String route;
+    private int headerBytes;
+    private int bodyBytes;
+
+    private long firstWriteAt;
+    private long writeNanos;
+    private long bytesWritten;
+    private int status;
+    private boolean statusFinal;
+    /**
+     * Начало строки статуса текущего ответа и разбор промежуточного ответа 1xx до его конца.
+     */
+    private final byte[] statusLine = new byte[STATUS_LINE_PREFIX];
+    private int statusLineLength;
+    private int interimTail;
+
+    /**
+     * Начинает хронометраж только что принятого подключения.
+     * @param socket             подключение.
+     * @param slowThresholdNanos с какой длительности запрос считается медленным; 0 — не отмечать.
+     */
+    RequestTrace(Socket socket, long slowThresholdNanos) {
+        this.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+        this.slowThresholdNanos = slowThresholdNanos;
+        acceptedAt = System.nanoTime();
+        acceptEvent.begin();
+    }
+
+    /**
+     * Рабочий поток взял подключение.
+     */
+    void started() {
+        startedAt = System.nanoTime();
+        acceptEvent.end();
+        if (acceptEvent.shouldCommit()) {
+            acceptEvent.remoteAddress = remoteAddress;
+            acceptEvent.commit();
+        }
+        headerEvent.begin();
+    }
+
+    /**
+     * Строка запроса и заголовки разобраны.
+     * @param method      метод запроса.
+     * @param path        путь запроса.
+     * @param headerBytes размер строки запроса и заголовков.
+     */
+    void headersParsed(String method, String path, int headerBytes) {
+        headersAt = System.nanoTime();
+        this.method = method;
+        this.path = path;
+        this.headerBytes = headerBytes;
+        headerEvent.end();
+        if (headerEvent.shouldCommit()) {
+            headerEvent.method = method;
+            headerEvent.path = path;
+            headerEvent.headerBytes = headerBytes;
+            headerEvent.commit();
+        }
+        bodyEvent.begin();
+    }
+
+    /**
+     * Тело прочитано и разобрано.
+     * @param bodyBytes размер тела.
+     * @param parts     сколько в нём частей multipart.
+     */
+    void bodyParsed(int bodyBytes, int parts) {
+        bodyAt = System.nanoTime();
+        this.bodyBytes = bodyBytes;
+        bodyEvent.end();
+        if (bodyEvent.shouldCommit()) {
+            bodyEvent.method = method;
+            bodyEvent.path = path;
+            bodyEvent.bodyBytes = bodyBytes;
+            bodyEvent.parts = parts;
+            bodyEvent.commit();
+        }
+        dispatchEvent.begin();
+    }
+
+    /**
+     * Обработчик выбран, дальше работает он.
+     * @param route каким путём пойдёт запрос (handler, static, fallback и т. п.).
+     */
+    void dispatched(String route) {
+        dispatchedAt = System.nanoTime();
+        this.route = route;
+        dispatchEvent.end();
+        if (dispatchEvent.shouldCommit()) {
+            dispatchEvent.method = method;
+            dispatchEvent.path = path;
+            dispatchEvent.route = route;
+            dispatchEvent.commit();
+        }
+        handlerEvent.begin();
+    }
+
+    /**
+     * Учитывает запись в ответ.
+     * @param b            записанные байты.
+     * @param off          начало записанного.
+     * @param len          сколько записано.
+     * @param elapsedNanos сколько длилась запись.
+     */
+    void written(byte[] b, int off, int len, long elapsedNanos) {
+        if (!account(len, elapsedNanos)) return;
+        for (int i = off; i < off + len && !statusFinal; i++)
+            sniffStatus(b[i]);
+    }
+
+    /**
+     * Учитывает запись в ответ одного байта.
+     * @param b            записанный байт.
+     * @param elapsedNanos сколько длилась запись.
+     */
+    void written(int b, long elapsedNanos) {
+        if (account(1, elapsedNanos) && !statusFinal) sniffStatus((byte) b);
+    }
+
+    private boolean account(int len, long elapsedNanos) {
+        if (completedAt != 0) return false;     // поток событий пишет и после окончания запроса
+        if (firstWriteAt == 0) {
+            firstWriteAt = System.nanoTime() - elapsedNanos;
+            writeEvent.begin();
+        }
+        writeNanos += elapsedNanos;
+        bytesWritten += len;
+        return true;
+    }
+
+    /**
+     * Разбирает статус из начала ответа. Промежуточный ответ 1xx (100 Continue) пропускается
+     * до пустой строки, после которой ожидается окончательный; 101 при смене протокола — последний.
+     */
+    private void sniffStatus(byte b) {
+        if (statusLineLength < STATUS_LINE_PREFIX) {
+            statusLine[statusLineLength++] = b;
+            if (statusLineLength == STATUS_LINE_PREFIX) {
+                status = parseStatus();
+                statusFinal = status >= 200 || status == 101;
+                interimTail = 0;
+            }
+        } else {
+            // ищем конец промежуточного ответа: \r\n\r\n
+            interimTail = interimTail << 8 | (b & 0xff);
+            if (interimTail == 0x0d0a0d0a) {
+                statusLineLength = 0;
+                status = 0;
+            }
+        }
+    }
+
+    private int parseStatus() {
+        int code = 0;
+        for (int i = STATUS_LINE_PREFIX - 3; i < STATUS_LINE_PREFIX; i++) {
+            final int digit = statusLine[i] - '0';
+            if (digit < 0 || digit > 9) return 200;     // не HTTP/1.x: считаем ответ окончательным
+            code = code * 10 + digit;
+        }
+        return code;
+    }
+
+    /**
+     * Подключение обработано: записывает события обработчика и ответа и отмечает медленный запрос.
+     */
+    void completed() {
+        if (completedAt != 0) return;
+        completedAt = System.nanoTime();
+        if (dispatchedAt != 0) {
+            handlerEvent.end();
+            if (handlerEvent.shouldCommit()) {
+                handlerEvent.method = method;
+                handlerEvent.path = path;
+                handlerEvent.route = route;
+                handlerEvent.status = status;
+                handlerEvent.bytesWritten = bytesWritten;
+                handlerEvent.commit();
+            }
+        }
+        if (firstWriteAt != 0) {
+            writeEvent.end();
+            if (writeEvent.shouldCommit()) {
+                writeEvent.method = method;
+                writeEvent.path = path;
+                writeEvent.status = status;
+                writeEvent.bytesWritten = bytesWritten;
+                writeEvent.blocked = writeNanos;
+                writeEvent.commit();
+            }
+        }
+        final long total = completedAt - acceptedAt;
+        if (slowThresholdNanos > 0 && total >= slowThresholdNanos) slow(total);
+    }
+
+    /**
+     * Возвращает то, что зависит от загрузки сервера: ожидание рабочего потока и работу
+     * обработчика. Чтение запроса от клиента сюда не входит.
+     * @return длительность, нс, или -1, если до обработчика дело не дошло.
+     */
+    long serviceNanos() {
+        if (dispatchedAt == 0 || completedAt == 0) return -1;
+        return (startedAt - acceptedAt) + (completedAt - dispatchedAt);
+    }
+
+    /**
+     * Возвращает момент приёма подключения.
+     * @return значение поля acceptedAt (System.nanoTime()).
+     */
+    long getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    /**
+     * Возвращает время от приёма подключения до конца обработки.
+     * @return длительность, нс, или 0, если обработка не завершилась.
+     */
+    long getTotalNanos() {
+        return completedAt == 0 ? 0 : completedAt - acceptedAt;
+    }
+
+    /**
+     * Возвращает статус отправленного ответа.
+     * @return значение поля status (0 — ответа не было).
+     */
+    int getStatus() {
+        return status;
+    }
+
+    private void slow(long total) {
+        // фаза, на которой обработка оборвалась (ошибка, отказ), длится до конца обработки
+        final long[] marks = {acceptedAt, startedAt, headersAt, bodyAt, dispatchedAt, completedAt};
+        final long[] spans = new long[marks.length - 1];
+        for (int i = 1; i < marks.length; i++)
+            if (marks[i - 1] != 0) spans[i - 1] = (marks[i] != 0 ? marks[i] : completedAt) - marks[i - 1];
+
+        System.out.printf("SLOW_REQUEST %s %s %s %d за %.1f мс: очередь %.1f, заголовки %.1f, тело %.1f, " +   // мониторинг
+                        "выбор %.1f, обработчик %.1f (из них запись %.1f); принято %d Б, отправлено %d Б%n",
+                remoteAddress, method, path, status, millis(total), millis(spans[0]), millis(spans[1]),
+                millis(spans[2]), millis(spans[3]), millis(spans[4]), millis(writeNanos),
+                headerBytes + bodyBytes, bytesWritten);
+
+        final var event = new ServerEvents.SlowRequest();
+        if (event.shouldCommit()) {
+            event.remoteAddress = remoteAddress;
+            event.method = method;
+            event.path = path;
+            event.status = status;
+            event.headerBytes = headerBytes;
+            event.bodyBytes = bodyBytes;
+            event.bytesWritten = bytesWritten;
+            event.total = total;
+            event.queued = spans[0];
+            event.headers = spans[1];
+            event.body = spans[2];
+            event.dispatch = spans[3];
+            event.handler = spans[4];
+            event.write = writeNanos;
+            event.commit();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
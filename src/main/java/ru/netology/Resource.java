@@ -0,0 +1,92 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Сведения о файле публичной директории, достаточные для ответа на запрос:
+ * нормализованный путь, наличие, размер, время изменения и тип содержимого.
+ * Ресурс из {@link AssetBundle} несёт и само содержимое.
+ */
+public class Resource {
+    private final Path path;
+    private final boolean exists;
+    private final long size;
+    private final long lastModified;
+    private final String mimeType;
+    /**
+     * Момент (по {@code System.nanoTime()}), после которого сведения нужно перепроверить.
+     */
+    final long validUntil;
+    /**
+     * Содержимое из пакета ресурсов; {@code null} — читается из файла.
+     */
+    private final ByteBuffer content;
+
+    Resource(Path path, boolean exists, long size, long lastModified, String mimeType, long validUntil) {
+        this(path, exists, size, lastModified, mimeType, validUntil, null);
+    }
+
+    Resource(Path path, boolean exists, long size, long lastModified, String mimeType, long validUntil,
+             ByteBuffer content) {
+        this.path = path;
+        this.exists = exists;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.mimeType = mimeType;
+        this.validUntil = validUntil;
+        this.content = content;
+    }
+
+    /**
+     * Возвращает нормализованный путь к файлу.
+     * @return значение поля path.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Сообщает, существует ли обычный файл по этому пути (внутри публичной директории).
+     * @return значение поля exists.
+     */
+    public boolean exists() {
+        return exists;
+    }
+
+    /**
+     * Сообщает размер файла в байтах.
+     * @return значение поля size.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Сообщает время последнего изменения файла в миллисекундах от начала эпохи.
+     * @return значение поля lastModified.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Сообщает тип содержимого файла.
+     * @return значение поля mimeType.
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Читает содержимое как текст UTF-8: из пакета ресурсов, если ресурс оттуда, иначе из файла.
+     * @return содержимое.
+     * @throws IOException если файл не читается.
+     */
+    public String readString() throws IOException {
+        return content != null ? StandardCharsets.UTF_8.decode(content.duplicate()).toString() : Files.readString(path);
+    }
+}
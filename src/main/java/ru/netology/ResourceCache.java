@@ -0,0 +1,90 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кэш сведений о файлах публичной директории.
+ * <p>
+ * Одно чтение атрибутов файла заменяет тройку {@code Files.isRegularFile},
+ * {@code Files.size} и {@code Files.probeContentType}, а результат (в том числе отсутствие файла)
+ * переиспользуется, пока не истечёт срок перепроверки. Пути, выходящие за пределы
+ * публичной директории, считаются отсутствующими.
+ */
+public class ResourceCache {
+    private final Path root;
+    private final MimeTypes mimeTypes;
+    private final long revalidateNanos;
+    private final int maxEntries;
+    private final Map<String, Resource> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Создаёт кэш сведений о файлах указанной директории.
+     * @param publicDir  публичная директория.
+     * @param mimeTypes  таблица типов содержимого.
+     * @param revalidate через сколько сведения о файле перепроверяются (0 — каждый раз).
+     * @param maxEntries сколько путей хранить; при переполнении кэш очищается.
+     */
+    public ResourceCache(String publicDir, MimeTypes mimeTypes, Duration revalidate, int maxEntries) {
+        this.root = Path.of(".", publicDir).toAbsolutePath().normalize();
+        this.mimeTypes = mimeTypes;
+        this.revalidateNanos = revalidate.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Выдаёт сведения о файле по пути из запроса.
+     * @param requestPath путь ресурса из запроса (например, {@code /index.html}).
+     * @return сведения о файле; для отсутствующего файла {@link Resource#exists()} ложно.
+     */
+    public Resource resolve(String requestPath) {
+        final var cached = entries.get(requestPath);
+        if (cached != null && cached.validUntil - System.nanoTime() > 0) return cached;
+
+        final var fresh = load(requestPath);
+        if (entries.size() >= maxEntries) entries.clear();
+        entries.put(requestPath, fresh);
+        return fresh;
+    }
+
+    /**
+     * Забывает сведения о файле, например после его перезаписи.
+     * @param requestPath путь ресурса из запроса.
+     */
+    public void invalidate(String requestPath) {
+        entries.remove(requestPath);
+    }
+
+    /**
+     * Возвращает таблицу типов содержимого, которой пользуется кэш.
+     * @return значение поля mimeTypes.
+     */
+    public MimeTypes getMimeTypes() {
+        return mimeTypes;
+    }
+
+    private Resource load(String requestPath) {
+        final long validUntil = System.nanoTime() + revalidateNanos;
+        final var relative = requestPath.startsWith("/") ? requestPath.substring(1) : requestPath;
+        final var path = root.resolve(relative).normalize();
+        if (!path.startsWith(root))
+            return new Resource(path, false, 0, 0, MimeTypes.DEFAULT_TYPE, validUntil);
+        final var mimeType = mimeTypes.lookup(path.getFileName() == null ? "" : path.getFileName().toString());
+        try {
+            final var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Resource(path, attributes.isRegularFile(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), mimeType, validUntil);
+        } catch (NoSuchFileException e) {
+            return new Resource(path, false, 0, 0, mimeType, validUntil);
+        } catch (IOException e) {
+            // без кэширования: ошибка может быть временной
+            return new Resource(path, false, 0, 0, mimeType, System.nanoTime());
+        }
+    }
+}
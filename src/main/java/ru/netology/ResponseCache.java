@@ -0,0 +1,197 @@
+package ru.netology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш готовых ответов для динамических обработчиков.
+ * <p>
+ * Обёрнутый обработчик отрисовывает ответ в память; успешный ответ (200) сохраняется
+ * под ключом из метода, пути и указанных в {@link CachePolicy} параметров и заголовков.
+ * Размер кэша ограничен суммарным объёмом ответов, вытесняются давно не запрошенные.
+ * Одновременные промахи по одному ключу склеиваются: отрисовывает один запрос,
+ * остальные ждут его результат, но не дольше заданного срока: если отрисовка зависла,
+ * ждавшие отрисовывают ответ сами, без кэша.
+ */
+public class ResponseCache {
+    private static final byte[] OK_STATUS = "HTTP/1.1 200".getBytes();
+
+    private final long maxBytes;
+    private final int maxEntries;
+    private final long coalesceWaitNanos;
+    /**
+     * Ответы в порядке обращения (самые давние — первые на вытеснение).
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> rendering = new ConcurrentHashMap<>();
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong waitTimeouts = new AtomicLong();
+
+    /**
+     * Создаёт кэш с указанными ограничениями; склеенный запрос ждёт чужую отрисовку
+     * не дольше пяти секунд.
+     * @param maxBytes   наибольший суммарный объём хранимых ответов в байтах.
+     * @param maxEntries наибольшее число хранимых ответов.
+     */
+    public ResponseCache(long maxBytes, int maxEntries) {
+        this(maxBytes, maxEntries, Duration.ofSeconds(5));
+    }
+
+    /**
+     * Создаёт кэш с указанными ограничениями.
+     * @param maxBytes     наибольший суммарный объём хранимых ответов в байтах.
+     * @param maxEntries   наибольшее число хранимых ответов.
+     * @param coalesceWait сколько склеенный запрос ждёт ответ, отрисовываемый другим запросом,
+     *                     прежде чем отрисовать его сам.
+     */
+    public ResponseCache(long maxBytes, int maxEntries, Duration coalesceWait) {
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.coalesceWaitNanos = coalesceWait.toNanos();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (entries) {
+            return "ResponseCache: ответов %d (%d байт), попаданий %d, промахов %d, склеено %d, не дождались %d"
+                    .formatted(entries.size(), totalBytes, hits.get(), misses.get(), coalesced.get(),
+                            waitTimeouts.get());
+        }
+    }
+
+    /**
+     * Оборачивает обработчик кэшированием по указанному правилу.
+     * @param handler обработчик, ответы которого кэшируются.
+     * @param policy  правило кэширования.
+     * @return обработчик, отдающий ответы из кэша, пока они свежие.
+     */
+    public Handler wrap(Handler handler, CachePolicy policy) {
+        final long ttlNanos = policy.getTtl().toNanos();
+        return (request, responseStream) -> {
+            final var key = policy.keyOf(request);
+            final var cached = lookup(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                write(cached.bytes, responseStream);
+                return;
+            }
+
+            final var mine = new CompletableFuture<Entry>();
+            final var existing = rendering.putIfAbsent(key, mine);
+            if (existing != null) {
+                // тот же ответ уже отрисовывается другим запросом — ждём его
+                coalesced.incrementAndGet();
+                final Entry shared;
+                try {
+                    shared = existing.get(coalesceWaitNanos, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // отрисовка зависла — не держим за ней всех, кто ждёт тот же ключ
+                    waitTimeouts.incrementAndGet();
+                    handler.handle(request, responseStream);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for cached response", e);
+                } catch (ExecutionException e) {
+                    // у отрисовывавшего не вышло — пробуем сами, без кэша
+                    handler.handle(request, responseStream);
+                    return;
+                }
+                write(shared.bytes, responseStream);
+                return;
+            }
+
+            misses.incrementAndGet();
+            try {
+                final var buffer = new ByteArrayOutputStream(8192);
+                handler.handle(request, buffer);
+                final var entry = new Entry(buffer.toByteArray(), System.nanoTime() + ttlNanos);
+                if (isOk(entry.bytes)) store(key, entry);
+                mine.complete(entry);
+                write(entry.bytes, responseStream);
+            } catch (IOException | RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                rendering.remove(key, mine);
+            }
+        };
+    }
+
+    /**
+     * Удаляет из кэша все ответы.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    private Entry lookup(String key) {
+        synchronized (entries) {
+            final var entry = entries.get(key);
+            if (entry == null) return null;
+            if (entry.expires - System.nanoTime() <= 0) {
+                entries.remove(key);
+                totalBytes -= entry.bytes.length;
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void store(String key, Entry entry) {
+        if (entry.bytes.length > maxBytes) return;
+        synchronized (entries) {
+            final var previous = entries.put(key, entry);
+            if (previous != null) totalBytes -= previous.bytes.length;
+            totalBytes += entry.bytes.length;
+            final Iterator<Entry> eldest = entries.values().iterator();
+            while ((totalBytes > maxBytes || entries.size() > maxEntries) && eldest.hasNext()) {
+                totalBytes -= eldest.next().bytes.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static boolean isOk(byte[] response) {
+        if (response.length < OK_STATUS.length) return false;
+        for (int i = 0; i < OK_STATUS.length; i++)
+            if (response[i] != OK_STATUS[i]) return false;
+        return true;
+    }
+
+    private static void write(byte[] response, OutputStream out) throws IOException {
+        out.write(response);
+        out.flush();
+    }
+
+    /**
+     * Готовый ответ целиком (заголовки и тело) и момент, когда он устареет.
+     */
+    private static class Entry {
+        final byte[] bytes;
+        final long expires;
+
+        Entry(byte[] bytes, long expires) {
+            this.bytes = bytes;
+            this.expires = expires;
+        }
+    }
+}
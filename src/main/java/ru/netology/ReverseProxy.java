@@ -0,0 +1,324 @@
+package ru.netology;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обратный прокси: обработчик, пересылающий запрос одному из серверов за ним
+ * и возвращающий клиенту его ответ. Ставится запасным обработчиком Сервера
+ * ({@link Server#setFallbackHandler(Handler)}), так что локально обрабатываются
+ * только явно зарегистрированные пути.
+ * <p>
+ * Сервер выбирается правилом {@link LoadBalancer} среди доступных. Соединения с серверами
+ * берутся из пула Apache HttpClient и переиспользуются, если сервер держит keep-alive.
+ * Если к серверу не удалось подключиться, запрос уходит следующему; запросы GET и HEAD
+ * повторяются и при обрыве после отправки. Доступность проверяется периодическим
+ * запросом GET и по результатам самих проксируемых запросов; исключённому серверу
+ * раз в {@link #EJECTION_COOLDOWN} отдаётся один пробный запрос, так что без периодических
+ * проверок серверы не выпадают навсегда.
+ */
+public class ReverseProxy implements Handler, AutoCloseable {
+    private static final byte[] BAD_GATEWAY_RESPONSE = """
+            HTTP/1.1 502 Bad Gateway\r
+            Content-Length: 0\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final byte[] NO_BACKEND_RESPONSE = """
+            HTTP/1.1 503 Service Unavailable\r
+            Content-Length: 0\r
+            Retry-After: 1\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final byte[] GATEWAY_TIMEOUT_RESPONSE = """
+            HTTP/1.1 504 Gateway Timeout\r
+            Content-Length: 0\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    /**
+     * Заголовки одного подключения, которые не пересылаются ни к серверу, ни обратно.
+     */
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-connection",
+            "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade");
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * Через сколько исключённому серверу доверяется пробный запрос.
+     */
+    public static final Duration EJECTION_COOLDOWN = Duration.ofSeconds(5);
+    private static final long COOLDOWN_NANOS = EJECTION_COOLDOWN.toNanos();
+
+    private final LoadBalancer balancer;
+    private final List<Backend> backends = new CopyOnWriteArrayList<>();
+    private final PoolingHttpClientConnectionManager pool;
+    private final CloseableHttpClient client;
+    private final RequestConfig healthCheckConfig;
+    private volatile int failureThreshold = 2;
+    private ScheduledExecutorService healthChecks;
+
+    /**
+     * Создаёт прокси без серверов.
+     * @param balancer                 правило выбора сервера.
+     * @param maxConnectionsPerBackend наибольшее число соединений с одним сервером.
+     * @param timeout                  срок подключения к серверу и ожидания каждой порции его ответа.
+     */
+    public ReverseProxy(LoadBalancer balancer, int maxConnectionsPerBackend, Duration timeout) {
+        this.balancer = balancer;
+        pool = new PoolingHttpClientConnectionManager();
+        pool.setDefaultMaxPerRoute(maxConnectionsPerBackend);
+        pool.setMaxTotal(Integer.MAX_VALUE);
+        // соединение, простоявшее в пуле, проверяется перед выдачей: сервер мог его закрыть
+        pool.setValidateAfterInactivity(1000);
+        final int millis = (int) Math.min(Integer.MAX_VALUE, timeout.toMillis());
+        client = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(millis)
+                        .setConnectionRequestTimeout(millis)
+                        .setSocketTimeout(millis)
+                        .build())
+                // прокси передаёт всё как есть: без распаковки, переходов, повторов и cookie
+                .disableContentCompression()
+                .disableRedirectHandling()
+                .disableAutomaticRetries()
+                .disableCookieManagement()
+                .build();
+        final int healthMillis = Math.min(millis, 2000);
+        healthCheckConfig = RequestConfig.custom()
+                .setConnectTimeout(healthMillis)
+                .setConnectionRequestTimeout(healthMillis)
+                .setSocketTimeout(healthMillis)
+                .build();
+    }
+
+    /**
+     * Добавляет сервер по адресу.
+     * @param host имя или адрес.
+     * @param port порт.
+     * @return описание добавленного сервера.
+     */
+    public Backend addBackend(String host, int port) {
+        final var backend = new Backend(host, port);
+        backends.add(backend);
+        return backend;
+    }
+
+    /**
+     * Добавляет сервер, запущенный в этом же процессе; дожидается, пока он откроет порт.
+     * @param server запущенный сервер.
+     * @return описание добавленного сервера.
+     * @throws InterruptedException если ожидание прервано.
+     * @throws IllegalStateException если сервер не смог открыть порт.
+     */
+    public Backend addBackend(Server server) throws InterruptedException {
+        final int port = server.awaitLocalPort();
+        if (port < 0) throw new IllegalStateException("Сервер не слушает порт");
+        return addBackend("localhost", port);
+    }
+
+    /**
+     * Возвращает серверы за прокси.
+     * @return неизменяемый снимок списка.
+     */
+    public List<Backend> getBackends() {
+        return List.copyOf(backends);
+    }
+
+    /**
+     * Запускает периодическую проверку серверов запросом GET; ответ 5xx или его отсутствие — отказ.
+     * @param path             проверяемый путь.
+     * @param interval         период проверки.
+     * @param failureThreshold после скольких отказов подряд сервер исключается из балансировки.
+     */
+    public synchronized void startHealthChecks(String path, Duration interval, int failureThreshold) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        if (healthChecks != null) healthChecks.shutdownNow();
+        healthChecks = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "proxy-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = interval.toMillis();
+        healthChecks.scheduleWithFixedDelay(() -> {
+            for (Backend backend : backends)
+                check(backend, path);
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void check(Backend backend, String path) {
+        final var probe = new HttpGet(backend.uri(path));
+        probe.setConfig(healthCheckConfig);
+        try (CloseableHttpResponse response = client.execute(probe)) {
+            EntityUtils.consume(response.getEntity());
+            if (response.getStatusLine().getStatusCode() < 500) {
+                backend.markSuccess();
+            } else {
+                backend.markFailure(failureThreshold, COOLDOWN_NANOS);
+            }
+        } catch (IOException e) {
+            backend.markFailure(failureThreshold, COOLDOWN_NANOS);
+        }
+    }
+
+    /**
+     * Останавливает проверки и закрывает соединения с серверами.
+     */
+    @Override
+    public synchronized void close() {
+        if (healthChecks != null) healthChecks.shutdownNow();
+        try {
+            client.close();
+        } catch (IOException e) {
+            System.out.println("PROXY_CLOSE_ERROR");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReverseProxy " + backends + ", " + pool.getTotalStats();
+    }
+
+    /**
+     * Пересылает запрос выбранному серверу и передаёт клиенту его ответ.
+     * @param request        запрос к прокси.
+     * @param responseStream куда писать ответ.
+     * @throws IOException при ошибке связи с клиентом или обрыве ответа сервера посреди передачи.
+     */
+    @Override
+    public void handle(Request request, OutputStream responseStream) throws IOException {
+        final boolean idempotent = Server.GET.equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+        final byte[] body = request.getBodyLength() > 0 ? request.getBodyBytes() : null;
+        final List<Backend> tried = new ArrayList<>(2);
+        while (true) {
+            final var candidates = new ArrayList<Backend>(backends.size());
+            Backend probe = null;
+            final long now = System.nanoTime();
+            for (Backend backend : backends) {
+                if (tried.contains(backend)) continue;
+                if (backend.isHealthy()) {
+                    candidates.add(backend);
+                } else if (probe == null && backend.tryProbe(now, COOLDOWN_NANOS)) {
+                    // исключённый сервер, чей срок вышел, получает этот запрос пробой
+                    probe = backend;
+                }
+            }
+            if (candidates.isEmpty() && probe == null) {
+                System.out.println("PROXY_NO_BACKEND " + request.getOriginalPath());   // мониторинг
+                responseStream.write(tried.isEmpty() ? NO_BACKEND_RESPONSE : BAD_GATEWAY_RESPONSE);
+                responseStream.flush();
+                return;
+            }
+            final var backend = probe != null ? probe : balancer.choose(candidates, request);
+            tried.add(backend);
+            backend.begin();
+            final CloseableHttpResponse response;
+            try {
+                response = client.execute(upstreamRequest(backend, request, body));
+            } catch (ConnectTimeoutException | HttpHostConnectException e) {
+                // запрос не ушёл: любой метод можно отдать другому серверу
+                backend.end();
+                backend.markFailure(failureThreshold, COOLDOWN_NANOS);
+                continue;
+            } catch (SocketTimeoutException e) {
+                // сервер принял запрос, но не ответил: повтор мог бы выполнить его дважды
+                backend.end();
+                System.out.println("PROXY_TIMEOUT " + backend.getHost() + ":" + backend.getPort()); // мониторинг
+                responseStream.write(GATEWAY_TIMEOUT_RESPONSE);
+                responseStream.flush();
+                return;
+            } catch (IOException e) {
+                backend.end();
+                backend.markFailure(failureThreshold, COOLDOWN_NANOS);
+                if (idempotent) continue;
+                System.out.println("PROXY_ERROR " + backend.getHost() + ":" + backend.getPort() + ": " + e); // мониторинг
+                responseStream.write(BAD_GATEWAY_RESPONSE);
+                responseStream.flush();
+                return;
+            }
+            try (response) {
+                backend.markSuccess();
+                relay(response, responseStream);
+                return;
+            } finally {
+                backend.end();
+            }
+        }
+    }
+
+    private HttpUriRequest upstreamRequest(Backend backend, Request request, byte[] body) {
+        final var builder = RequestBuilder.create(request.getMethod()).setUri(backend.uri(request.getOriginalPath()));
+        final var headers = request.getAllHeaders();
+        String host = null;
+        for (int i = 0; i < headers.size(); i++) {
+            final var name = headers.name(i);
+            final var lower = name.toLowerCase(Locale.ROOT);
+            if ("host".equals(lower)) {
+                host = headers.value(i);
+                continue;
+            }
+            // длину тела и Host клиент HttpClient выставляет сам
+            if (HOP_BY_HOP.contains(lower) || "content-length".equals(lower) || "expect".equals(lower)) continue;
+            builder.addHeader(name, headers.value(i));
+        }
+        if (host != null) builder.addHeader("X-Forwarded-Host", host);
+        builder.addHeader("X-Forwarded-Proto", "http");
+        if (body != null) builder.setEntity(new ByteArrayEntity(body));
+        return builder.build();
+    }
+
+    /**
+     * Передаёт клиенту ответ сервера: строку состояния, заголовки (кроме заголовков подключения) и тело.
+     */
+    private void relay(HttpResponse response, OutputStream out) throws IOException {
+        final var status = response.getStatusLine();
+        final var head = new StringBuilder(256)
+                .append("HTTP/1.1 ").append(status.getStatusCode()).append(' ')
+                .append(status.getReasonPhrase() == null ? "" : status.getReasonPhrase()).append("\r\n");
+        for (Header header : response.getAllHeaders()) {
+            if (HOP_BY_HOP.contains(header.getName().toLowerCase(Locale.ROOT))) continue;
+            head.append(header.getName()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        // без Content-Length конец тела отмечается закрытием подключения
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        final var entity = response.getEntity();
+        if (entity != null) {
+            try (var content = entity.getContent();
+                 PooledBuffer chunk = BufferPool.heap().acquire(CHUNK_SIZE)) {
+                final var buffer = chunk.array();
+                int read;
+                while ((read = content.read(buffer)) != -1)
+                    out.write(buffer, 0, read);
+            }
+        }
+        out.flush();
+    }
+}
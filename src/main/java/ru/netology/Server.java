@@ -1,34 +1,233 @@
 package ru.netology;
 
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.net.ssl.SSLException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.ServerSocket;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.file.Files;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Слушает подключения и обрабатывает HTTP-запросы.
+ * <p>
+ * Подключения принимаются одним или несколькими потоками-приёмщиками; каждый приёмщик
+ * передаёт подключения в свою группу рабочих потоков. При нескольких приёмщиках
+ * и поддержке {@code SO_REUSEPORT} каждый слушает собственный канал на том же порту,
+ * и ядро само распределяет входящие подключения между ними; иначе приёмщики делят один канал.
  */
 public class Server extends Thread {
     public static final String GET = "GET";
     public static final String POST = "POST";
     public static final List<String> allowedMethods = List.of(GET, POST);
-    private static final String HOSTNAME = "localhost";
+    // стандартные ответы без тела собираются один раз
+    private static final byte[] NOT_FOUND_RESPONSE = """
+            HTTP/1.1 404 Not Found\r
+            Content-Length: 0\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final byte[] BAD_REQUEST_RESPONSE = """
+            HTTP/1.1 400 Bad Request\r
+            Content-Length: 0\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final byte[] NOT_IMPLEMENTED_RESPONSE = """
+            HTTP/1.1 501 Not Implemented\r
+            Content-Length: 0\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final byte[] REQUEST_TIMEOUT_RESPONSE = """
+            HTTP/1.1 408 Request Timeout\r
+            Content-Length: 0\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final byte[] PAYLOAD_TOO_LARGE_RESPONSE = """
+            HTTP/1.1 413 Payload Too Large\r
+            Content-Length: 0\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final byte[] SERVICE_UNAVAILABLE_RESPONSE = """
+            HTTP/1.1 503 Service Unavailable\r
+            Content-Length: 0\r
+            Retry-After: 1\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final String TOO_MANY_REQUESTS_RESPONSE = """
+            HTTP/1.1 429 Too Many Requests\r
+            Content-Length: 0\r
+            Retry-After: %d\r
+            Connection: close\r
+            \r
+            """;
+    private static final String NOT_MODIFIED_RESPONSE = """
+            HTTP/1.1 304 Not Modified\r
+            ETag: %s\r
+            %sConnection: close\r
+            \r
+            """;
+    private static final byte[] SERVER_ERROR_RESPONSE = """
+            HTTP/1.1 500 Internal Server Error\r
+            Content-Length: 0\r
+            Connection: close\r
+            \r
+            """.getBytes();
+    private static final byte[] SWITCHING_TO_H2C_RESPONSE = """
+            HTTP/1.1 101 Switching Protocols\r
+            Connection: Upgrade\r
+            Upgrade: h2c\r
+            \r
+            """.getBytes();
 
-    private final ExecutorService connections;
+    private final int poolSize;
+    private int workerQueue = 0;            // 0 — очередь к рабочим не ограничена
+    /**
+     * Группы рабочих потоков, по одной на приёмщика.
+     */
+    private volatile ExecutorService[] workerGroups = new ExecutorService[0];
     /**
      * Библиотека обработчиков по методу и ресурсу.
      */
     private final Map<String, Map<String, Handler>> handlers = new ConcurrentHashMap<>();
+    /**
+     * Обработчик запросов, для которых в библиотеке ничего нет (например, обратный прокси).
+     */
+    private volatile Handler fallbackHandler;
+    /**
+     * Ограничение частоты запросов от клиентов; {@code null} — без ограничения.
+     */
+    private volatile RateLimiter rateLimiter;
+    /**
+     * Адаптивный предел одновременно обслуживаемых подключений; {@code null} — число рабочих постоянно.
+     */
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    /**
+     * Запись входящих запросов для воспроизведения; {@code null} — не записываются.
+     */
+    private volatile TrafficCapture trafficCapture;
+    /**
+     * Темы серверных событий по пути подписки.
+     */
+    private final Map<String, EventTopic> eventStreams = new ConcurrentHashMap<>();
+    /**
+     * Обработчики WebSocket по пути подключения и открытые сессии.
+     */
+    private final Map<String, WebSocketHandler> webSockets = new ConcurrentHashMap<>();
+    private final Set<WebSocketSession> webSocketSessions = ConcurrentHashMap.newKeySet();
+    private int webSocketMaxMessage = 1024 * 1024;
+    private Duration webSocketPingInterval = Duration.ofSeconds(30);
+    /**
+     * Соединения HTTP/2 без шифрования (h2c): включены ли, их ограничения и открытые соединения.
+     */
+    private boolean http2 = false;
+    private int http2MaxStreams = 100;
+    private Duration http2IdleTimeout = Duration.ofSeconds(60);
+    private final Set<Http2Connection> http2Connections = ConcurrentHashMap.newKeySet();
+    /**
+     * Потоки, в которых отрабатываются запросы из соединений HTTP/2.
+     */
+    private volatile ExecutorService http2Workers;
     private String public_dir;
+    /**
+     * Кэш ответов для обработчиков, добавленных с правилом кэширования.
+     */
+    private ResponseCache responseCache = new ResponseCache(32 * 1024 * 1024, 4096);
+    /**
+     * Сведения о файлах публичной директории.
+     */
+    private ResourceCache resources;
+    /**
+     * Пакет статических ресурсов, отображённый в память; {@code null} — ресурсы читаются из директории.
+     */
+    private volatile AssetBundle assetBundle;
+    /**
+     * Ограничения размера тела запроса; проверяются до чтения тела.
+     */
+    private final RequestLimits limits = new RequestLimits(10 * 1024 * 1024);
 
     private int server_port = 9999;         // на всякий значение по умолчанию
+    private int acceptors = 1;
+    private boolean reusePort = true;
+    private int backlog = 50;               // как у ServerSocket по умолчанию
+    private int fileChunkSize = 64 * 1024;
+    /**
+     * Порт, на котором сервер фактически слушает (отличается от заданного, если задан 0).
+     */
+    private volatile int local_port = -1;
+    private final CountDownLatch listening = new CountDownLatch(1);
+    private final List<ServerSocketChannel> listeners = new ArrayList<>();
+    /**
+     * Приём подключений по TLS: настройки, порт и слушающий канал; без настроек — не принимаются.
+     */
+    private TlsContext tls;
+    private int tlsPort = 9443;
+    private volatile int local_tls_port = -1;
+    private ServerSocketChannel tlsListener;
+    /**
+     * Подключения, которые сейчас обслуживаются рабочими потоками.
+     */
+    private final Map<Socket, ConnectionState> active = new ConcurrentHashMap<>();
+    /**
+     * Принятые подключения, ещё ждущие рабочего потока в очереди группы.
+     */
+    private final Set<Socket> queued = ConcurrentHashMap.newKeySet();
+    private volatile boolean draining = false;
+    /**
+     * Срок плавной остановки вышел: что ещё открыто, обрывается и в завершённые не входит.
+     */
+    private volatile boolean drainCutOff = false;
+    private final AtomicInteger drainCompleted = new AtomicInteger();
+
+    private Duration headerTimeout = Duration.ofSeconds(15);
+    private Duration bodyReadTimeout = Duration.ofSeconds(30);
+    private Duration writeTimeout = Duration.ofSeconds(30);
+    private long minBodyRate = 512;                         // байт в секунду
+    private Duration minBodyRateGrace = Duration.ofSeconds(5);
+    /**
+     * Сторож, закрывающий подключения, запись в которые зависла дольше допустимого.
+     */
+    private ScheduledExecutorService writeWatchdog;
+    /**
+     * С какой длительности запрос выводится в мониторинг как медленный (0 — не выводится).
+     */
+    private Duration slowRequestThreshold = Duration.ZERO;
+    /**
+     * Ответы об ошибках, выбираемые вместо обработчика.
+     */
+    private final Handler notFoundHandler = (request, out) -> notFoundResponse(out);
+    private final Handler notImplementedHandler = (request, out) -> notImplementedResponse(out);
 
     /**
      * Создаёт новый Сервер с указанной степенью параллельности и значением публичной директории.
@@ -38,7 +237,8 @@ public class Server extends Thread {
      */
     public Server(int poolSize, String public_dir) {
         this.public_dir = public_dir;
-        connections = Executors.newFixedThreadPool(poolSize);
+        this.poolSize = poolSize;
+        this.resources = new ResourceCache(public_dir, new MimeTypes(), Duration.ofSeconds(2), 10_000);
     }
 
     /**
@@ -49,91 +249,587 @@ public class Server extends Thread {
      * @param server_port  номер порта, на котором будет слушать.
      */
     public Server(int poolSize, String public_dir, int server_port) {
-        this.public_dir = public_dir;
-        connections = Executors.newFixedThreadPool(poolSize);
+        this(poolSize, public_dir);
         this.server_port = server_port;
     }
 
+    /**
+     * Создаёт новый Сервер по настройкам.
+     * @param config настройки сервера.
+     */
+    public Server(ServerConfig config) {
+        this(config.getWorkers(), config.getPublicDir(), config.getPort());
+        setWorkerQueue(config.getWorkerQueue());
+        setAcceptors(config.getAcceptors(), config.isReusePort());
+        setBacklog(config.getBacklog());
+        setMaxHeaderSize(config.getMaxHeaderSize());
+        setMaxBodySize(config.getMaxBodySize());
+        setTimeouts(config.getHeaderTimeout(), config.getBodyReadTimeout(), config.getWriteTimeout());
+        setMinBodyRate(config.getMinBodyRate(), config.getMinBodyRateGrace());
+        setFileChunkSize(config.getFileChunkSize());
+        setResponseCache(new ResponseCache(config.getResponseCacheBytes(), config.getResponseCacheEntries()));
+        setResources(new ResourceCache(config.getPublicDir(), new MimeTypes(),
+                config.getResourceRevalidate(), config.getResourceCacheEntries()));
+        setWebSocketLimits(config.getWebSocketMaxMessage(), config.getWebSocketPingInterval());
+        setHttp2(config.isHttp2(), config.getHttp2MaxConcurrentStreams(), config.getHttp2IdleTimeout());
+        setSlowRequestThreshold(config.getSlowRequestThreshold());
+        if (!config.getRateLimit().isUnlimited() || !config.getRateLimitRoutes().isEmpty()) {
+            final var limiter = new RateLimiter(config.getRateLimit());
+            config.getRateLimitRoutes().forEach(limiter::limitRoute);
+            setRateLimiter(limiter);
+        }
+        if (config.isAdaptiveWorkers())
+            setConcurrencyLimiter(new ConcurrencyLimiter(config.getWorkers(),
+                    config.getMinWorkers(), config.getMaxWorkers()));
+    }
+
     /**
      * Начинает слушать входящие подключения на указанном порту.
      */
     @Override
     public void run() {
-        try (final var serverSocket = new ServerSocket(server_port)) {
-            while (!interrupted()) {
-                final var socket = serverSocket.accept();
-                connections.submit(() -> handleConnection(socket));
+        final List<Thread> acceptorThreads = new ArrayList<>();
+        try {
+            openListeners();
+            local_port = listeners.get(0).socket().getLocalPort();
+            if (tlsListener != null) local_tls_port = tlsListener.socket().getLocalPort();
+            listening.countDown();
+
+            // рабочие потоки и очередь делятся между приёмщиками поровну (с округлением вверх)
+            final var limiter = concurrencyLimiter;
+            final var groups = new ExecutorService[acceptors];
+            final int groupSize = groupSize(limiter == null ? poolSize : limiter.getLimit());
+            final int groupQueue = (workerQueue + acceptors - 1) / acceptors;
+            for (int i = 0; i < acceptors; i++)
+                // при адаптивном пределе лишнее отклоняется ещё при приёме, очередь не ограничивается
+                groups[i] = workerQueue == 0 || limiter != null ?
+                        new ThreadPoolExecutor(groupSize, groupSize, 0, TimeUnit.MILLISECONDS,
+                                new LinkedBlockingQueue<>()) :
+                        new ThreadPoolExecutor(groupSize, groupSize, 0, TimeUnit.MILLISECONDS,
+                                new ArrayBlockingQueue<>(groupQueue));
+            workerGroups = groups;
+            if (limiter != null) {
+                limiter.setListener(this::resizeWorkerGroups);
+                registerMBean(limiter);
+            }
+            // очередь потоков HTTP/2 ограничена: сверх неё соединение отклоняет поток (REFUSED_STREAM)
+            if (http2)
+                http2Workers = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(workerQueue > 0 ? workerQueue : poolSize * http2MaxStreams), r -> {
+                    final var thread = new Thread(r, getName() + "-h2-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            startWriteWatchdog();
+
+            for (int i = 0; i < acceptors; i++) {
+                final var channel = listeners.get(i % listeners.size());
+                final var group = groups[i];
+                final var acceptor = new Thread(() -> acceptLoop(channel, group, null), getName() + "-acceptor-" + i);
+                acceptor.start();
+                acceptorThreads.add(acceptor);
             }
+            if (tlsListener != null) {
+                // h2 предлагается через ALPN, только если HTTP/2 включён
+                final var protocols = http2 ? List.of("h2", "http/1.1") : List.of("http/1.1");
+                for (int i = 0; i < acceptors; i++) {
+                    final var group = groups[i];
+                    final var acceptor = new Thread(() -> acceptLoop(tlsListener, group, protocols),
+                            getName() + "-tls-acceptor-" + i);
+                    acceptor.start();
+                    acceptorThreads.add(acceptor);
+                }
+            }
+            for (Thread acceptor : acceptorThreads)
+                acceptor.join();
+
         } catch (IOException e) {
             System.out.println("Прослушивание порта завершилось: " + e.getMessage());
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            System.out.println("Сервер остановлен");
+        } finally {
+            listening.countDown();
+            closeListeners();
+            for (Thread acceptor : acceptorThreads)
+                acceptor.interrupt();
+        }
+        if (concurrencyLimiter != null) unregisterMBean();
+        // при плавной остановке рабочими группами и сторожем распоряжается drain()
+        if (!draining) {
+            for (ExecutorService group : workerGroups)
+                group.shutdownNow();
+            if (http2Workers != null) http2Workers.shutdownNow();
+            stopWriteWatchdog();
         }
-            connections.shutdownNow();
     }
 
     /**
-     * Обрабатывает входящее подключение: считывает поток, формирует из него запрос
-     * и затем обрабатывает этот запрос согласно установленным правилам.
-     *
-     * @param socket обрабатываемое подключение.
+     * Число рабочих потоков в группе одного приёмщика.
+     * @param total общее число рабочих.
+     * @return доля группы с округлением вверх.
      */
-    private void handleConnection(Socket socket) {
-        System.out.println("HANDLING " + socket.getRemoteSocketAddress());  // мониторинг
-        try (socket;
-             final var in = socket.getInputStream();
-             final var out = socket.getOutputStream()) {
+    private int groupSize(int total) {
+        return Math.max(1, (total + acceptors - 1) / acceptors);
+    }
 
+    /**
+     * Подгоняет число рабочих потоков под новый адаптивный предел. Лишние потоки
+     * завершаются, доработав текущее подключение. Пул потоков HTTP/2 не делится
+     * между приёмщиками и получает предел целиком.
+     * @param limit новый предел одновременно обслуживаемых подключений и потоков HTTP/2.
+     */
+    private void resizeWorkerGroups(int limit) {
+        final int size = groupSize(limit);
+        for (ExecutorService group : workerGroups)
+            resize((ThreadPoolExecutor) group, size);
+        if (http2Workers != null) resize((ThreadPoolExecutor) http2Workers, limit);
+    }
 
-            final var request = Request.fromInputStream(in);
-            final var method = request.getMethod();
-            final var path = request.getPath();
+    private static void resize(ThreadPoolExecutor pool, int size) {
+        // максимум не может быть меньше основного размера, поэтому порядок зависит от направления
+        if (size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
 
-            // запрос GET по неспецифицированному пути (поведение по умолчанию)
-            if ("GET".equals(method) &&
-                    !isSpecified(method, path)) {
+    private ObjectName limiterName() throws MalformedObjectNameException {
+        return new ObjectName("ru.netology:type=ConcurrencyLimiter,name=" + ObjectName.quote(getName()));
+    }
+
+    /**
+     * Публикует показатели адаптивного предела через JMX.
+     * @param limiter адаптивный предел.
+     */
+    private void registerMBean(ConcurrencyLimiter limiter) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(limiter, limiterName());
+        } catch (JMException e) {
+            System.out.println("MBEAN_ERROR");
+            e.printStackTrace();
+        }
+    }
 
-                final var filePath = Path.of(".", public_dir, path);
+    private void unregisterMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(limiterName());
+        } catch (JMException e) {
+            // не был опубликован
+        }
+    }
 
-                if (Files.isRegularFile(filePath)) {
-                    generalHandler.handle(request, out);
-                } else {
-                    notFoundResponse(out);
+    /**
+     * Запускает периодическую проверку зависших записей в ответ.
+     */
+    private void startWriteWatchdog() {
+        if (writeTimeout.isZero()) return;
+        writeWatchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, getName() + "-write-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = Math.max(50, Math.min(1000, writeTimeout.toMillis() / 4));
+        writeWatchdog.scheduleAtFixedRate(() -> {
+            final long now = System.nanoTime();
+            for (ConnectionState state : active.values())
+                if (state.isWriteStuck(now, writeTimeout.toNanos())) {
+                    System.out.println("WRITE_TIMEOUT " + state.describe());   // мониторинг
+                    state.drop();
                 }
-            }
+            // соединения HTTP/2 отцеплены от рабочих потоков, их запись проверяется отдельно
+            for (Http2Connection connection : http2Connections)
+                if (connection.isWriteStuck(now, writeTimeout.toNanos())) {
+                    System.out.println("WRITE_TIMEOUT " + connection);   // мониторинг
+                    connection.close();
+                }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
 
-            // неизвестный метод
-            if (handlers.get(method) == null &&
-                    !isAllowed(method)) {
-                notImplementedResponse(out);
-                return;
+    private void stopWriteWatchdog() {
+        if (writeWatchdog != null) writeWatchdog.shutdownNow();
+    }
+
+    /**
+     * Открывает слушающие каналы: по одному на приёмщика при {@code SO_REUSEPORT}
+     * или один общий канал, если режим выключен или не поддерживается платформой.
+     * @throws IOException если порт открыть не удалось.
+     */
+    private void openListeners() throws IOException {
+        final var first = ServerSocketChannel.open();
+        final boolean shareable = acceptors > 1 && reusePort &&
+                first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        synchronized (listeners) {
+            listeners.add(first);
+            if (shareable) first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            first.bind(new InetSocketAddress(server_port), backlog);
+            final int port = first.socket().getLocalPort();
+            for (int i = 1; shareable && i < acceptors; i++) {
+                final var channel = ServerSocketChannel.open();
+                listeners.add(channel);
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channel.bind(new InetSocketAddress(port), backlog);
+            }
+        }
+        if (acceptors > 1 && !shareable)
+            System.out.println("SO_REUSEPORT недоступен: приёмщики делят один канал");
+        if (tls != null) {
+            synchronized (listeners) {
+                tlsListener = ServerSocketChannel.open();
+                tlsListener.bind(new InetSocketAddress(tlsPort), backlog);
             }
+        }
+    }
 
-            // обработка по методу и пути из библиотеки
-            handlers.get(method).get(path).handle(request, out);
+    /**
+     * Цикл приёмщика: принимает подключения из канала и передаёт их своей группе рабочих.
+     * Подключения к порту TLS оборачиваются в {@link TlsSocket}; рукопожатие выполнит рабочий поток.
+     * @param channel      слушающий канал.
+     * @param group        группа рабочих потоков этого приёмщика.
+     * @param tlsProtocols протоколы ALPN для порта TLS; {@code null} — канал без шифрования.
+     */
+    private void acceptLoop(ServerSocketChannel channel, ExecutorService group, List<String> tlsProtocols) {
+        try {
+            while (!Thread.currentThread().isInterrupted() && !isInterrupted()) {
+                final var accepted = channel.accept().socket();
+                final Socket socket;
+                try {
+                    socket = tlsProtocols == null ? accepted : tls.wrap(accepted, tlsProtocols);
+                } catch (IOException e) {
+                    System.out.println("TLS_ERROR " + accepted.getRemoteSocketAddress() + ": " + e.getMessage());
+                    try {
+                        accepted.close();
+                    } catch (IOException ignored) {
+                        // клиент уже ушёл
+                    }
+                    continue;
+                }
+                final var limiter = concurrencyLimiter;
+                if (limiter != null && !limiter.tryAcquire()) {
+                    rejectOverloaded(socket);
+                    continue;
+                }
+                final var trace = new RequestTrace(socket, slowRequestThreshold.toNanos());
+                queued.add(socket);
+                try {
+                    group.submit(() -> handleConnection(socket, trace));
+                } catch (RejectedExecutionException e) {
+                    queued.remove(socket);
+                    if (limiter != null) limiter.release();
+                    rejectOverloaded(socket);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // канал закрыт при остановке сервера
+        } catch (IOException e) {
+            System.out.println("Приёмщик завершился: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * Отказывает подключению, для которого нет места в очереди к рабочим потокам
+     * или которое превышает адаптивный предел.
+     * Ответ короткий и помещается в буфер сокета, поэтому приёмщик на нём не задерживается.
+     * @param socket подключение.
+     */
+    private void rejectOverloaded(Socket socket) {
+        System.out.println("OVERLOADED " + socket.getRemoteSocketAddress());  // мониторинг
+        try (socket) {
+            // ответ по TLS потребовал бы рукопожатия в потоке приёмщика, такое подключение просто закрывается
+            if (!(socket instanceof TlsSocket)) serviceUnavailableResponse(socket.getOutputStream());
         } catch (IOException e) {
+            // клиент уже ушёл
+        }
+    }
+
+    private void closeListeners() {
+        synchronized (listeners) {
+            final List<ServerSocketChannel> channels = new ArrayList<>(listeners);
+            if (tlsListener != null) channels.add(tlsListener);
+            for (ServerSocketChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.out.println("LISTENER_CLOSE_ERROR");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Обрабатывает входящее подключение: считывает поток, формирует из него запрос
+     * и затем обрабатывает этот запрос согласно установленным правилам.
+     *
+     * @param socket обрабатываемое подключение.
+     * @param trace  хронометраж подключения.
+     */
+    private void handleConnection(Socket socket, RequestTrace trace) {
+        // подключение оборвано при остановке сервера, пока ждало в очереди
+        if (!queued.remove(socket)) {
+            if (concurrencyLimiter != null) concurrencyLimiter.release();
+            return;
+        }
+        trace.started();
+        System.out.println("HANDLING " + socket.getRemoteSocketAddress());  // мониторинг
+        final var state = new ConnectionState(socket, trace);
+        active.put(socket, state);
+        final var capture = trafficCapture;
+        TrafficCapture.Tee captured = null;
+        // подключение закрывается в finally, если его не забрал долгоживущий обработчик
+        try {
+            final InputStream tracked = state.track(socket.getInputStream());
+            if (capture != null) captured = capture.tee(tracked);
+            final var in = new SlowClientGuard(socket, captured == null ? tracked : captured,
+                    headerTimeout.toMillis(), (int) bodyReadTimeout.toMillis(),
+                    minBodyRate, minBodyRateGrace.toMillis());
+            final var out = state.track(socket.getOutputStream());
+            // ответ об ошибке пишется, пока подключение ещё открыто
             try {
+                processRequest(state, in, out);
+            } catch (PayloadTooLargeException e) {
+                if (state.dropped) return;
+                System.out.println("PAYLOAD_TOO_LARGE " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                payloadTooLargeResponse(out);
+            } catch (SocketTimeoutException e) {
+                if (state.dropped) return;
+                System.out.println("REQUEST_TIMEOUT " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                requestTimeoutResponse(out);
+            } catch (SSLException e) {
+                // рукопожатие не удалось (клиент не доверяет сертификату и т. п.): отвечать некуда
+                if (state.dropped) return;
+                System.out.println("TLS_ERROR " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            } catch (IOException e) {
+                if (state.dropped) return;  // подключение закрыто при остановке сервера или сторожем
                 System.out.println("HANDLE_ERROR");
                 e.printStackTrace();
                 if ("Invalid request".equals(e.getMessage())) {
-                    badRequestResponse(socket.getOutputStream());
+                    badRequestResponse(out);
                 } else {
-                    serverErrorResponse(socket.getOutputStream());
+                    serverErrorResponse(out);
                 }
-            } catch (IOException ex) {
-                System.out.println("ERROR_RESPONSE_ERROR");
-                ex.printStackTrace();
+            } catch (NumberFormatException e) {
+                System.out.println("HANDLE_ERROR");
+                e.printStackTrace();
+                badRequestResponse(out);
             }
-        } catch (NumberFormatException e) {
-            System.out.println("HANDLE_ERROR");
+        } catch (SSLException e) {
+            // таймаут во время рукопожатия: ответ 408 по TLS уже не отправить
+            if (state.dropped) return;
+            System.out.println("TLS_ERROR " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+        } catch (IOException e) {
+            if (state.dropped) return;
+            System.out.println("ERROR_RESPONSE_ERROR");
             e.printStackTrace();
+        } finally {
+            active.remove(socket);
+            trace.completed();
+            // при остановке считаются запросы, обслуженные целиком; соединения HTTP/2 — при закрытии
+            if (draining && !state.dropped && !state.detached && state.requestLine != null)
+                drainCompleted.incrementAndGet();
+            if (captured != null) {
+                captured.stop();
+                if (!state.detached) capture.record(captured, trace);
+            }
+            final var limiter = concurrencyLimiter;
+            if (limiter != null) {
+                // долгоживущие подключения и оборванные до обработчика в задержку не входят
+                final long service = trace.serviceNanos();
+                if (state.detached || service < 0) limiter.release();
+                else limiter.release(service);
+            }
+            if (!state.detached) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    System.out.println("CLOSE_ERROR");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Считывает запрос из подключения и отрабатывает его согласно установленным правилам.
+     * @param state состояние подключения.
+     * @param in    входной поток подключения.
+     * @param out   выходной поток подключения.
+     * @throws IOException при нерабочем запросе или ошибке связи.
+     */
+    private void processRequest(ConnectionState state, InputStream in, OutputStream out) throws IOException {
+        final var request = Request.fromInputStream(in, out, limits, state.trace);
+        try {
+            dispatch(state, request, out);
+        } finally {
+            // тело запроса лежит в буфере из пула
+            request.release();
+        }
+    }
+
+    /**
+     * Отрабатывает разобранный запрос согласно установленным правилам.
+     * @param state   состояние подключения.
+     * @param request разобранный запрос.
+     * @param out     выходной поток подключения.
+     * @throws IOException при ошибке обработки или связи.
+     */
+    private void dispatch(ConnectionState state, Request request, OutputStream out) throws IOException {
+        final var method = request.getMethod();
+        final var path = request.getPath();
+        state.requestLine = method + " " + request.getOriginalPath();
+
+        // ограничение частоты: лишние запросы клиента отклоняются до выбора обработчика
+        final var limiter = rateLimiter;
+        if (limiter != null) {
+            final long retryAfter = limiter.acquire(state.socket.getInetAddress(), path);
+            if (retryAfter > 0) {
+                System.out.println("RATE_LIMITED " + state.socket.getRemoteSocketAddress() + " " + state.requestLine);   // мониторинг
+                state.trace.dispatched("rate-limited");
+                tooManyRequestsResponse(out, retryAfter);
+                return;
+            }
+        }
+
+        // HTTP/2 с заранее известным протоколом: подключение переходит к соединению h2c
+        if (http2 && request.isHttp2Preface()) {
+            state.trace.dispatched("h2c");
+            startHttp2(state, newHttp2Connection(state.socket, request.getBodyBytes(), false), null);
+            return;
+        }
+        // обновление до h2c: запрос становится первым потоком соединения HTTP/2
+        if (http2 && !(state.socket instanceof TlsSocket) && isH2cUpgrade(request)) {
+            state.trace.dispatched("h2c");
+            final var connection = newHttp2Connection(state.socket, new byte[0], true);
             try {
-                badRequestResponse(socket.getOutputStream());
-            } catch (IOException ex) {
-                System.out.println("ERROR_RESPONSE_ERROR");
-                ex.printStackTrace();
+                connection.applyUpgradeSettings(request.getHeader("HTTP2-Settings").orElseThrow());
+            } catch (IllegalArgumentException e) {
+                badRequestResponse(out);
+                return;
             }
+            out.write(SWITCHING_TO_H2C_RESPONSE);
+            out.flush();
+            startHttp2(state, connection, request);
+            return;
+        }
+
+        // обновление до WebSocket: подключение переходит к сессии, поток освобождается
+        final var webSocket = webSockets.get(path);
+        if (GET.equals(method) && webSocket != null) {
+            state.trace.dispatched("websocket");
+            if (!WebSocketSession.handshake(request, out)) return;
+            final var session = new WebSocketSession(state.socket, webSocket, path,
+                    webSocketMaxMessage, webSocketPingInterval.toMillis(), writeTimeout.toMillis());
+            state.detached = true;
+            webSocketSessions.add(session);
+            session.start(() -> webSocketSessions.remove(session));
+            return;
         }
+
+        // подписка на поток событий: подключение остаётся открытым за темой, поток освобождается
+        final var topic = eventStreams.get(path);
+        if (GET.equals(method) && topic != null) {
+            state.trace.dispatched("events");
+            topic.subscribe(request, out);
+            state.detached = true;
+            return;
+        }
+
+        respond(request, out, state.trace);
+    }
+
+    /**
+     * Отвечает на запрос обработчиком из библиотеки или поведением по умолчанию.
+     * Так же отрабатываются запросы, пришедшие по HTTP/2.
+     * @param request разобранный запрос.
+     * @param out     куда писать ответ.
+     * @throws IOException при ошибке обработки или связи.
+     */
+    private void respond(Request request, OutputStream out) throws IOException {
+        respond(request, out, null);
+    }
+
+    /**
+     * Выбирает, чем ответить на запрос, отмечает выбор в хронометраже и отвечает.
+     * @param request разобранный запрос.
+     * @param out     куда писать ответ.
+     * @param trace   хронометраж подключения; {@code null} для запросов HTTP/2.
+     * @throws IOException при ошибке обработки или связи.
+     */
+    private void respond(Request request, OutputStream out, RequestTrace trace) throws IOException {
+        final var method = request.getMethod();
+        final var path = request.getPath();
+        final Handler handler;
+        final String route;
+
+        final var fallback = fallbackHandler;
+        if (fallback != null && !isSpecified(method, path)) {
+            // всё незарегистрированное, с любым методом, уходит запасному обработчику
+            handler = fallback;
+            route = "fallback";
+        } else if ("GET".equals(method) &&
+                !isSpecified(method, path)) {
+            // запрос GET по неспецифицированному пути (поведение по умолчанию)
+            final boolean exists = resolve(path).exists();
+            handler = exists ? generalHandler : notFoundHandler;
+            route = exists ? "static" : "not-found";
+        } else if (handlers.get(method) == null &&
+                !isAllowed(method)) {
+            // неизвестный метод
+            handler = notImplementedHandler;
+            route = "not-implemented";
+        } else if (!isSpecified(method, path)) {
+            // известный метод, но ресурс для него не зарегистрирован
+            handler = notFoundHandler;
+            route = "not-found";
+        } else {
+            // обработка по методу и пути из библиотеки
+            handler = handlers.get(method).get(path);
+            route = "handler";
+        }
+
+        if (trace != null) trace.dispatched(route);
+        handler.handle(request, out);
+    }
+
+    /**
+     * Сообщает, просит ли клиент обновить подключение до h2c. Запросы с телом не обновляются
+     * (тело лежит в буфере подключения HTTP/1.1) и обслуживаются как обычно.
+     * @param request разобранный запрос.
+     * @return true, если подключение можно передать соединению HTTP/2.
+     */
+    private boolean isH2cUpgrade(Request request) {
+        if (request.getBodyLength() > 0 || request.getHeaderValues("HTTP2-Settings").size() != 1) return false;
+        final var upgrade = request.getHeader("Upgrade");
+        if (upgrade.isEmpty()) return false;
+        for (String protocol : upgrade.get().split(","))
+            if ("h2c".equalsIgnoreCase(protocol.trim())) return true;
+        return false;
+    }
+
+    private Http2Connection newHttp2Connection(Socket socket, byte[] leftover, boolean prefaceExpected)
+            throws IOException {
+        // WebSocket и потоки событий держат подключение целиком и по HTTP/2 не обслуживаются
+        final var connection = new Http2Connection(socket, leftover, prefaceExpected, this::respond,
+                request -> webSockets.containsKey(request.getPath()) || eventStreams.containsKey(request.getPath()),
+                limits, http2Workers, http2MaxStreams, http2IdleTimeout.toMillis());
+        connection.setRateLimiter(rateLimiter);
+        connection.setConcurrencyLimiter(concurrencyLimiter);
+        connection.setWriteTimeout(writeTimeout);
+        return connection;
+    }
+
+    private void startHttp2(ConnectionState state, Http2Connection connection, Request upgrade) {
+        System.out.println("HTTP2 " + state.socket.getRemoteSocketAddress());     // мониторинг
+        state.detached = true;
+        http2Connections.add(connection);
+        connection.start(upgrade, () -> {
+            if (http2Connections.remove(connection) && draining && !drainCutOff)
+                drainCompleted.incrementAndGet();
+        });
     }
 
     /**
@@ -141,20 +837,102 @@ public class Server extends Thread {
      * обработка которых в Библиотеке не специфицирована.
      */
     public final Handler generalHandler = (request, responseStream) -> {
-        final var filePath = Path.of(".", public_dir, request.getPath());
+        final var bundle = assetBundle;
+        final var asset = bundle == null ? null : bundle.find(request.getPath());
+        if (asset != null) {
+            serveAsset(asset, request, responseStream);
+            return;
+        }
+        final var resource = resolve(request.getPath());
+        try (FileChannel file = FileChannel.open(resource.getPath());
+             PooledBuffer chunk = BufferPool.heap().acquire(fileChunkSize)) {
+            // сведения в кэше могли устареть: длину берём у открытого файла и отдаём ровно её
+            final long size = file.size();
+            if (size != resource.getSize()) resources.invalidate(request.getPath());
+            responseStream.write((
+                    ("""
+                            HTTP/1.1 200 OK\r
+                            Content-Type: %s\r
+                            Content-Length: %d\r
+                            Connection: close\r
+                            \r
+                            """).formatted(resource.getMimeType(), size)
+            ).getBytes());
+            final var buffer = chunk.buffer();
+            long remaining = size;
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                // файл укоротили во время отправки — обещанную длину уже не выполнить, обрываем ответ
+                if (file.read(buffer) < 0) throw new IOException("File truncated while sending: " + resource.getPath());
+                responseStream.write(chunk.array(), 0, buffer.position());
+                remaining -= buffer.position();
+            }
+        }
+        responseStream.flush();
+    };
+
+    /**
+     * Отдаёт ресурс из пакета: сжатый вариант — клиентам, принимающим gzip,
+     * а при совпадении ETag из {@code If-None-Match} — 304 без тела.
+     * @param asset          ресурс пакета.
+     * @param request        запрос.
+     * @param responseStream куда писать ответ.
+     * @throws IOException при ошибке связи.
+     */
+    private void serveAsset(AssetBundle.Asset asset, Request request, OutputStream responseStream)
+            throws IOException {
+        final var compressed = asset.getGzipContent();
+        final boolean gzip = compressed != null && acceptsGzip(request);
+        final var etag = asset.getETag(gzip);
+        // у ресурса со сжатым вариантом ответ зависит от Accept-Encoding
+        final var vary = compressed != null ? "Vary: Accept-Encoding\r\n" : "";
+        if (matchesETag(request.getHeader("If-None-Match").orElse(null), etag)) {
+            responseStream.write(NOT_MODIFIED_RESPONSE.formatted(etag, vary).getBytes());
+            responseStream.flush();
+            return;
+        }
+        final var body = gzip ? compressed : asset.getContent();
         responseStream.write((
                 ("""
                         HTTP/1.1 200 OK\r
                         Content-Type: %s\r
                         Content-Length: %d\r
-                        Connection: close\r
+                        ETag: %s\r
+                        %s%sConnection: close\r
                         \r
-                        """).formatted(Files.probeContentType(filePath),
-                        Files.size(filePath))
+                        """).formatted(asset.getMimeType(), body.remaining(), etag,
+                        gzip ? "Content-Encoding: gzip\r\n" : "", vary)
         ).getBytes());
-        Files.copy(filePath, responseStream);
+        try (PooledBuffer chunk = BufferPool.heap().acquire(fileChunkSize)) {
+            while (body.hasRemaining()) {
+                final int n = Math.min(body.remaining(), chunk.capacity());
+                body.get(chunk.array(), 0, n);
+                responseStream.write(chunk.array(), 0, n);
+            }
+        }
         responseStream.flush();
-    };
+    }
+
+    private static boolean acceptsGzip(Request request) {
+        for (String value : request.getHeaderValues("Accept-Encoding")) {
+            for (String coding : value.split(",")) {
+                final var parts = coding.split(";");
+                if (!"gzip".equalsIgnoreCase(parts[0].trim())) continue;
+                // gzip;q=0 — явный отказ
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            final var tag = candidate.trim();
+            if ("*".equals(tag) || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) return true;
+        }
+        return false;
+    }
 
     /**
      * Добавляет в библиотеку новый обработчик.
@@ -166,6 +944,153 @@ public class Server extends Thread {
     }
 
 
+    /**
+     * Устанавливает обработчик для запросов, не найденных в библиотеке, с любым методом.
+     * Пока он задан, статические файлы, 404 и 501 по умолчанию не отдаются.
+     * @param handler запасной обработчик или null, чтобы вернуть поведение по умолчанию.
+     */
+    public void setFallbackHandler(Handler handler) {
+        this.fallbackHandler = handler;
+    }
+
+    /**
+     * Добавляет в библиотеку обработчик, ответы которого кэшируются по указанному правилу.
+     * @param method метод запроса.
+     * @param path   путь ресурса.
+     * @param handler обработчик.
+     * @param policy правило кэширования.
+     */
+    public void addHandler(String method, String path, Handler handler, CachePolicy policy) {
+        addHandler(method, path, responseCache.wrap(handler, policy));
+    }
+
+    /**
+     * Заменяет кэш ответов. Действует на обработчики, добавленные после замены.
+     * @param responseCache новый кэш.
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Регистрирует по указанному пути поток серверных событий (GET, {@code text/event-stream}).
+     * Подключения подписчиков остаются открытыми и не занимают рабочих потоков.
+     * @param path  путь подписки.
+     * @param topic тема, события которой получают подписчики.
+     */
+    public void addEventStream(String path, EventTopic topic) {
+        eventStreams.put(path, topic);
+    }
+
+    /**
+     * Регистрирует по указанному пути конечную точку WebSocket (RFC 6455).
+     * Сессии читаются вне рабочих потоков сервера.
+     * @param path    путь подключения.
+     * @param handler обработчик сообщений.
+     */
+    public void addWebSocket(String path, WebSocketHandler handler) {
+        webSockets.put(path, handler);
+    }
+
+    /**
+     * Устанавливает ограничения сессий WebSocket.
+     * @param maxMessageSize наибольший размер сообщения от клиента в байтах.
+     * @param pingInterval   период отправки ping; клиент, молчащий два периода, отключается.
+     */
+    public void setWebSocketLimits(int maxMessageSize, Duration pingInterval) {
+        this.webSocketMaxMessage = maxMessageSize;
+        this.webSocketPingInterval = pingInterval;
+    }
+
+    /**
+     * Включает HTTP/2 без шифрования: с заранее известным протоколом и обновлением с HTTP/1.1.
+     * Действует, если задано до запуска сервера.
+     * @param enabled              принимать ли HTTP/2.
+     * @param maxConcurrentStreams сколько потоков клиент может держать открытыми в одном соединении.
+     * @param idleTimeout          через сколько закрывать соединение без открытых потоков (0 — не закрывать).
+     */
+    public void setHttp2(boolean enabled, int maxConcurrentStreams, Duration idleTimeout) {
+        this.http2 = enabled;
+        this.http2MaxStreams = Math.max(1, maxConcurrentStreams);
+        this.http2IdleTimeout = idleTimeout;
+    }
+
+    /**
+     * Включает приём подключений по TLS на отдельном порту (порт без шифрования продолжает работать).
+     * Действует, если задано до запуска сервера.
+     * @param tls  настройки TLS.
+     * @param port порт; 0 — любой свободный, см. {@link #awaitLocalTlsPort()}.
+     */
+    public void setTls(TlsContext tls, int port) {
+        this.tls = tls;
+        this.tlsPort = port;
+    }
+
+    /**
+     * Задаёт ограничение частоты запросов от клиентов. Проверяется для каждого запроса HTTP/1.1
+     * и для открытия соединения HTTP/2 до выбора обработчика; лишним запросам отвечается 429.
+     * @param rateLimiter ограничитель; {@code null} — без ограничения.
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Возвращает ограничение частоты запросов от клиентов.
+     * @return значение поля rateLimiter.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Задаёт адаптивный предел одновременно обслуживаемых подключений: число рабочих потоков
+     * подбирается по задержке обслуживания, а подключения сверх предела сразу получают 503.
+     * Задаётся до запуска сервера; очередь {@link #setWorkerQueue(int)} при этом не действует.
+     * @param concurrencyLimiter предел; {@code null} — число рабочих постоянно.
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Задаёт запись входящих запросов HTTP/1.1 в журнал для последующего воспроизведения
+     * ({@link TrafficReplay}). Закрывать журнал — забота вызывающего, после остановки сервера.
+     * @param trafficCapture журнал; {@code null} — не записывать.
+     */
+    public void setTrafficCapture(TrafficCapture trafficCapture) {
+        this.trafficCapture = trafficCapture;
+    }
+
+    /**
+     * Возвращает журнал записи входящих запросов.
+     * @return значение поля trafficCapture.
+     */
+    public TrafficCapture getTrafficCapture() {
+        return trafficCapture;
+    }
+
+    /**
+     * Возвращает адаптивный предел одновременно обслуживаемых подключений.
+     * @return значение поля concurrencyLimiter.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Задаёт порог медленного запроса: запросы HTTP/1.1 не короче него выводятся в мониторинг
+     * с раскладкой по фазам и записываются событием JFR.
+     * @param slowRequestThreshold длительность от приёма подключения до конца ответа; 0 — не отмечать.
+     */
+    public void setSlowRequestThreshold(Duration slowRequestThreshold) {
+        this.slowRequestThreshold = slowRequestThreshold;
+    }
+
     /**
      * Сообщает, является ли запрашиваемая пара метод-путь случаем специфицированной обработки.
      * @param method метод запроса.
@@ -183,38 +1108,262 @@ public class Server extends Thread {
 
     /**
      * Прерывает выполнение серверного потока.
+     * Закрытие слушающих каналов разблокирует приёмщиков, ждущих на порту.
      */
     public void stopServer() {
         interrupt();
-        // виртуальное подключение к серверу, чтобы разблокировать его ожидание на порту
+        closeListeners();
+        for (EventTopic topic : eventStreams.values())
+            topic.closeAll();
+        for (WebSocketSession session : webSocketSessions)
+            session.close(WebSocketSession.GOING_AWAY, "Server stopping");
+        for (Http2Connection connection : http2Connections)
+            connection.close();
+        if (http2Workers != null) http2Workers.shutdownNow();
+    }
+
+    /**
+     * Плавно останавливает сервер: перестаёт принимать подключения, сразу закрывает
+     * подключения, по которым ещё не пришло ни байта, и даёт начатым запросам
+     * завершиться в пределах отведённого срока. Запросы, не успевшие к сроку, обрываются.
+     * @param timeout сколько ждать завершения начатых запросов.
+     * @return отчёт о том, что завершилось штатно и что было оборвано.
+     */
+    public DrainReport drain(Duration timeout) {
+        final long started = System.nanoTime();
+        final long deadline = started + timeout.toNanos();
+        draining = true;
+        closeListeners();
+        // подписчики событий ничего не ждут от сервера, кроме новых событий
+        for (EventTopic topic : eventStreams.values())
+            topic.closeAll();
+        // сессиям WebSocket сообщаем кодом 1001, что сервер уходит; клиент ответит кадром закрытия
+        final int webSocketsClosed = webSocketSessions.size();
+        for (WebSocketSession session : webSocketSessions)
+            session.close(WebSocketSession.GOING_AWAY, "Server stopping");
+        // соединения HTTP/2 получают GOAWAY и дообслуживают начатые потоки
+        for (Http2Connection connection : http2Connections)
+            connection.shutdown();
+
+        int idleClosed = 0;
+        for (ConnectionState state : active.values())
+            if (state.isIdle()) {
+                state.drop();
+                idleClosed++;
+            }
+
+        final var groups = workerGroups;
+        for (ExecutorService group : groups)
+            group.shutdown();
         try {
-            new Socket(HOSTNAME, server_port).close();
-        } catch (IOException e) {
-            System.out.println("VIRTUAL_CONNECTION_ERROR");
-            e.printStackTrace();
+            for (ExecutorService group : groups)
+                group.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            while (!http2Connections.isEmpty() && System.nanoTime() < deadline)
+                Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // всё, что не успело, обрываем: прерывание не снимает блокировку на сокете, поэтому закрываем его
+        drainCutOff = true;
+        final List<String> cutOff = new ArrayList<>();
+        for (Socket socket : queued) {
+            if (!queued.remove(socket)) continue;   // рабочий поток успел его взять
+            cutOff.add(socket.getRemoteSocketAddress() + " (в очереди)");
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // клиент уже ушёл
+            }
+        }
+        for (ConnectionState state : active.values()) {
+            if (state.dropped) continue;
+            cutOff.add(state.describe());
+            state.drop();
         }
+        for (Http2Connection connection : http2Connections) {
+            cutOff.add(connection.toString());
+            connection.close();
+        }
+        if (http2Workers != null) http2Workers.shutdownNow();
+        for (ExecutorService group : groups)
+            group.shutdownNow();
+        stopWriteWatchdog();
+        interrupt();
+
+        final var report = new DrainReport(idleClosed, webSocketsClosed, drainCompleted.get(), cutOff,
+                Duration.ofNanos(System.nanoTime() - started));
+        System.out.println(report);             // мониторинг
+        return report;
     }
 
     public String getPublic_dir() {
         return public_dir;
     }
 
+    /**
+     * Выдаёт сведения о файле публичной директории по пути из запроса: из пакета ресурсов,
+     * если он задан и ресурс в нём есть, иначе через кэш сведений.
+     * @param path путь ресурса из запроса.
+     * @return сведения о файле.
+     */
+    public Resource resolve(String path) {
+        final var bundle = assetBundle;
+        if (bundle != null) {
+            final var resource = bundle.resolve(path);
+            if (resource.exists()) return resource;
+        }
+        return resources.resolve(path);
+    }
+
+    public ResourceCache getResources() {
+        return resources;
+    }
+
+    /**
+     * Задаёт пакет статических ресурсов: ресурсы из него отдаются из отображённой памяти
+     * без обращений к файловой системе, а чего в пакете нет (например, загруженного
+     * пользователями), по-прежнему ищется в публичной директории.
+     * @param assetBundle пакет; {@code null} — только директория.
+     */
+    public void setAssetBundle(AssetBundle assetBundle) {
+        this.assetBundle = assetBundle;
+    }
+
+    /**
+     * Возвращает пакет статических ресурсов.
+     * @return значение поля assetBundle.
+     */
+    public AssetBundle getAssetBundle() {
+        return assetBundle;
+    }
+
+    /**
+     * Заменяет кэш сведений о файлах (например, с другой таблицей типов или сроком перепроверки).
+     * @param resources новый кэш.
+     */
+    public void setResources(ResourceCache resources) {
+        this.resources = resources;
+    }
+
     public void setServer_port(int server_port) {
         this.server_port = server_port;
     }
 
+    /**
+     * Устанавливает число потоков-приёмщиков. Действует, если задано до запуска сервера.
+     * @param acceptors число приёмщиков (не меньше 1).
+     * @param reusePort слушать ли каждым приёмщиком свой канал через {@code SO_REUSEPORT}.
+     */
+    public void setAcceptors(int acceptors, boolean reusePort) {
+        if (acceptors < 1) throw new IllegalArgumentException("Нужен хотя бы один приёмщик");
+        this.acceptors = acceptors;
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * Устанавливает сроки чтения запроса и записи ответа. Нулевое значение снимает ограничение.
+     * @param header   за какое время должны прийти все заголовки запроса.
+     * @param bodyRead сколько можно ждать очередную порцию тела запроса.
+     * @param write    сколько может длиться одна запись в ответ.
+     */
+    public void setTimeouts(Duration header, Duration bodyRead, Duration write) {
+        this.headerTimeout = header;
+        this.bodyReadTimeout = bodyRead;
+        this.writeTimeout = write;
+    }
+
+    /**
+     * Устанавливает минимальную скорость, с которой клиент должен передавать тело запроса.
+     * @param bytesPerSecond минимальная скорость в байтах в секунду (0 — не проверять).
+     * @param grace          сколько от начала тела скорость не проверяется.
+     */
+    public void setMinBodyRate(long bytesPerSecond, Duration grace) {
+        this.minBodyRate = bytesPerSecond;
+        this.minBodyRateGrace = grace;
+    }
+
+    /**
+     * Устанавливает длину очереди ожидающих подключений на каждом слушающем канале.
+     * @param backlog длина очереди; 0 и меньше — значение системы по умолчанию.
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Устанавливает длину очереди подключений, ждущих рабочего потока (общую на все группы).
+     * Подключение, для которого места нет, сразу получает 503. Действует при запуске.
+     * @param workerQueue длина очереди; 0 — не ограничена.
+     */
+    public void setWorkerQueue(int workerQueue) {
+        this.workerQueue = Math.max(0, workerQueue);
+    }
+
+    /**
+     * Устанавливает размер порции, которой отдаются файлы.
+     * @param fileChunkSize размер в байтах.
+     */
+    public void setFileChunkSize(int fileChunkSize) {
+        this.fileChunkSize = Math.max(512, fileChunkSize);
+    }
+
+    /**
+     * Устанавливает наибольший размер строки запроса вместе с заголовками.
+     * Запрос, заголовки которого не поместились, считается некорректным.
+     * @param maxHeaderSize размер в байтах.
+     */
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        limits.setMaxHeaderSize(maxHeaderSize);
+    }
+
+    /**
+     * Устанавливает общий предел размера тела запроса. Запрос с бо́льшим Content-Length
+     * получает 413, а его тело не читается.
+     * @param maxBodySize наибольший размер тела в байтах.
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        limits.setMaxBodySize(maxBodySize);
+    }
+
+    /**
+     * Устанавливает предел размера тела для конкретных метода и пути.
+     * @param method      метод запроса.
+     * @param path        путь ресурса.
+     * @param maxBodySize наибольший размер тела в байтах.
+     */
+    public void setMaxBodySize(String method, String path, long maxBodySize) {
+        limits.setMaxBodySize(method, path, maxBodySize);
+    }
+
+    /**
+     * Дожидается, пока сервер откроет порт, и сообщает его номер.
+     * Полезно, когда сервер запущен на порту 0 и номер выбирает система.
+     * @return номер порта, на котором сервер слушает, или -1, если открыть порт не удалось.
+     * @throws InterruptedException если ожидание прервано.
+     */
+    public int awaitLocalPort() throws InterruptedException {
+        listening.await();
+        return local_port;
+    }
+
+    /**
+     * Дожидается, пока сервер откроет порты, и сообщает номер порта TLS.
+     * @return номер порта TLS или -1, если TLS не включён или порт открыть не удалось.
+     * @throws InterruptedException если ожидание прервано.
+     */
+    public int awaitLocalTlsPort() throws InterruptedException {
+        listening.await();
+        return local_tls_port;
+    }
+
     /**
      * Стандартный обработчик отсутствующего ресурса.
      * @param out   кому слать.
      * @throws IOException при невозможности отослать.
      */
     protected void notFoundResponse(OutputStream out) throws IOException {
-        out.write(("""
-                HTTP/1.1 404 Not Found\r
-                Content-Length: 0\r
-                Connection: close\r
-                \r
-                """).getBytes());
+        out.write(NOT_FOUND_RESPONSE);
         out.flush();
     }
 
@@ -224,14 +1373,7 @@ public class Server extends Thread {
      * @throws IOException при невозможности нормально отослать.
      */
     protected void badRequestResponse(OutputStream out) throws IOException {
-        out.write((
-                """
-                        HTTP/1.1 400 Bad Request\r
-                        Content-Length: 0\r
-                        Connection: close\r
-                        \r
-                        """
-        ).getBytes());
+        out.write(BAD_REQUEST_RESPONSE);
         out.flush();
     }
 
@@ -241,12 +1383,49 @@ public class Server extends Thread {
      * @throws IOException при невозможности отослать.
      */
     protected void notImplementedResponse(OutputStream out) throws IOException {
-        out.write(("""
-                HTTP/1.1 501 Not Implemented\r
-                Content-Length: 0\r
-                Connection: close\r
-                \r
-                """).getBytes());
+        out.write(NOT_IMPLEMENTED_RESPONSE);
+        out.flush();
+    }
+
+    /**
+     * Стандартный обработчик клиента, не успевшего передать запрос.
+     * @param out   куда слать.
+     * @throws IOException при невозможности отослать.
+     */
+    protected void requestTimeoutResponse(OutputStream out) throws IOException {
+        out.write(REQUEST_TIMEOUT_RESPONSE);
+        out.flush();
+    }
+
+    /**
+     * Стандартный обработчик слишком большого тела запроса.
+     * Подключение закрывается, поэтому непрочитанное тело клиенту досылать незачем.
+     * @param out   куда слать.
+     * @throws IOException при невозможности отослать.
+     */
+    protected void payloadTooLargeResponse(OutputStream out) throws IOException {
+        out.write(PAYLOAD_TOO_LARGE_RESPONSE);
+        out.flush();
+    }
+
+    /**
+     * Стандартный обработчик перегрузки: подключению нет места в очереди к рабочим потокам.
+     * @param out   куда слать.
+     * @throws IOException при невозможности отослать.
+     */
+    protected void serviceUnavailableResponse(OutputStream out) throws IOException {
+        out.write(SERVICE_UNAVAILABLE_RESPONSE);
+        out.flush();
+    }
+
+    /**
+     * Стандартный обработчик превышения частоты запросов.
+     * @param out        куда слать.
+     * @param retryAfter через сколько секунд клиенту можно повторить запрос.
+     * @throws IOException при невозможности отослать.
+     */
+    protected void tooManyRequestsResponse(OutputStream out, long retryAfter) throws IOException {
+        out.write(TOO_MANY_REQUESTS_RESPONSE.formatted(retryAfter).getBytes());
         out.flush();
     }
 
@@ -256,15 +1435,116 @@ public class Server extends Thread {
      * @throws IOException при невозможности отослать.
      */
     protected void serverErrorResponse(OutputStream out) throws IOException {
-        out.write(("""
-                HTTP/1.1 500 Internal Server Error\r
-                Content-Length: 0\r
-                Connection: close\r
-                \r
-                """).getBytes());
+        out.write(SERVER_ERROR_RESPONSE);
         out.flush();
     }
-}
 
+    /**
+     * Состояние обслуживаемого подключения, нужное для плавной остановки:
+     * пришли ли по нему данные и какой запрос обрабатывается. Через него же
+     * хронометраж узнаёт, сколько и как долго писался ответ.
+     */
+    private static class ConnectionState {
+        private final Socket socket;
+        private final RequestTrace trace;
+        private volatile boolean receiving = false;
+        private volatile boolean dropped = false;
+        /**
+         * Подключение передано долгоживущему обработчику и не закрывается по окончании запроса.
+         */
+        private volatile boolean detached = false;
+        private volatile String requestLine;
+        /**
+         * Момент начала текущей записи в ответ, 0 — запись не идёт.
+         */
+        private volatile long writeSince = 0;
 
+        ConnectionState(Socket socket, RequestTrace trace) {
+            this.socket = socket;
+            this.trace = trace;
+        }
+
+        /**
+         * Оборачивает входной поток так, чтобы отметить приход первых данных.
+         */
+        InputStream track(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) receiving = true;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) receiving = true;
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * Оборачивает выходной поток так, чтобы отметить, когда началась текущая запись.
+         */
+        OutputStream track(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    final long since = System.nanoTime();
+                    writeSince = since;
+                    try {
+                        out.write(b);
+                    } finally {
+                        writeSince = 0;
+                    }
+                    trace.written(b, System.nanoTime() - since);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    final long since = System.nanoTime();
+                    writeSince = since;
+                    try {
+                        out.write(b, off, len);
+                    } finally {
+                        writeSince = 0;
+                    }
+                    trace.written(b, off, len, System.nanoTime() - since);
+                }
+            };
+        }
+
+        boolean isWriteStuck(long now, long timeout) {
+            final long since = writeSince;
+            return since != 0 && now - since > timeout;
+        }
+
+        /**
+         * Простаивающее подключение — то, по которому ещё не пришло ни байта.
+         */
+        boolean isIdle() {
+            if (receiving) return false;
+            try {
+                return socket.getInputStream().available() == 0;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        void drop() {
+            dropped = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // уже не важно
+            }
+        }
 
+        String describe() {
+            return socket.getRemoteSocketAddress() + " " +
+                    (requestLine != null ? requestLine : "(запрос ещё не прочитан)");
+        }
+    }
+}
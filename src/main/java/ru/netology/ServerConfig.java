@@ -0,0 +1,1424 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Настройки Сервера, собираемые построителем.
+ * <p>
+ * Значения можно задать в коде, в файле свойств и в системных свойствах JVM
+ * ({@code -Dserver.port=8080}); каждый следующий источник перекрывает предыдущий.
+ * Ключи свойств перечислены у методов построителя. Длительности задаются числом с единицей
+ * ({@code 500ms}, {@code 15s}, {@code 2m}, {@code 1h}) или в формате ISO-8601, число без единицы —
+ * миллисекунды. Размеры — числом байт или с суффиксом {@code k}, {@code m}, {@code g}.
+ * <p>
+ * Политики keep-alive нет: Сервер отвечает с {@code Connection: close} и закрывает подключение
+ * после каждого ответа.
+ */
+public class ServerConfig {
+    private final int port;
+    private final String publicDir;
+    private final int workers;
+    private final int workerQueue;
+    private final boolean adaptiveWorkers;
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final int acceptors;
+    private final boolean reusePort;
+    private final int backlog;
+    private final int maxHeaderSize;
+    private final long maxBodySize;
+    private final long minBodyRate;
+    private final Duration minBodyRateGrace;
+    private final Duration headerTimeout;
+    private final Duration bodyReadTimeout;
+    private final Duration writeTimeout;
+    private final int fileChunkSize;
+    private final long responseCacheBytes;
+    private final int responseCacheEntries;
+    private final Duration resourceRevalidate;
+    private final int resourceCacheEntries;
+    private final Path bundle;
+    private final boolean bundlePack;
+    private final boolean bundleGzip;
+    private final int webSocketMaxMessage;
+    private final Duration webSocketPingInterval;
+    private final boolean http2;
+    private final int http2MaxConcurrentStreams;
+    private final Duration http2IdleTimeout;
+    private final List<String> proxyBackends;
+    private final String proxyBalancing;
+    private final int proxyMaxConnections;
+    private final Duration proxyTimeout;
+    private final String proxyHealthPath;
+    private final Duration proxyHealthInterval;
+    private final int proxyHealthFailures;
+    private final Duration slowRequestThreshold;
+    private final Path capture;
+    private final List<String> captureRedactedHeaders;
+    private final int captureMaxRequestSize;
+    private final boolean tls;
+    private final int tlsPort;
+    private final Path tlsKeyStore;
+    private final String tlsKeyStorePassword;
+    private final String tlsKeyStoreType;
+    private final int tlsSessionCacheSize;
+    private final Duration tlsSessionTimeout;
+    private final boolean tlsSessionTickets;
+    private final RateLimiter.Limit rateLimit;
+    private final Map<String, RateLimiter.Limit> rateLimitRoutes;
+    private final Duration drainTimeout;
+
+    private ServerConfig(Builder builder) {
+        port = builder.port;
+        publicDir = builder.publicDir;
+        workers = builder.workers;
+        workerQueue = builder.workerQueue;
+        adaptiveWorkers = builder.adaptiveWorkers;
+        minWorkers = builder.minWorkers;
+        maxWorkers = builder.maxWorkers;
+        acceptors = builder.acceptors;
+        reusePort = builder.reusePort;
+        backlog = builder.backlog;
+        maxHeaderSize = builder.maxHeaderSize;
+        maxBodySize = builder.maxBodySize;
+        minBodyRate = builder.minBodyRate;
+        minBodyRateGrace = builder.minBodyRateGrace;
+        headerTimeout = builder.headerTimeout;
+        bodyReadTimeout = builder.bodyReadTimeout;
+        writeTimeout = builder.writeTimeout;
+        fileChunkSize = builder.fileChunkSize;
+        responseCacheBytes = builder.responseCacheBytes;
+        responseCacheEntries = builder.responseCacheEntries;
+        resourceRevalidate = builder.resourceRevalidate;
+        resourceCacheEntries = builder.resourceCacheEntries;
+        bundle = builder.bundle;
+        bundlePack = builder.bundlePack;
+        bundleGzip = builder.bundleGzip;
+        webSocketMaxMessage = builder.webSocketMaxMessage;
+        webSocketPingInterval = builder.webSocketPingInterval;
+        http2 = builder.http2;
+        http2MaxConcurrentStreams = builder.http2MaxConcurrentStreams;
+        http2IdleTimeout = builder.http2IdleTimeout;
+        proxyBackends = List.copyOf(builder.proxyBackends);
+        proxyBalancing = builder.proxyBalancing;
+        proxyMaxConnections = builder.proxyMaxConnections;
+        proxyTimeout = builder.proxyTimeout;
+        proxyHealthPath = builder.proxyHealthPath;
+        proxyHealthInterval = builder.proxyHealthInterval;
+        proxyHealthFailures = builder.proxyHealthFailures;
+        slowRequestThreshold = builder.slowRequestThreshold;
+        capture = builder.capture;
+        captureRedactedHeaders = List.copyOf(builder.captureRedactedHeaders);
+        captureMaxRequestSize = builder.captureMaxRequestSize;
+        tls = builder.tls;
+        tlsPort = builder.tlsPort;
+        tlsKeyStore = builder.tlsKeyStore;
+        tlsKeyStorePassword = builder.tlsKeyStorePassword;
+        tlsKeyStoreType = builder.tlsKeyStoreType;
+        tlsSessionCacheSize = builder.tlsSessionCacheSize;
+        tlsSessionTimeout = builder.tlsSessionTimeout;
+        tlsSessionTickets = builder.tlsSessionTickets;
+        rateLimit = builder.rateLimit;
+        rateLimitRoutes = Map.copyOf(builder.rateLimitRoutes);
+        drainTimeout = builder.drainTimeout;
+    }
+
+    /**
+     * Создаёт построитель со значениями по умолчанию.
+     * @return новый построитель.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Создаёт построитель, в котором значения по умолчанию перекрыты файлом свойств
+     * (если он существует), а затем системными свойствами.
+     * @param propertiesFile файл свойств.
+     * @return построитель, который ещё можно донастроить в коде.
+     * @throws IOException если файл существует, но не читается.
+     */
+    public static Builder fromEnvironment(Path propertiesFile) throws IOException {
+        final var builder = builder();
+        if (Files.isRegularFile(propertiesFile)) {
+            final var fileProperties = new Properties();
+            try (Reader reader = Files.newBufferedReader(propertiesFile, StandardCharsets.UTF_8)) {
+                fileProperties.load(reader);
+            }
+            builder.properties(fileProperties);
+        }
+        return builder.properties(System.getProperties());
+    }
+
+    @Override
+    public String toString() {
+        return ("ServerConfig: порт %d, директория %s, рабочих %s, приёмщиков %d%s, backlog %d, " +
+                "заголовки до %d Б, тело до %d Б, таймауты %s/%s/%s, HTTP/2 %s%s%s%s%s%s")
+                .formatted(port, publicDir, adaptiveWorkers ?
+                                "%d (подбираются от %d до %d)".formatted(workers, minWorkers, maxWorkers) :
+                                "%d (очередь %s)".formatted(workers, workerQueue == 0 ? "без ограничения" : workerQueue),
+                        acceptors, reusePort ? " (SO_REUSEPORT)" : "", backlog, maxHeaderSize, maxBodySize,
+                        headerTimeout, bodyReadTimeout, writeTimeout,
+                        http2 ? "h2c, до " + http2MaxConcurrentStreams + " потоков" : "выключен",
+                        proxyBackends.isEmpty() ? "" : ", прокси (" + proxyBalancing + ") на " + proxyBackends,
+                        rateLimit.isUnlimited() && rateLimitRoutes.isEmpty() ? "" :
+                                ", частота запросов: " + rateLimit + (rateLimitRoutes.isEmpty() ? "" : ", " + rateLimitRoutes),
+                        tls ? ", TLS на порту " + tlsPort + " (" + tlsKeyStore + ")" : "",
+                        capture == null ? "" : ", запись запросов в " + capture,
+                        bundle == null ? "" : ", ресурсы из пакета " + bundle);
+    }
+
+    /**
+     * Возвращает порт.
+     * @return значение поля port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Возвращает публичную директорию.
+     * @return значение поля publicDir.
+     */
+    public String getPublicDir() {
+        return publicDir;
+    }
+
+    /**
+     * Возвращает общее число рабочих потоков.
+     * @return значение поля workers.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Возвращает общую длину очереди подключений, ждущих рабочего потока (0 — без ограничения).
+     * @return значение поля workerQueue.
+     */
+    public int getWorkerQueue() {
+        return workerQueue;
+    }
+
+    /**
+     * Возвращает, подбирается ли число одновременно обслуживаемых подключений по задержке.
+     * @return значение поля adaptiveWorkers.
+     */
+    public boolean isAdaptiveWorkers() {
+        return adaptiveWorkers;
+    }
+
+    /**
+     * Возвращает нижнюю границу подбираемого числа рабочих.
+     * @return значение поля minWorkers.
+     */
+    public int getMinWorkers() {
+        return minWorkers;
+    }
+
+    /**
+     * Возвращает верхнюю границу подбираемого числа рабочих.
+     * @return значение поля maxWorkers.
+     */
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * Возвращает число приёмщиков.
+     * @return значение поля acceptors.
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * Сообщает, открывать ли по каналу на приёмщика через {@code SO_REUSEPORT}.
+     * @return значение поля reusePort.
+     */
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Возвращает длину очереди ожидающих подключений.
+     * @return значение поля backlog.
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Возвращает наибольший размер строки запроса вместе с заголовками.
+     * @return значение поля maxHeaderSize.
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * Возвращает общий предел размера тела запроса.
+     * @return значение поля maxBodySize.
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Возвращает минимальную скорость передачи тела (байт в секунду).
+     * @return значение поля minBodyRate.
+     */
+    public long getMinBodyRate() {
+        return minBodyRate;
+    }
+
+    /**
+     * Возвращает, сколько от начала тела скорость не проверяется.
+     * @return значение поля minBodyRateGrace.
+     */
+    public Duration getMinBodyRateGrace() {
+        return minBodyRateGrace;
+    }
+
+    /**
+     * Возвращает срок на получение заголовков.
+     * @return значение поля headerTimeout.
+     */
+    public Duration getHeaderTimeout() {
+        return headerTimeout;
+    }
+
+    /**
+     * Возвращает наибольшую паузу при чтении тела.
+     * @return значение поля bodyReadTimeout.
+     */
+    public Duration getBodyReadTimeout() {
+        return bodyReadTimeout;
+    }
+
+    /**
+     * Возвращает наибольшую длительность зависшей записи ответа.
+     * @return значение поля writeTimeout.
+     */
+    public Duration getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * Возвращает размер порции при отдаче файлов.
+     * @return значение поля fileChunkSize.
+     */
+    public int getFileChunkSize() {
+        return fileChunkSize;
+    }
+
+    /**
+     * Возвращает бюджет кэша ответов в байтах.
+     * @return значение поля responseCacheBytes.
+     */
+    public long getResponseCacheBytes() {
+        return responseCacheBytes;
+    }
+
+    /**
+     * Возвращает наибольшее число записей кэша ответов.
+     * @return значение поля responseCacheEntries.
+     */
+    public int getResponseCacheEntries() {
+        return responseCacheEntries;
+    }
+
+    /**
+     * Возвращает срок, через который перепроверяются сведения о файлах.
+     * @return значение поля resourceRevalidate.
+     */
+    public Duration getResourceRevalidate() {
+        return resourceRevalidate;
+    }
+
+    /**
+     * Возвращает наибольшее число путей в кэше сведений о файлах.
+     * @return значение поля resourceCacheEntries.
+     */
+    public int getResourceCacheEntries() {
+        return resourceCacheEntries;
+    }
+
+    /**
+     * Возвращает файл пакета статических ресурсов.
+     * @return значение поля bundle; {@code null} — ресурсы отдаются из директории.
+     */
+    public Path getBundle() {
+        return bundle;
+    }
+
+    /**
+     * Сообщает, упаковывается ли публичная директория в пакет при запуске.
+     * @return значение поля bundlePack.
+     */
+    public boolean isBundlePack() {
+        return bundlePack;
+    }
+
+    /**
+     * Сообщает, добавляются ли в пакет сжатые варианты ресурсов.
+     * @return значение поля bundleGzip.
+     */
+    public boolean isBundleGzip() {
+        return bundleGzip;
+    }
+
+    /**
+     * Возвращает наибольший размер сообщения WebSocket.
+     * @return значение поля webSocketMaxMessage.
+     */
+    public int getWebSocketMaxMessage() {
+        return webSocketMaxMessage;
+    }
+
+    /**
+     * Возвращает период пинга WebSocket.
+     * @return значение поля webSocketPingInterval.
+     */
+    public Duration getWebSocketPingInterval() {
+        return webSocketPingInterval;
+    }
+
+    /**
+     * Сообщает, принимается ли HTTP/2 без шифрования (h2c).
+     * @return значение поля http2.
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * Возвращает наибольшее число одновременных потоков в соединении HTTP/2.
+     * @return значение поля http2MaxConcurrentStreams.
+     */
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    /**
+     * Возвращает срок, после которого закрывается соединение HTTP/2 без открытых потоков.
+     * @return значение поля http2IdleTimeout.
+     */
+    public Duration getHttp2IdleTimeout() {
+        return http2IdleTimeout;
+    }
+
+    /**
+     * Возвращает адреса серверов за обратным прокси; пустой список — сервер работает сам.
+     * @return значение поля proxyBackends.
+     */
+    public List<String> getProxyBackends() {
+        return proxyBackends;
+    }
+
+    /**
+     * Возвращает имя правила балансировки.
+     * @return значение поля proxyBalancing.
+     */
+    public String getProxyBalancing() {
+        return proxyBalancing;
+    }
+
+    /**
+     * Возвращает наибольшее число соединений прокси с одним сервером.
+     * @return значение поля proxyMaxConnections.
+     */
+    public int getProxyMaxConnections() {
+        return proxyMaxConnections;
+    }
+
+    /**
+     * Возвращает срок подключения к серверу за прокси и ожидания его ответа.
+     * @return значение поля proxyTimeout.
+     */
+    public Duration getProxyTimeout() {
+        return proxyTimeout;
+    }
+
+    /**
+     * Возвращает путь, которым проверяется доступность серверов за прокси.
+     * @return значение поля proxyHealthPath.
+     */
+    public String getProxyHealthPath() {
+        return proxyHealthPath;
+    }
+
+    /**
+     * Возвращает период проверки доступности серверов за прокси.
+     * @return значение поля proxyHealthInterval.
+     */
+    public Duration getProxyHealthInterval() {
+        return proxyHealthInterval;
+    }
+
+    /**
+     * Возвращает число отказов подряд, после которого сервер исключается из балансировки.
+     * @return значение поля proxyHealthFailures.
+     */
+    public int getProxyHealthFailures() {
+        return proxyHealthFailures;
+    }
+
+    /**
+     * Возвращает порог медленного запроса.
+     * @return значение поля slowRequestThreshold.
+     */
+    public Duration getSlowRequestThreshold() {
+        return slowRequestThreshold;
+    }
+
+    /**
+     * Возвращает файл журнала входящих запросов.
+     * @return значение поля capture; {@code null} — запросы не записываются.
+     */
+    public Path getCapture() {
+        return capture;
+    }
+
+    /**
+     * Возвращает заголовки, значения которых скрываются в журнале запросов.
+     * @return значение поля captureRedactedHeaders.
+     */
+    public List<String> getCaptureRedactedHeaders() {
+        return captureRedactedHeaders;
+    }
+
+    /**
+     * Возвращает, сколько байт запроса записывается в журнал.
+     * @return значение поля captureMaxRequestSize.
+     */
+    public int getCaptureMaxRequestSize() {
+        return captureMaxRequestSize;
+    }
+
+    /**
+     * Сообщает, принимаются ли подключения по TLS.
+     * @return значение поля tls.
+     */
+    public boolean isTls() {
+        return tls;
+    }
+
+    /**
+     * Возвращает порт для подключений по TLS.
+     * @return значение поля tlsPort.
+     */
+    public int getTlsPort() {
+        return tlsPort;
+    }
+
+    /**
+     * Возвращает файл хранилища с ключом и сертификатом сервера.
+     * @return значение поля tlsKeyStore.
+     */
+    public Path getTlsKeyStore() {
+        return tlsKeyStore;
+    }
+
+    /**
+     * Возвращает пароль хранилища ключей.
+     * @return значение поля tlsKeyStorePassword.
+     */
+    public String getTlsKeyStorePassword() {
+        return tlsKeyStorePassword;
+    }
+
+    /**
+     * Возвращает тип хранилища ключей.
+     * @return значение поля tlsKeyStoreType.
+     */
+    public String getTlsKeyStoreType() {
+        return tlsKeyStoreType;
+    }
+
+    /**
+     * Возвращает, сколько сессий TLS помнить для возобновления.
+     * @return значение поля tlsSessionCacheSize.
+     */
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Возвращает, сколько помнить сессию TLS.
+     * @return значение поля tlsSessionTimeout.
+     */
+    public Duration getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Сообщает, выдаются ли клиентам билеты сессий TLS.
+     * @return значение поля tlsSessionTickets.
+     */
+    public boolean isTlsSessionTickets() {
+        return tlsSessionTickets;
+    }
+
+    /**
+     * Возвращает ограничение частоты запросов одного клиента.
+     * @return значение поля rateLimit.
+     */
+    public RateLimiter.Limit getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Возвращает отдельные ограничения частоты запросов по путям.
+     * @return значение поля rateLimitRoutes.
+     */
+    public Map<String, RateLimiter.Limit> getRateLimitRoutes() {
+        return rateLimitRoutes;
+    }
+
+    /**
+     * Возвращает срок плавной остановки.
+     * @return значение поля drainTimeout.
+     */
+    public Duration getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * Построитель настроек. В скобках у методов — ключ свойства.
+     */
+    public static class Builder {
+        private int port = 9999;
+        private String publicDir = "public";
+        private int workers = 64;
+        private int workerQueue = 0;
+        private boolean adaptiveWorkers = false;
+        private int minWorkers = 4;
+        private int maxWorkers = 256;
+        private int acceptors = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        private boolean reusePort = true;
+        private int backlog = 1024;
+        private int maxHeaderSize = RequestLimits.DEFAULT_MAX_HEADER_SIZE;
+        private long maxBodySize = 64 * 1024;
+        private long minBodyRate = 512;
+        private Duration minBodyRateGrace = Duration.ofSeconds(5);
+        private Duration headerTimeout = Duration.ofSeconds(15);
+        private Duration bodyReadTimeout = Duration.ofSeconds(30);
+        private Duration writeTimeout = Duration.ofSeconds(30);
+        private int fileChunkSize = 64 * 1024;
+        private long responseCacheBytes = 32 * 1024 * 1024;
+        private int responseCacheEntries = 4096;
+        private Duration resourceRevalidate = Duration.ofSeconds(2);
+        private int resourceCacheEntries = 10_000;
+        private Path bundle = null;
+        private boolean bundlePack = false;
+        private boolean bundleGzip = true;
+        private int webSocketMaxMessage = 1024 * 1024;
+        private Duration webSocketPingInterval = Duration.ofSeconds(30);
+        private boolean http2 = false;
+        private int http2MaxConcurrentStreams = 100;
+        private Duration http2IdleTimeout = Duration.ofSeconds(60);
+        private List<String> proxyBackends = List.of();
+        private String proxyBalancing = "round-robin";
+        private int proxyMaxConnections = 32;
+        private Duration proxyTimeout = Duration.ofSeconds(30);
+        private String proxyHealthPath = "/";
+        private Duration proxyHealthInterval = Duration.ofSeconds(5);
+        private int proxyHealthFailures = 2;
+        private Duration slowRequestThreshold = Duration.ZERO;
+        private Path capture = null;
+        private List<String> captureRedactedHeaders = List.of("Authorization", "Proxy-Authorization", "Cookie");
+        private int captureMaxRequestSize = 1024 * 1024;
+        private boolean tls = false;
+        private int tlsPort = 9443;
+        private Path tlsKeyStore = Path.of("server.p12");
+        private String tlsKeyStorePassword = "";
+        private String tlsKeyStoreType = "PKCS12";
+        private int tlsSessionCacheSize = 10000;
+        private Duration tlsSessionTimeout = Duration.ofHours(1);
+        private boolean tlsSessionTickets = true;
+        private RateLimiter.Limit rateLimit = RateLimiter.Limit.NONE;
+        private final Map<String, RateLimiter.Limit> rateLimitRoutes = new LinkedHashMap<>();
+        private Duration drainTimeout = Duration.ofSeconds(30);
+
+        private Builder() {
+        }
+
+        /**
+         * Применяет известные ключи из набора свойств; остальные ключи пропускаются.
+         * @param properties набор свойств.
+         * @return этот построитель.
+         * @throws IllegalArgumentException если значение свойства не распознано.
+         */
+        public Builder properties(Properties properties) {
+            final var p = properties;
+            if (p.getProperty("server.port") != null) port(intOf(p, "server.port"));
+            if (p.getProperty("server.publicDir") != null) publicDir(p.getProperty("server.publicDir").trim());
+            if (p.getProperty("server.workers") != null) workers(intOf(p, "server.workers"));
+            if (p.getProperty("server.workers.queue") != null) workerQueue(intOf(p, "server.workers.queue"));
+            if (p.getProperty("server.workers.adaptive") != null)
+                adaptiveWorkers(boolOf(p, "server.workers.adaptive"));
+            if (p.getProperty("server.workers.min") != null) minWorkers(intOf(p, "server.workers.min"));
+            if (p.getProperty("server.workers.max") != null) maxWorkers(intOf(p, "server.workers.max"));
+            if (p.getProperty("server.acceptors") != null) acceptors(intOf(p, "server.acceptors"));
+            if (p.getProperty("server.reusePort") != null) reusePort(boolOf(p, "server.reusePort"));
+            if (p.getProperty("server.backlog") != null) backlog(intOf(p, "server.backlog"));
+            if (p.getProperty("server.headers.maxSize") != null)
+                maxHeaderSize(positiveIntSizeOf(p, "server.headers.maxSize"));
+            if (p.getProperty("server.body.maxSize") != null) maxBodySize(positiveSizeOf(p, "server.body.maxSize"));
+            if (p.getProperty("server.body.minRate") != null) minBodyRate(sizeOf(p, "server.body.minRate"));
+            if (p.getProperty("server.body.minRateGrace") != null)
+                minBodyRateGrace(durationOf(p, "server.body.minRateGrace"));
+            if (p.getProperty("server.timeout.header") != null) headerTimeout(durationOf(p, "server.timeout.header"));
+            if (p.getProperty("server.timeout.bodyRead") != null)
+                bodyReadTimeout(durationOf(p, "server.timeout.bodyRead"));
+            if (p.getProperty("server.timeout.write") != null) writeTimeout(durationOf(p, "server.timeout.write"));
+            if (p.getProperty("server.buffer.fileChunk") != null)
+                fileChunkSize(intSizeOf(p, "server.buffer.fileChunk"));
+            if (p.getProperty("server.cache.response.maxBytes") != null)
+                responseCacheBytes(sizeOf(p, "server.cache.response.maxBytes"));
+            if (p.getProperty("server.cache.response.maxEntries") != null)
+                responseCacheEntries(intOf(p, "server.cache.response.maxEntries"));
+            if (p.getProperty("server.cache.resources.revalidate") != null)
+                resourceRevalidate(durationOf(p, "server.cache.resources.revalidate"));
+            if (p.getProperty("server.cache.resources.maxEntries") != null)
+                resourceCacheEntries(intOf(p, "server.cache.resources.maxEntries"));
+            if (p.getProperty("server.bundle") != null) {
+                final var file = p.getProperty("server.bundle").trim();
+                bundle(file.isEmpty() ? null : Path.of(file));
+            }
+            if (p.getProperty("server.bundle.pack") != null) bundlePack(boolOf(p, "server.bundle.pack"));
+            if (p.getProperty("server.bundle.gzip") != null) bundleGzip(boolOf(p, "server.bundle.gzip"));
+            if (p.getProperty("server.websocket.maxMessage") != null)
+                webSocketMaxMessage(positiveIntSizeOf(p, "server.websocket.maxMessage"));
+            if (p.getProperty("server.websocket.pingInterval") != null)
+                webSocketPingInterval(durationOf(p, "server.websocket.pingInterval"));
+            if (p.getProperty("server.http2") != null) http2(boolOf(p, "server.http2"));
+            if (p.getProperty("server.http2.maxConcurrentStreams") != null)
+                http2MaxConcurrentStreams(intOf(p, "server.http2.maxConcurrentStreams"));
+            if (p.getProperty("server.http2.idleTimeout") != null)
+                http2IdleTimeout(durationOf(p, "server.http2.idleTimeout"));
+            if (p.getProperty("server.proxy.backends") != null) {
+                try {
+                    proxyBackends(listOf(p, "server.proxy.backends").toArray(new String[0]));
+                } catch (IllegalArgumentException e) {
+                    throw invalid("server.proxy.backends", p);
+                }
+            }
+            if (p.getProperty("server.proxy.balancing") != null) {
+                try {
+                    proxyBalancing(p.getProperty("server.proxy.balancing"));
+                } catch (IllegalArgumentException e) {
+                    throw invalid("server.proxy.balancing", p);
+                }
+            }
+            if (p.getProperty("server.proxy.maxConnections") != null)
+                proxyMaxConnections(intOf(p, "server.proxy.maxConnections"));
+            if (p.getProperty("server.proxy.timeout") != null) proxyTimeout(durationOf(p, "server.proxy.timeout"));
+            if (p.getProperty("server.proxy.healthPath") != null)
+                proxyHealthPath(p.getProperty("server.proxy.healthPath").trim());
+            if (p.getProperty("server.proxy.healthInterval") != null)
+                proxyHealthInterval(durationOf(p, "server.proxy.healthInterval"));
+            if (p.getProperty("server.proxy.healthFailures") != null)
+                proxyHealthFailures(intOf(p, "server.proxy.healthFailures"));
+            if (p.getProperty("server.trace.slowRequest") != null)
+                slowRequestThreshold(durationOf(p, "server.trace.slowRequest"));
+            if (p.getProperty("server.trace.capture") != null) {
+                final var file = p.getProperty("server.trace.capture").trim();
+                capture(file.isEmpty() ? null : Path.of(file));
+            }
+            if (p.getProperty("server.trace.capture.redact") != null)
+                captureRedactedHeaders(listOf(p, "server.trace.capture.redact").toArray(new String[0]));
+            if (p.getProperty("server.trace.capture.maxRequestSize") != null)
+                captureMaxRequestSize(intSizeOf(p, "server.trace.capture.maxRequestSize"));
+            if (p.getProperty("server.tls") != null) tls(boolOf(p, "server.tls"));
+            if (p.getProperty("server.tls.port") != null) tlsPort(intOf(p, "server.tls.port"));
+            if (p.getProperty("server.tls.keyStore") != null)
+                tlsKeyStore(Path.of(p.getProperty("server.tls.keyStore").trim()));
+            if (p.getProperty("server.tls.keyStorePassword") != null)
+                tlsKeyStorePassword(p.getProperty("server.tls.keyStorePassword"));
+            if (p.getProperty("server.tls.keyStoreType") != null)
+                tlsKeyStoreType(p.getProperty("server.tls.keyStoreType").trim());
+            if (p.getProperty("server.tls.sessionCacheSize") != null)
+                tlsSessionCacheSize(intOf(p, "server.tls.sessionCacheSize"));
+            if (p.getProperty("server.tls.sessionTimeout") != null)
+                tlsSessionTimeout(durationOf(p, "server.tls.sessionTimeout"));
+            if (p.getProperty("server.tls.sessionTickets") != null)
+                tlsSessionTickets(boolOf(p, "server.tls.sessionTickets"));
+            if (p.getProperty("server.rateLimit") != null) {
+                try {
+                    rateLimit(RateLimiter.Limit.parse(p.getProperty("server.rateLimit")));
+                } catch (IllegalArgumentException e) {
+                    throw invalid("server.rateLimit", p);
+                }
+            }
+            if (p.getProperty("server.rateLimit.routes") != null) {
+                for (String route : listOf(p, "server.rateLimit.routes")) {
+                    final int eq = route.lastIndexOf('=');
+                    if (eq <= 0) throw invalid("server.rateLimit.routes", p);
+                    try {
+                        rateLimitRoute(route.substring(0, eq).trim(), RateLimiter.Limit.parse(route.substring(eq + 1)));
+                    } catch (IllegalArgumentException e) {
+                        throw invalid("server.rateLimit.routes", p);
+                    }
+                }
+            }
+            if (p.getProperty("server.drainTimeout") != null) drainTimeout(durationOf(p, "server.drainTimeout"));
+            return this;
+        }
+
+        /**
+         * Порт; 0 — выбирает система ({@code server.port}).
+         * @param port номер порта.
+         * @return этот построитель.
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Публичная директория ({@code server.publicDir}).
+         * @param publicDir путь относительно рабочей директории.
+         * @return этот построитель.
+         */
+        public Builder publicDir(String publicDir) {
+            this.publicDir = publicDir;
+            return this;
+        }
+
+        /**
+         * Общее число рабочих потоков ({@code server.workers}).
+         * @param workers число потоков.
+         * @return этот построитель.
+         */
+        public Builder workers(int workers) {
+            this.workers = Math.max(1, workers);
+            return this;
+        }
+
+        /**
+         * Общая длина очереди подключений, ждущих рабочего потока; при переполнении подключение
+         * получает 503. 0 — очередь не ограничена ({@code server.workers.queue}).
+         * @param workerQueue длина очереди.
+         * @return этот построитель.
+         */
+        public Builder workerQueue(int workerQueue) {
+            this.workerQueue = Math.max(0, workerQueue);
+            return this;
+        }
+
+        /**
+         * Подбирать ли число одновременно обслуживаемых подключений по задержке обслуживания
+         * ({@code server.workers.adaptive}). Начинается подбор с {@code server.workers}; подключения
+         * сверх текущего предела сразу получают 503, а {@code server.workers.queue} не действует.
+         * @param adaptiveWorkers true — подбирать.
+         * @return этот построитель.
+         */
+        public Builder adaptiveWorkers(boolean adaptiveWorkers) {
+            this.adaptiveWorkers = adaptiveWorkers;
+            return this;
+        }
+
+        /**
+         * Ниже скольких рабочих подбор не опускается ({@code server.workers.min}).
+         * @param minWorkers нижняя граница.
+         * @return этот построитель.
+         */
+        public Builder minWorkers(int minWorkers) {
+            this.minWorkers = Math.max(1, minWorkers);
+            return this;
+        }
+
+        /**
+         * Выше скольких рабочих подбор не поднимается ({@code server.workers.max}).
+         * @param maxWorkers верхняя граница.
+         * @return этот построитель.
+         */
+        public Builder maxWorkers(int maxWorkers) {
+            this.maxWorkers = Math.max(1, maxWorkers);
+            return this;
+        }
+
+        /**
+         * Число приёмщиков ({@code server.acceptors}).
+         * @param acceptors число приёмщиков.
+         * @return этот построитель.
+         */
+        public Builder acceptors(int acceptors) {
+            this.acceptors = Math.max(1, acceptors);
+            return this;
+        }
+
+        /**
+         * Открывать ли по каналу на приёмщика через {@code SO_REUSEPORT} ({@code server.reusePort}).
+         * @param reusePort включить ли режим.
+         * @return этот построитель.
+         */
+        public Builder reusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        /**
+         * Длина очереди ожидающих подключений ({@code server.backlog}).
+         * @param backlog длина очереди; 0 и меньше — значение системы.
+         * @return этот построитель.
+         */
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Наибольший размер строки запроса с заголовками ({@code server.headers.maxSize}).
+         * @param maxHeaderSize размер в байтах.
+         * @return этот построитель.
+         */
+        public Builder maxHeaderSize(int maxHeaderSize) {
+            this.maxHeaderSize = maxHeaderSize;
+            return this;
+        }
+
+        /**
+         * Общий предел размера тела ({@code server.body.maxSize}).
+         * @param maxBodySize размер в байтах.
+         * @return этот построитель.
+         */
+        public Builder maxBodySize(long maxBodySize) {
+            this.maxBodySize = maxBodySize;
+            return this;
+        }
+
+        /**
+         * Минимальная скорость передачи тела ({@code server.body.minRate}).
+         * @param minBodyRate байт в секунду; 0 — не проверять.
+         * @return этот построитель.
+         */
+        public Builder minBodyRate(long minBodyRate) {
+            this.minBodyRate = minBodyRate;
+            return this;
+        }
+
+        /**
+         * Сколько от начала тела скорость не проверяется ({@code server.body.minRateGrace}).
+         * @param minBodyRateGrace длительность.
+         * @return этот построитель.
+         */
+        public Builder minBodyRateGrace(Duration minBodyRateGrace) {
+            this.minBodyRateGrace = minBodyRateGrace;
+            return this;
+        }
+
+        /**
+         * Срок на получение заголовков ({@code server.timeout.header}).
+         * @param headerTimeout длительность; 0 — без ограничения.
+         * @return этот построитель.
+         */
+        public Builder headerTimeout(Duration headerTimeout) {
+            this.headerTimeout = headerTimeout;
+            return this;
+        }
+
+        /**
+         * Наибольшая пауза при чтении тела ({@code server.timeout.bodyRead}).
+         * @param bodyReadTimeout длительность; 0 — без ограничения.
+         * @return этот построитель.
+         */
+        public Builder bodyReadTimeout(Duration bodyReadTimeout) {
+            this.bodyReadTimeout = bodyReadTimeout;
+            return this;
+        }
+
+        /**
+         * Наибольшая длительность зависшей записи ответа ({@code server.timeout.write}).
+         * @param writeTimeout длительность; 0 — без ограничения.
+         * @return этот построитель.
+         */
+        public Builder writeTimeout(Duration writeTimeout) {
+            this.writeTimeout = writeTimeout;
+            return this;
+        }
+
+        /**
+         * Размер порции при отдаче файлов ({@code server.buffer.fileChunk}).
+         * @param fileChunkSize размер в байтах.
+         * @return этот построитель.
+         */
+        public Builder fileChunkSize(int fileChunkSize) {
+            this.fileChunkSize = Math.max(512, fileChunkSize);
+            return this;
+        }
+
+        /**
+         * Бюджет кэша ответов ({@code server.cache.response.maxBytes}).
+         * @param responseCacheBytes размер в байтах.
+         * @return этот построитель.
+         */
+        public Builder responseCacheBytes(long responseCacheBytes) {
+            this.responseCacheBytes = responseCacheBytes;
+            return this;
+        }
+
+        /**
+         * Наибольшее число записей кэша ответов ({@code server.cache.response.maxEntries}).
+         * @param responseCacheEntries число записей.
+         * @return этот построитель.
+         */
+        public Builder responseCacheEntries(int responseCacheEntries) {
+            this.responseCacheEntries = responseCacheEntries;
+            return this;
+        }
+
+        /**
+         * Срок перепроверки сведений о файлах ({@code server.cache.resources.revalidate}).
+         * @param resourceRevalidate длительность; 0 — проверять каждый раз.
+         * @return этот построитель.
+         */
+        public Builder resourceRevalidate(Duration resourceRevalidate) {
+            this.resourceRevalidate = resourceRevalidate;
+            return this;
+        }
+
+        /**
+         * Наибольшее число путей в кэше сведений о файлах ({@code server.cache.resources.maxEntries}).
+         * @param resourceCacheEntries число путей.
+         * @return этот построитель.
+         */
+        public Builder resourceCacheEntries(int resourceCacheEntries) {
+            this.resourceCacheEntries = resourceCacheEntries;
+            return this;
+        }
+
+        /**
+         * Пакет статических ресурсов {@link AssetBundle}, из которого ресурсы отдаются вместо
+         * директории ({@code server.bundle}; пустое значение — отдавать из директории).
+         * @param bundle файл пакета или {@code null}.
+         * @return этот построитель.
+         */
+        public Builder bundle(Path bundle) {
+            this.bundle = bundle;
+            return this;
+        }
+
+        /**
+         * Упаковывать ли публичную директорию в пакет при запуске ({@code server.bundle.pack});
+         * иначе пакет должен быть собран заранее.
+         * @param bundlePack true — упаковывать.
+         * @return этот построитель.
+         */
+        public Builder bundlePack(boolean bundlePack) {
+            this.bundlePack = bundlePack;
+            return this;
+        }
+
+        /**
+         * Добавлять ли при упаковке сжатые gzip варианты текстовых ресурсов ({@code server.bundle.gzip}).
+         * @param bundleGzip true — добавлять.
+         * @return этот построитель.
+         */
+        public Builder bundleGzip(boolean bundleGzip) {
+            this.bundleGzip = bundleGzip;
+            return this;
+        }
+
+        /**
+         * Наибольший размер сообщения WebSocket ({@code server.websocket.maxMessage}).
+         * @param webSocketMaxMessage размер в байтах.
+         * @return этот построитель.
+         */
+        public Builder webSocketMaxMessage(int webSocketMaxMessage) {
+            this.webSocketMaxMessage = webSocketMaxMessage;
+            return this;
+        }
+
+        /**
+         * Период пинга WebSocket ({@code server.websocket.pingInterval}).
+         * @param webSocketPingInterval длительность; 0 — не пинговать.
+         * @return этот построитель.
+         */
+        public Builder webSocketPingInterval(Duration webSocketPingInterval) {
+            this.webSocketPingInterval = webSocketPingInterval;
+            return this;
+        }
+
+        /**
+         * Принимать ли HTTP/2 без шифрования — с заранее известным протоколом
+         * и обновлением с HTTP/1.1 ({@code server.http2}).
+         * @param http2 включить ли HTTP/2.
+         * @return этот построитель.
+         */
+        public Builder http2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        /**
+         * Наибольшее число одновременных потоков в соединении HTTP/2 ({@code server.http2.maxConcurrentStreams}).
+         * @param http2MaxConcurrentStreams число потоков.
+         * @return этот построитель.
+         */
+        public Builder http2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+            this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+            return this;
+        }
+
+        /**
+         * Через сколько закрывать соединение HTTP/2 без открытых потоков ({@code server.http2.idleTimeout}).
+         * @param http2IdleTimeout длительность; 0 — не закрывать.
+         * @return этот построитель.
+         */
+        public Builder http2IdleTimeout(Duration http2IdleTimeout) {
+            this.http2IdleTimeout = http2IdleTimeout;
+            return this;
+        }
+
+        /**
+         * Серверы, на которые сервер пересылает запросы как обратный прокси
+         * ({@code server.proxy.backends}, через запятую). Пока список пуст, сервер работает сам.
+         * @param backends адреса вида {@code host:port}.
+         * @return этот построитель.
+         * @throws IllegalArgumentException если адрес не вида {@code host:port}.
+         */
+        public Builder proxyBackends(String... backends) {
+            final List<String> checked = new ArrayList<>(backends.length);
+            for (String backend : backends) {
+                final var address = backend.trim();
+                final int colon = address.lastIndexOf(':');
+                if (colon <= 0) throw new IllegalArgumentException("Ожидался адрес host:port: " + backend);
+                final int port = Integer.parseInt(address.substring(colon + 1));
+                if (port < 1 || port > 65535) throw new IllegalArgumentException("Некорректный порт: " + backend);
+                checked.add(address);
+            }
+            this.proxyBackends = checked;
+            return this;
+        }
+
+        /**
+         * Правило балансировки ({@code server.proxy.balancing}):
+         * {@code round-robin}, {@code least-connections} или {@code consistent-hash}.
+         * @param proxyBalancing имя правила.
+         * @return этот построитель.
+         * @throws IllegalArgumentException если имя неизвестно.
+         */
+        public Builder proxyBalancing(String proxyBalancing) {
+            LoadBalancer.of(proxyBalancing);
+            this.proxyBalancing = proxyBalancing.trim();
+            return this;
+        }
+
+        /**
+         * Наибольшее число соединений с одним сервером за прокси ({@code server.proxy.maxConnections}).
+         * @param proxyMaxConnections число соединений.
+         * @return этот построитель.
+         */
+        public Builder proxyMaxConnections(int proxyMaxConnections) {
+            this.proxyMaxConnections = proxyMaxConnections;
+            return this;
+        }
+
+        /**
+         * Срок подключения к серверу за прокси и ожидания его ответа ({@code server.proxy.timeout}).
+         * @param proxyTimeout длительность.
+         * @return этот построитель.
+         */
+        public Builder proxyTimeout(Duration proxyTimeout) {
+            this.proxyTimeout = proxyTimeout;
+            return this;
+        }
+
+        /**
+         * Путь проверки доступности серверов за прокси ({@code server.proxy.healthPath}).
+         * @param proxyHealthPath путь.
+         * @return этот построитель.
+         */
+        public Builder proxyHealthPath(String proxyHealthPath) {
+            this.proxyHealthPath = proxyHealthPath;
+            return this;
+        }
+
+        /**
+         * Период проверки доступности серверов за прокси ({@code server.proxy.healthInterval}).
+         * @param proxyHealthInterval длительность; 0 — не проверять.
+         * @return этот построитель.
+         */
+        public Builder proxyHealthInterval(Duration proxyHealthInterval) {
+            this.proxyHealthInterval = proxyHealthInterval;
+            return this;
+        }
+
+        /**
+         * После скольких отказов подряд сервер исключается из балансировки ({@code server.proxy.healthFailures}).
+         * @param proxyHealthFailures число отказов.
+         * @return этот построитель.
+         */
+        public Builder proxyHealthFailures(int proxyHealthFailures) {
+            this.proxyHealthFailures = proxyHealthFailures;
+            return this;
+        }
+
+        /**
+         * Порог медленного запроса ({@code server.trace.slowRequest}): запросы не короче него
+         * выводятся в мониторинг с раскладкой по фазам.
+         * @param slowRequestThreshold длительность; 0 — не отмечать.
+         * @return этот построитель.
+         */
+        public Builder slowRequestThreshold(Duration slowRequestThreshold) {
+            this.slowRequestThreshold = slowRequestThreshold;
+            return this;
+        }
+
+        /**
+         * Файл, в который записываются входящие запросы для воспроизведения {@link TrafficReplay}
+         * ({@code server.trace.capture}; пустое значение — не записывать).
+         * @param capture файл журнала или {@code null}.
+         * @return этот построитель.
+         */
+        public Builder capture(Path capture) {
+            this.capture = capture;
+            return this;
+        }
+
+        /**
+         * Заголовки, значения которых скрываются в журнале запросов
+         * ({@code server.trace.capture.redact}, через запятую).
+         * @param headers имена заголовков.
+         * @return этот построитель.
+         */
+        public Builder captureRedactedHeaders(String... headers) {
+            this.captureRedactedHeaders = List.of(headers);
+            return this;
+        }
+
+        /**
+         * Сколько байт запроса записывать в журнал; остальное отбрасывается, а запрос
+         * помечается обрезанным ({@code server.trace.capture.maxRequestSize}).
+         * @param captureMaxRequestSize размер в байтах.
+         * @return этот построитель.
+         */
+        public Builder captureMaxRequestSize(int captureMaxRequestSize) {
+            this.captureMaxRequestSize = Math.max(0, captureMaxRequestSize);
+            return this;
+        }
+
+        /**
+         * Принимать ли подключения по TLS на отдельном порту ({@code server.tls}).
+         * @param tls включить TLS.
+         * @return этот построитель.
+         */
+        public Builder tls(boolean tls) {
+            this.tls = tls;
+            return this;
+        }
+
+        /**
+         * Порт для подключений по TLS ({@code server.tls.port}).
+         * @param tlsPort номер порта.
+         * @return этот построитель.
+         */
+        public Builder tlsPort(int tlsPort) {
+            this.tlsPort = tlsPort;
+            return this;
+        }
+
+        /**
+         * Хранилище с ключом и сертификатом сервера ({@code server.tls.keyStore}).
+         * @param tlsKeyStore путь к файлу.
+         * @return этот построитель.
+         */
+        public Builder tlsKeyStore(Path tlsKeyStore) {
+            this.tlsKeyStore = tlsKeyStore;
+            return this;
+        }
+
+        /**
+         * Пароль хранилища и ключа ({@code server.tls.keyStorePassword}).
+         * @param tlsKeyStorePassword пароль.
+         * @return этот построитель.
+         */
+        public Builder tlsKeyStorePassword(String tlsKeyStorePassword) {
+            this.tlsKeyStorePassword = tlsKeyStorePassword;
+            return this;
+        }
+
+        /**
+         * Тип хранилища ключей ({@code server.tls.keyStoreType}).
+         * @param tlsKeyStoreType {@code PKCS12} или {@code JKS}.
+         * @return этот построитель.
+         */
+        public Builder tlsKeyStoreType(String tlsKeyStoreType) {
+            this.tlsKeyStoreType = tlsKeyStoreType;
+            return this;
+        }
+
+        /**
+         * Сколько сессий TLS помнить для возобновления ({@code server.tls.sessionCacheSize}).
+         * @param tlsSessionCacheSize число сессий; 0 — без ограничения.
+         * @return этот построитель.
+         */
+        public Builder tlsSessionCacheSize(int tlsSessionCacheSize) {
+            this.tlsSessionCacheSize = tlsSessionCacheSize;
+            return this;
+        }
+
+        /**
+         * Сколько помнить сессию TLS ({@code server.tls.sessionTimeout}).
+         * @param tlsSessionTimeout длительность.
+         * @return этот построитель.
+         */
+        public Builder tlsSessionTimeout(Duration tlsSessionTimeout) {
+            this.tlsSessionTimeout = tlsSessionTimeout;
+            return this;
+        }
+
+        /**
+         * Выдавать ли клиентам билеты сессий ({@code server.tls.sessionTickets}).
+         * @param tlsSessionTickets выдавать билеты.
+         * @return этот построитель.
+         */
+        public Builder tlsSessionTickets(boolean tlsSessionTickets) {
+            this.tlsSessionTickets = tlsSessionTickets;
+            return this;
+        }
+
+        /**
+         * Ограничение частоты запросов одного клиента ({@code server.rateLimit},
+         * вида {@code частота[:объём]}).
+         * @param rateLimit правило; {@link RateLimiter.Limit#NONE} — без ограничения.
+         * @return этот построитель.
+         */
+        public Builder rateLimit(RateLimiter.Limit rateLimit) {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        /**
+         * Отдельное ограничение частоты запросов клиента к пути ({@code server.rateLimit.routes},
+         * через запятую вида {@code путь=частота[:объём]}).
+         * @param path  путь.
+         * @param limit правило для этого пути.
+         * @return этот построитель.
+         */
+        public Builder rateLimitRoute(String path, RateLimiter.Limit limit) {
+            this.rateLimitRoutes.put(path, limit);
+            return this;
+        }
+
+        /**
+         * Срок плавной остановки ({@code server.drainTimeout}).
+         * @param drainTimeout длительность.
+         * @return этот построитель.
+         */
+        public Builder drainTimeout(Duration drainTimeout) {
+            this.drainTimeout = drainTimeout;
+            return this;
+        }
+
+        /**
+         * Собирает настройки.
+         * @return неизменяемые настройки.
+         */
+        public ServerConfig build() {
+            return new ServerConfig(this);
+        }
+
+        private static int intOf(Properties properties, String key) {
+            try {
+                return Integer.parseInt(properties.getProperty(key).trim());
+            } catch (NumberFormatException e) {
+                throw invalid(key, properties);
+            }
+        }
+
+        private static boolean boolOf(Properties properties, String key) {
+            final var value = properties.getProperty(key).trim().toLowerCase(Locale.ROOT);
+            if (!value.equals("true") && !value.equals("false")) throw invalid(key, properties);
+            return value.equals("true");
+        }
+
+        private static long sizeOf(Properties properties, String key) {
+            final var value = properties.getProperty(key).trim().toLowerCase(Locale.ROOT);
+            try {
+                if (value.isEmpty()) throw invalid(key, properties);
+                final var unit = value.charAt(value.length() - 1);
+                final var digits = Character.isDigit(unit) ? value : value.substring(0, value.length() - 1).trim();
+                final long number = Long.parseLong(digits);
+                switch (unit) {
+                    case 'k': return Math.multiplyExact(number, 1024L);
+                    case 'm': return Math.multiplyExact(number, 1024L * 1024);
+                    case 'g': return Math.multiplyExact(number, 1024L * 1024 * 1024);
+                    default:
+                        if (!Character.isDigit(unit)) throw invalid(key, properties);
+                        return number;
+                }
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw invalid(key, properties);
+            }
+        }
+
+        /**
+         * Разбирает размер для поля типа int: значение, не помещающееся в int, считается некорректным.
+         */
+        private static int intSizeOf(Properties properties, String key) {
+            try {
+                return Math.toIntExact(sizeOf(properties, key));
+            } catch (ArithmeticException e) {
+                throw invalid(key, properties);
+            }
+        }
+
+        private static long positiveSizeOf(Properties properties, String key) {
+            final long size = sizeOf(properties, key);
+            if (size <= 0) throw invalid(key, properties);
+            return size;
+        }
+
+        private static int positiveIntSizeOf(Properties properties, String key) {
+            final int size = intSizeOf(properties, key);
+            if (size <= 0) throw invalid(key, properties);
+            return size;
+        }
+
+        private static Duration durationOf(Properties properties, String key) {
+            final var value = properties.getProperty(key).trim().toLowerCase(Locale.ROOT);
+            try {
+                if (value.startsWith("p")) return Duration.parse(value.toUpperCase(Locale.ROOT));
+                if (value.endsWith("ms"))
+                    return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2).trim()));
+                if (value.endsWith("s"))
+                    return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1).trim()));
+                if (value.endsWith("m"))
+                    return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1).trim()));
+                if (value.endsWith("h"))
+                    return Duration.ofHours(Long.parseLong(value.substring(0, value.length() - 1).trim()));
+                return Duration.ofMillis(Long.parseLong(value));
+            } catch (NumberFormatException | DateTimeParseException e) {
+                throw invalid(key, properties);
+            }
+        }
+
+        private static List<String> listOf(Properties properties, String key) {
+            final List<String> items = new ArrayList<>();
+            for (String item : properties.getProperty(key).split(","))
+                if (!item.isBlank()) items.add(item.trim());
+            return items;
+        }
+
+        private static IllegalArgumentException invalid(String key, Properties properties) {
+            return new IllegalArgumentException("Некорректное значение свойства %s: '%s'"
+                    .formatted(key, properties.getProperty(key)));
+        }
+    }
+}
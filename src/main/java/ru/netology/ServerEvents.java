@@ -0,0 +1,165 @@
+package ru.netology;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * События JDK Flight Recorder по фазам обработки запроса HTTP/1.1.
+ * Пока запись не включена, событие не собирается и ничего не стоит; включается запись
+ * без агентов, например {@code java -XX:StartFlightRecording=filename=server.jfr ...}
+ * или {@code jcmd <pid> JFR.start}. Сами события заполняет {@link RequestTrace}.
+ */
+final class ServerEvents {
+    private static final String CATEGORY = "Netology Server";
+
+    private ServerEvents() {
+    }
+
+    @Name("ru.netology.ConnectionAccept")
+    @Label("Приём подключения")
+    @Description("От приёма подключения до начала его обработки рабочим потоком (ожидание в очереди)")
+    @Category({CATEGORY, "HTTP"})
+    @StackTrace(false)
+    static class ConnectionAccept extends Event {
+        @Label("Адрес клиента")
+        String remoteAddress;
+    }
+
+    @Name("ru.netology.HeaderParse")
+    @Label("Разбор заголовков")
+    @Description("Чтение и разбор строки запроса и заголовков")
+    @Category({CATEGORY, "HTTP"})
+    @StackTrace(false)
+    static class HeaderParse extends Event {
+        @Label("Метод")
+        String method;
+        @Label("Путь")
+        String path;
+        @Label("Размер заголовков")
+        @DataAmount
+        int headerBytes;
+    }
+
+    @Name("ru.netology.BodyParse")
+    @Label("Разбор тела")
+    @Description("Чтение тела запроса и разбор параметров формы или частей multipart")
+    @Category({CATEGORY, "HTTP"})
+    @StackTrace(false)
+    static class BodyParse extends Event {
+        @Label("Метод")
+        String method;
+        @Label("Путь")
+        String path;
+        @Label("Размер тела")
+        @DataAmount
+        int bodyBytes;
+        @Label("Частей multipart")
+        int parts;
+    }
+
+    @Name("ru.netology.Dispatch")
+    @Label("Выбор обработчика")
+    @Description("Поиск обработчика по методу и пути, проверка ресурса и смены протокола")
+    @Category({CATEGORY, "HTTP"})
+    @StackTrace(false)
+    static class Dispatch extends Event {
+        @Label("Метод")
+        String method;
+        @Label("Путь")
+        String path;
+        @Label("Маршрут")
+        @Description("handler, static, fallback, not-found, not-implemented, websocket, events, h2c или rate-limited")
+        String route;
+    }
+
+    @Name("ru.netology.HandlerExecution")
+    @Label("Работа обработчика")
+    @Description("Выполнение обработчика вместе с записью ответа")
+    @Category({CATEGORY, "HTTP"})
+    @StackTrace(false)
+    static class HandlerExecution extends Event {
+        @Label("Метод")
+        String method;
+        @Label("Путь")
+        String path;
+        @Label("Маршрут")
+        String route;
+        @Label("Статус")
+        int status;
+        @Label("Отправлено")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    @Name("ru.netology.ResponseWrite")
+    @Label("Запись ответа")
+    @Description("От первого байта ответа до конца обработки; blocked — время, проведённое в записи в сокет")
+    @Category({CATEGORY, "HTTP"})
+    @StackTrace(false)
+    static class ResponseWrite extends Event {
+        @Label("Метод")
+        String method;
+        @Label("Путь")
+        String path;
+        @Label("Статус")
+        int status;
+        @Label("Отправлено")
+        @DataAmount
+        long bytesWritten;
+        @Label("В записи")
+        @Timespan
+        long blocked;
+    }
+
+    @Name("ru.netology.SlowRequest")
+    @Label("Медленный запрос")
+    @Description("Запрос, обработка которого заняла больше порога server.trace.slowRequest, с раскладкой по фазам")
+    @Category({CATEGORY, "HTTP"})
+    @StackTrace(false)
+    static class SlowRequest extends Event {
+        @Label("Адрес клиента")
+        String remoteAddress;
+        @Label("Метод")
+        String method;
+        @Label("Путь")
+        String path;
+        @Label("Статус")
+        int status;
+        @Label("Размер заголовков")
+        @DataAmount
+        int headerBytes;
+        @Label("Размер тела")
+        @DataAmount
+        int bodyBytes;
+        @Label("Отправлено")
+        @DataAmount
+        long bytesWritten;
+        @Label("Всего")
+        @Timespan
+        long total;
+        @Label("В очереди")
+        @Timespan
+        long queued;
+        @Label("Заголовки")
+        @Timespan
+        long headers;
+        @Label("Тело")
+        @Timespan
+        long body;
+        @Label("Выбор обработчика")
+        @Timespan
+        long dispatch;
+        @Label("Обработчик")
+        @Timespan
+        long handler;
+        @Label("В записи")
+        @Timespan
+        long write;
+    }
+}
@@ -0,0 +1,93 @@
+package ru.netology;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Входной поток подключения, ограничивающий время чтения запроса.
+ * <ul>
+ *     <li>заголовки должны прийти целиком в пределах общего срока;</li>
+ *     <li>между порциями тела не должно проходить больше заданного времени;</li>
+ *     <li>после льготного периода тело должно поступать не медленнее заданной скорости.</li>
+ * </ul>
+ * Нарушение любого условия приводит к {@link SocketTimeoutException}.
+ * Переход от заголовков к телу отмечает {@link Request} вызовом {@link #beginBody()}.
+ */
+public class SlowClientGuard extends FilterInputStream {
+    private final Socket socket;
+    private final long headerDeadline;
+    private final int bodyReadTimeout;
+    private final long minBodyRate;
+    private final long graceNanos;
+
+    private boolean inBody = false;
+    private long bodyStart;
+    private long bodyBytes;
+
+    /**
+     * Создаёт охранника для входного потока подключения.
+     * @param socket          подключение, на котором выставляется таймаут чтения.
+     * @param in              входной поток подключения.
+     * @param headerTimeout   за сколько миллисекунд должны прийти заголовки (0 — без ограничения).
+     * @param bodyReadTimeout сколько миллисекунд можно ждать очередную порцию тела (0 — без ограничения).
+     * @param minBodyRate     минимальная скорость поступления тела в байтах в секунду (0 — не проверять).
+     * @param graceMillis     сколько миллисекунд от начала тела скорость не проверяется.
+     */
+    public SlowClientGuard(Socket socket, InputStream in, long headerTimeout, int bodyReadTimeout,
+                           long minBodyRate, long graceMillis) {
+        super(in);
+        this.socket = socket;
+        this.headerDeadline = headerTimeout > 0 ? System.nanoTime() + headerTimeout * 1_000_000 : 0;
+        this.bodyReadTimeout = bodyReadTimeout;
+        this.minBodyRate = minBodyRate;
+        this.graceNanos = graceMillis * 1_000_000;
+    }
+
+    /**
+     * Отмечает, что заголовки прочитаны и дальше читается тело запроса.
+     */
+    public void beginBody() {
+        if (inBody) return;
+        inBody = true;
+        bodyStart = System.nanoTime();
+    }
+
+    @Override
+    public int read() throws IOException {
+        beforeRead();
+        int b = super.read();
+        if (b >= 0) afterRead(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        beforeRead();
+        int n = super.read(b, off, len);
+        if (n > 0) afterRead(n);
+        return n;
+    }
+
+    private void beforeRead() throws IOException {
+        if (!inBody) {
+            if (headerDeadline == 0) return;
+            long remaining = headerDeadline - System.nanoTime();
+            if (remaining <= 0)
+                throw new SocketTimeoutException("Request header timeout");
+            socket.setSoTimeout((int) Math.max(1, remaining / 1_000_000));
+        } else {
+            socket.setSoTimeout(bodyReadTimeout);
+        }
+    }
+
+    private void afterRead(int n) throws IOException {
+        if (!inBody || minBodyRate == 0) return;
+        bodyBytes += n;
+        long elapsed = System.nanoTime() - bodyStart;
+        if (elapsed > graceNanos && bodyBytes * 1_000_000_000L / elapsed < minBodyRate)
+            throw new SocketTimeoutException("Request body rate below minimum");
+    }
+}
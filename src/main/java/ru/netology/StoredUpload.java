@@ -0,0 +1,65 @@
+package ru.netology;
+
+import java.nio.file.Path;
+
+/**
+ * Результат сохранения загрузки в хранилище по содержимому.
+ */
+public class StoredUpload {
+    private final String hash;
+    private final Path path;
+    private final long size;
+    private final boolean deduplicated;
+
+    StoredUpload(String hash, Path path, long size, boolean deduplicated) {
+        this.hash = hash;
+        this.path = path;
+        this.size = size;
+        this.deduplicated = deduplicated;
+    }
+
+    @Override
+    public String toString() {
+        return "%s (%d байт%s)".formatted(path, size, deduplicated ? ", уже был в хранилище" : "");
+    }
+
+    /**
+     * Возвращает шестнадцатеричный SHA-256 содержимого.
+     * @return значение поля hash.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Возвращает путь к файлу в хранилище.
+     * @return значение поля path.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Возвращает имя файла в хранилище: хэш содержимого и расширение.
+     * @return имя файла.
+     */
+    public String getFileName() {
+        return path.getFileName().toString();
+    }
+
+    /**
+     * Сообщает размер содержимого в байтах.
+     * @return значение поля size.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Сообщает, что такое содержимое уже было в хранилище и запись не понадобилась.
+     * @return значение поля deduplicated.
+     */
+    public boolean isDeduplicated() {
+        return deduplicated;
+    }
+}
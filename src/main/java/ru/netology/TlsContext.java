@@ -0,0 +1,101 @@
+package ru.netology;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Настройки TLS для входящих подключений: ключ и сертификат сервера из хранилища ключей,
+ * кэш сессий для их возобновления без полного рукопожатия и протоколы для ALPN.
+ * <p>
+ * Для проверки подойдёт самоподписанный сертификат:
+ * <pre>
+ * keytool -genkeypair -alias server -keyalg EC -groupname secp256r1 -validity 365 \
+ *         -dname CN=localhost -ext SAN=dns:localhost,ip:127.0.0.1 \
+ *         -storetype PKCS12 -keystore server.p12 -storepass changeit
+ * </pre>
+ */
+public class TlsContext {
+    /**
+     * Системное свойство JSSE, включающее билеты сессий (возобновление без хранения сессии на сервере).
+     */
+    private static final String SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
+    private final SSLContext context;
+    private final Path keyStore;
+
+    /**
+     * Загружает ключ сервера и настраивает кэш сессий.
+     * @param keyStore         файл хранилища ключей.
+     * @param password         пароль хранилища и ключа.
+     * @param keyStoreType     тип хранилища ({@code PKCS12}, {@code JKS}).
+     * @param sessionCacheSize сколько сессий помнить для возобновления (0 — без ограничения).
+     * @param sessionTimeout   сколько помнить сессию.
+     * @param sessionTickets   выдавать ли клиентам билеты сессий. Свойство общее для всей JVM
+     *                         и действует, если задано до первого использования TLS.
+     * @throws IOException если хранилище не читается или ключ не подходит.
+     */
+    public TlsContext(Path keyStore, String password, String keyStoreType,
+                      int sessionCacheSize, Duration sessionTimeout, boolean sessionTickets) throws IOException {
+        this.keyStore = keyStore;
+        // явно заданное при запуске (-Djdk.tls.server.enableSessionTicketExtension) не перекрываем
+        if (System.getProperty(SESSION_TICKETS_PROPERTY) == null)
+            System.setProperty(SESSION_TICKETS_PROPERTY, String.valueOf(sessionTickets));
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            final var store = KeyStore.getInstance(keyStoreType);
+            store.load(in, password.toCharArray());
+            final var keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(store, password.toCharArray());
+            context = SSLContext.getInstance("TLS");
+            context.init(keys.getKeyManagers(), null, null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Не удалось загрузить ключ сервера из " + keyStore + ": " + e.getMessage(), e);
+        }
+        final var sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout((int) Math.min(Integer.MAX_VALUE, sessionTimeout.toSeconds()));
+    }
+
+    @Override
+    public String toString() {
+        final var sessions = context.getServerSessionContext();
+        return "TlsContext [%s, кэш сессий %d на %d с]"
+                .formatted(keyStore, sessions.getSessionCacheSize(), sessions.getSessionTimeout());
+    }
+
+    /**
+     * Возвращает настроенный контекст JSSE.
+     * @return значение поля context.
+     */
+    public SSLContext getSslContext() {
+        return context;
+    }
+
+    /**
+     * Оборачивает принятое подключение в TLS. Рукопожатие откладывается до первого чтения.
+     * @param socket    подключение от клиента.
+     * @param protocols протоколы для ALPN в порядке предпочтения сервера.
+     * @return подключение, читающее и пишущее открытый текст.
+     * @throws IOException если потоки подключения недоступны.
+     */
+    TlsSocket wrap(Socket socket, List<String> protocols) throws IOException {
+        final var engine = context.createSSLEngine(
+                socket.getInetAddress().getHostAddress(), socket.getPort());
+        engine.setUseClientMode(false);
+        // первый из наших протоколов, предложенный клиентом; без общего — соединение без ALPN
+        engine.setHandshakeApplicationProtocolSelector((e, offered) -> {
+            for (String protocol : protocols)
+                if (offered.contains(protocol)) return protocol;
+            return "";
+        });
+        return new TlsSocket(socket, engine);
+    }
+}
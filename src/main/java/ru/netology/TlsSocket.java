@@ -0,0 +1,410 @@
+package ru.netology;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Подключение TLS поверх обычного сокета: шифрование ведёт {@link SSLEngine}, а наружу
+ * подключение выглядит обычным {@link Socket} с потоками открытого текста, так что
+ * обработка запросов, WebSocket, потоки событий и HTTP/2 работают с ним без изменений.
+ * <p>
+ * Рукопожатие выполняется при первом чтении или записи, то есть в рабочем потоке и под
+ * таймаутами, которые выставлены сокету. Чтение и запись идут под разными замками
+ * и могут выполняться одновременно (как в соединениях HTTP/2 и WebSocket).
+ */
+final class TlsSocket extends Socket {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Socket raw;
+    private final SSLEngine engine;
+    private final InputStream rawIn;
+    private final OutputStream rawOut;
+    private final Object handshakeLock = new Object();
+    private final Object readLock = new Object();
+    /**
+     * Запись может зависнуть на медленном клиенте; закрытие не ждёт её, а закрывает сокет.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean handshaken = false;
+    /**
+     * Неудавшееся рукопожатие не повторяется (например, при попытке ответить об ошибке).
+     */
+    private volatile IOException handshakeFailure;
+
+    // все буферы — в режиме записи: данные лежат от 0 до position
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    private ByteBuffer netOut;
+
+    private final InputStream in = new TlsInputStream();
+    private final OutputStream out = new TlsOutputStream();
+
+    /**
+     * Оборачивает принятое подключение.
+     * @param raw    подключение от клиента.
+     * @param engine настроенный для сервера механизм TLS.
+     * @throws IOException если потоки подключения недоступны.
+     */
+    TlsSocket(Socket raw, SSLEngine engine) throws IOException {
+        this.raw = raw;
+        this.engine = engine;
+        this.rawIn = raw.getInputStream();
+        this.rawOut = raw.getOutputStream();
+        final var session = engine.getSession();
+        netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+    }
+
+    /**
+     * Выполняет рукопожатие, если оно ещё не выполнено.
+     * @throws IOException если рукопожатие не удалось или клиент ушёл.
+     */
+    void handshake() throws IOException {
+        if (handshaken) return;
+        synchronized (handshakeLock) {
+            if (handshaken) return;
+            if (handshakeFailure != null) throw new SSLException("Handshake failed", handshakeFailure);
+            try {
+                doHandshake();
+            } catch (IOException e) {
+                handshakeFailure = e;
+                throw e;
+            }
+        }
+    }
+
+    private void doHandshake() throws IOException {
+        final long started = System.currentTimeMillis();
+        engine.beginHandshake();
+        while (!handshaken) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runTasks();
+                    break;
+                case NEED_WRAP:
+                    writeLock.lock();
+                    try {
+                        wrap(EMPTY);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    synchronized (readLock) {
+                        if (!unwrap()) throw new SSLHandshakeException("Connection closed during handshake");
+                    }
+                    break;
+                default:
+                    handshaken = true;
+            }
+        }
+        final var session = engine.getSession();
+        System.out.printf("TLS %s %s %s%s%s%n", raw.getRemoteSocketAddress(),       // мониторинг
+                session.getProtocol(), session.getCipherSuite(),
+                engine.getApplicationProtocol() == null || engine.getApplicationProtocol().isEmpty() ?
+                        "" : " " + engine.getApplicationProtocol(),
+                session.getCreationTime() < started ? " (сессия возобновлена)" : "");
+    }
+
+    /**
+     * Возвращает протокол, согласованный через ALPN.
+     * @return имя протокола или пустая строка, если не согласовывался.
+     * @throws IOException если рукопожатие не удалось.
+     */
+    String getApplicationProtocol() throws IOException {
+        handshake();
+        final var protocol = engine.getApplicationProtocol();
+        return protocol == null ? "" : protocol;
+    }
+
+    /**
+     * Возвращает параметры сессии TLS.
+     * @return сессия (до рукопожатия — пустая).
+     */
+    SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    /**
+     * Расшифровывает очередную порцию записей от клиента, дочитывая их из сокета.
+     * Вызывается под {@code readLock}.
+     * @return false, если клиент закрыл соединение.
+     */
+    private boolean unwrap() throws IOException {
+        while (true) {
+            netIn.flip();
+            final SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case OK:
+                    if (result.bytesConsumed() > 0 || result.bytesProduced() > 0 ||
+                            result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK ||
+                            result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP)
+                        return true;
+                    break;
+                case BUFFER_OVERFLOW:
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                    continue;
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining()) netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                    break;
+                case CLOSED:
+                    return false;
+            }
+            final int n = rawIn.read(netIn.array(), netIn.position(), netIn.remaining());
+            if (n < 0) {
+                try {
+                    engine.closeInbound();
+                } catch (SSLException e) {
+                    // клиент закрыл подключение без close_notify
+                }
+                return false;
+            }
+            netIn.position(netIn.position() + n);
+        }
+    }
+
+    /**
+     * Шифрует данные и отправляет получившиеся записи. Вызывается под {@code writeLock}.
+     * @param src данные; пустой буфер — отправить то, что требует рукопожатие или закрытие.
+     */
+    private void wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            netOut.clear();
+            final var result = engine.wrap(src, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut = ByteBuffer.allocate(Math.max(engine.getSession().getPacketBufferSize(), netOut.capacity() * 2));
+                continue;
+            }
+            if (netOut.position() > 0) rawOut.write(netOut.array(), 0, netOut.position());
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                if (src.hasRemaining()) throw new SocketException("Socket is closed");
+                return;
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) runTasks();
+            if (!src.hasRemaining() && engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP)
+                return;
+        }
+    }
+
+    /**
+     * Отвечает на служебные сообщения, пришедшие после рукопожатия (новые ключи, билеты сессии).
+     */
+    private void afterUnwrap() throws IOException {
+        switch (engine.getHandshakeStatus()) {
+            case NEED_TASK:
+                runTasks();
+                break;
+            case NEED_WRAP:
+                writeLock.lock();
+                try {
+                    wrap(EMPTY);
+                } finally {
+                    writeLock.unlock();
+                }
+                break;
+            default:
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null)
+            task.run();
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int atLeast) {
+        final var bigger = ByteBuffer.allocate(Math.max(atLeast, buffer.capacity() * 2));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * Закрывает подключение, по возможности отправив клиенту close_notify.
+     * Если идёт запись (возможно, зависшая), сокет закрывается сразу.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            raw.close();
+            return;
+        }
+        try {
+            if (handshaken && writeLock.tryLock()) {
+                try {
+                    engine.closeOutbound();
+                    wrap(EMPTY);
+                } catch (IOException e) {
+                    // клиент уже ушёл
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } finally {
+            raw.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get() || raw.isClosed();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return raw.isConnected();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return raw.getInetAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return raw.getLocalAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return raw.getPort();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return raw.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return raw.getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return raw.getLocalSocketAddress();
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        raw.setSoTimeout(timeout);
+    }
+
+    @Override
+    public int getSoTimeout() throws SocketException {
+        return raw.getSoTimeout();
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException {
+        raw.setTcpNoDelay(on);
+    }
+
+    @Override
+    public boolean getTcpNoDelay() throws SocketException {
+        return raw.getTcpNoDelay();
+    }
+
+    @Override
+    public String toString() {
+        return "TlsSocket[" + raw + "]";
+    }
+
+    private class TlsInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            final var one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            handshake();
+            synchronized (readLock) {
+                while (appIn.position() == 0) {
+                    if (!unwrap()) return -1;
+                    afterUnwrap();
+                }
+                appIn.flip();
+                final int n = Math.min(len, appIn.remaining());
+                appIn.get(b, off, n);
+                appIn.compact();
+                return n;
+            }
+        }
+
+        /**
+         * Оценка: расшифрованное и ещё не расшифрованное, что уже пришло.
+         */
+        @Override
+        public int available() throws IOException {
+            return appIn.position() + rawIn.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            TlsSocket.this.close();
+        }
+    }
+
+    private class TlsOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            handshake();
+            writeLock.lock();
+            try {
+                wrap(ByteBuffer.wrap(b, off, len));
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            rawOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            TlsSocket.this.close();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package ru.netology;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Запись входящих запросов HTTP/1.1 в компактный двоичный журнал для воспроизведения
+ * ({@link TrafficReplay}). Записываются байты запроса в том виде, в каком их читает
+ * {@link Request#fromInputStream}, вместе с моментом приёма, статусом ответа и временем обработки.
+ * Значения заголовков из списка скрытых заменяются звёздочками той же длины, так что
+ * размеры запроса не меняются.
+ * <p>
+ * Запись делается по окончании обработки, поэтому в журнале запросы идут в порядке завершения;
+ * порядок приёма восстанавливается по смещению записи.
+ * Подключения, переданные долгоживущим обработчикам (WebSocket, поток событий, HTTP/2),
+ * не записываются.
+ * <p>
+ * Формат: заголовок файла — {@code int} {@value #MAGIC}, {@code short} версия, {@code long} время
+ * начала записи (мс от эпохи); затем записи — {@code long} смещение от начала записи (мкс),
+ * {@code long} время обработки (мкс), {@code short} статус, {@code byte} признаки
+ * ({@code 1} — запрос обрезан), {@code int} длина, байты запроса.
+ */
+public class TrafficCapture implements Closeable {
+    static final int MAGIC = 0x4E544331;     // "NTC1"
+    private static final short VERSION = 1;
+    private static final byte TRUNCATED = 1;
+
+    private final Path file;
+    private final Set<String> redactedHeaders = new HashSet<>();
+    private final int maxRequestSize;
+    private final long startedAt = System.nanoTime();
+    private final DataOutputStream out;
+    private final AtomicLong recorded = new AtomicLong();
+
+    /**
+     * Открывает журнал для записи (существующий файл перезаписывается).
+     * @param file            файл журнала.
+     * @param redactedHeaders имена заголовков, значения которых скрываются (без учёта регистра).
+     * @param maxRequestSize  сколько байт запроса записывать; остальное отбрасывается.
+     * @throws IOException если файл не открывается.
+     */
+    public TrafficCapture(Path file, Collection<String> redactedHeaders, int maxRequestSize) throws IOException {
+        this.file = file;
+        for (String header : redactedHeaders)
+            this.redactedHeaders.add(header.trim().toLowerCase(Locale.ROOT));
+        this.maxRequestSize = maxRequestSize;
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Оборачивает входной поток подключения так, что прочитанное из него запоминается.
+     * @param in входной поток подключения.
+     * @return поток для разбора запроса.
+     */
+    Tee tee(InputStream in) {
+        return new Tee(in, maxRequestSize);
+    }
+
+    /**
+     * Записывает запрос, прочитанный через поток {@code tee}, и результат его обработки.
+     * @param tee   поток, через который читался запрос.
+     * @param trace хронометраж завершённого подключения.
+     */
+    void record(Tee tee, RequestTrace trace) {
+        if (tee.captured.size() == 0) return;   // клиент ничего не прислал
+        final byte[] bytes = tee.captured.toByteArray();
+        redact(bytes);
+        final long offset = Math.max(0, trace.getAcceptedAt() - startedAt);
+        try {
+            synchronized (out) {
+                out.writeLong(TimeUnit.NANOSECONDS.toMicros(offset));
+                out.writeLong(TimeUnit.NANOSECONDS.toMicros(trace.getTotalNanos()));
+                out.writeShort(trace.getStatus());
+                out.writeByte(tee.truncated ? TRUNCATED : 0);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            recorded.incrementAndGet();
+        } catch (IOException e) {
+            System.out.println("CAPTURE_ERROR");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Заменяет звёздочками значения скрываемых заголовков (только в блоке заголовков запроса).
+     * @param bytes байты запроса.
+     */
+    private void redact(byte[] bytes) {
+        if (redactedHeaders.isEmpty()) return;
+        int line = 0;
+        // первая строка — строка запроса, пустая строка — конец заголовков
+        while (line < bytes.length) {
+            int end = line;
+            while (end < bytes.length && bytes[end] != '\n') end++;
+            final int contentEnd = end > line && bytes[end - 1] == '\r' ? end - 1 : end;
+            if (contentEnd == line) return;
+            if (line > 0) {
+                int colon = line;
+                while (colon < contentEnd && bytes[colon] != ':') colon++;
+                if (colon < contentEnd) {
+                    final var name = new String(bytes, line, colon - line, StandardCharsets.ISO_8859_1)
+                            .trim().toLowerCase(Locale.ROOT);
+                    if (redactedHeaders.contains(name)) {
+                        int value = colon + 1;
+                        while (value < contentEnd && bytes[value] == ' ') value++;
+                        for (int i = value; i < contentEnd; i++) bytes[i] = '*';
+                    }
+                }
+            }
+            line = end + 1;
+        }
+    }
+
+    /**
+     * Возвращает число записанных запросов.
+     * @return значение поля recorded.
+     */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficCapture [%s, записано запросов %d]".formatted(file, recorded.get());
+    }
+
+    /**
+     * Входной поток, запоминающий прочитанное (не больше заданного размера).
+     */
+    static final class Tee extends FilterInputStream {
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        private final int limit;
+        private volatile boolean stopped = false;
+        private boolean truncated = false;
+
+        private Tee(InputStream in, int limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0 && !stopped) {
+                if (captured.size() < limit) captured.write(b);
+                else truncated = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0 && !stopped) {
+                final int room = Math.min(n, limit - captured.size());
+                if (room > 0) captured.write(b, off, room);
+                if (room < n) truncated = true;
+            }
+            return n;
+        }
+
+        /**
+         * Перестаёт запоминать: подключение обработано или передано долгоживущему обработчику.
+         */
+        void stop() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Чтение журнала, записанного {@link TrafficCapture}.
+     */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startedAtMillis;
+
+        /**
+         * Открывает журнал и проверяет его заголовок.
+         * @param file файл журнала.
+         * @throws IOException если файл не читается или это не журнал запросов.
+         */
+        public Reader(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+            try {
+                if (in.readInt() != MAGIC) throw new IOException("Не журнал запросов: " + file);
+                final short version = in.readShort();
+                if (version != VERSION) throw new IOException("Неизвестная версия журнала " + version + ": " + file);
+                startedAtMillis = in.readLong();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Возвращает время начала записи.
+         * @return значение поля startedAtMillis, мс от эпохи.
+         */
+        public long getStartedAtMillis() {
+            return startedAtMillis;
+        }
+
+        /**
+         * Читает очередную запись.
+         * @return запись или {@code null}, если журнал кончился.
+         * @throws IOException если журнал повреждён.
+         */
+        public Record next() throws IOException {
+            final long offset;
+            try {
+                offset = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            final long latency = in.readLong();
+            final int status = in.readShort();
+            final byte flags = in.readByte();
+            final int length = in.readInt();
+            if (length < 0) throw new IOException("Повреждённая запись журнала");
+            final byte[] bytes = in.readNBytes(length);
+            if (bytes.length < length) throw new EOFException("Журнал оборван");
+            return new Record(offset, latency, status, (flags & TRUNCATED) != 0, bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Записанный запрос.
+     */
+    public static final class Record {
+        private final long offsetMicros;
+        private final long latencyMicros;
+        private final int status;
+        private final boolean truncated;
+        private final byte[] bytes;
+
+        private Record(long offsetMicros, long latencyMicros, int status, boolean truncated, byte[] bytes) {
+            this.offsetMicros = offsetMicros;
+            this.latencyMicros = latencyMicros;
+            this.status = status;
+            this.truncated = truncated;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Возвращает момент приёма запроса от начала записи.
+         * @return значение поля offsetMicros, мкс.
+         */
+        public long getOffsetMicros() {
+            return offsetMicros;
+        }
+
+        /**
+         * Возвращает исходное время обработки (от приёма подключения до конца ответа).
+         * @return значение поля latencyMicros, мкс.
+         */
+        public long getLatencyMicros() {
+            return latencyMicros;
+        }
+
+        /**
+         * Возвращает исходный статус ответа (0 — ответа не было).
+         * @return значение поля status.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Возвращает, обрезан ли запрос при записи.
+         * @return значение поля truncated.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * Возвращает байты запроса.
+         * @return значение поля bytes.
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Возвращает строку запроса для отчётов.
+         * @return первая строка запроса.
+         */
+        public String getRequestLine() {
+            int end = 0;
+            while (end < bytes.length && end < 200 && bytes[end] != '\r' && bytes[end] != '\n') end++;
+            return new String(bytes, 0, end, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Воспроизведение журнала запросов, записанного {@link TrafficCapture}: байты каждого запроса
+ * отправляются на Сервер по отдельному подключению в порядке журнала, а статус и время ответа
+ * сравниваются с записанными. Обрезанные при записи запросы пропускаются.
+ * <p>
+ * Режимы ({@code pacing}):
+ * <ul>
+ *     <li>{@code original} — с исходными промежутками (ускоренными в {@code speed} раз) в порядке
+ *     приёма запросов, для чего журнал сначала читается целиком; задержка считается
+ *     от запланированного момента отправки, как в {@link LoadGenerator};</li>
+ *     <li>{@code fast} — так быстро, как позволяют {@code concurrency} подключений одновременно.</li>
+ * </ul>
+ * Параметры задаются в виде {@code ключ=значение}, например:
+ * {@code file=capture.bin pacing=original speed=2 concurrency=64 timeout=30 target=http://localhost:9999}.
+ * Без {@code target} поднимается встроенный Сервер, настроенный так же, как {@link Main}.
+ */
+public class TrafficReplay {
+    private static final int MAX_EXAMPLES = 10;
+
+    private final Path file;
+    private final String host;
+    private final int port;
+    private final boolean originalPacing;
+    private final double speed;
+    private final int concurrency;
+    private final int timeoutMillis;
+
+    private final LatencyHistogram originalLatencies = new LatencyHistogram();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    /**
+     * Число расхождений по паре «записанный статус → полученный» и первые примеры.
+     */
+    private final Map<String, AtomicLong> mismatches = new ConcurrentHashMap<>();
+    private final Queue<String> examples = new ConcurrentLinkedQueue<>();
+    private final AtomicLong exampleCount = new AtomicLong();
+
+    TrafficReplay(String baseUri, Map<String, String> options) {
+        final var uri = URI.create(baseUri);
+        this.host = uri.getHost();
+        this.port = uri.getPort() < 0 ? 80 : uri.getPort();
+        this.file = Path.of(options.getOrDefault("file", "capture.bin"));
+        final var pacing = options.getOrDefault("pacing", "original");
+        if (!"original".equals(pacing) && !"fast".equals(pacing))
+            throw new IllegalArgumentException("pacing: original или fast, а не " + pacing);
+        this.originalPacing = "original".equals(pacing);
+        this.speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+        if (speed <= 0) throw new IllegalArgumentException("speed должен быть больше 0");
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        this.timeoutMillis = (int) TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("timeout", "30")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        Server server = null;
+        String target = options.get("target");
+        if (target == null) {
+            // встроенный сервер настраивается как боевой, но на свободном порту и без записи
+            final var config = ServerConfig.fromEnvironment(Path.of(Main.CONFIG_FILE)).port(0).capture(null);
+            server = new Server(config.build());
+            SiteRoutes.register(server);
+            server.start();
+            int port = server.awaitLocalPort();
+            if (port < 0) throw new IOException("Встроенный сервер не смог открыть порт");
+            target = "http://localhost:" + port;
+            System.out.println("Встроенный сервер слушает порт " + port);
+        }
+
+        try {
+            new TrafficReplay(target, options).run();
+        } finally {
+            if (server != null) server.stopServer();
+        }
+    }
+
+    /**
+     * Воспроизводит журнал и печатает отчёт.
+     */
+    void run() throws IOException, InterruptedException {
+        final ExecutorService senders = Executors.newFixedThreadPool(concurrency, r -> {
+            final var thread = new Thread(r, "replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var slots = new Semaphore(concurrency);
+        final long capturedAt;
+        final long start;
+        try (var reader = new TrafficCapture.Reader(file)) {
+            capturedAt = reader.getStartedAtMillis();
+            if (originalPacing) {
+                // журнал упорядочен по завершению, а расписание строится по моменту приёма:
+                // иначе долгий запрос, принятый рано, ушёл бы позже на своё время обработки
+                final List<TrafficCapture.Record> schedule = new ArrayList<>();
+                TrafficCapture.Record record;
+                while ((record = reader.next()) != null)
+                    if (isReplayable(record)) schedule.add(record);
+                schedule.sort(Comparator.comparingLong(TrafficCapture.Record::getOffsetMicros));
+                start = System.nanoTime();
+                for (TrafficCapture.Record scheduled : schedule) {
+                    final long intended = start +
+                            (long) (TimeUnit.MICROSECONDS.toNanos(scheduled.getOffsetMicros()) / speed);
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(wait);
+                    senders.execute(() -> replay(scheduled, intended));
+                }
+            } else {
+                start = System.nanoTime();
+                TrafficCapture.Record record;
+                while ((record = reader.next()) != null) {
+                    if (!isReplayable(record)) continue;
+                    slots.acquire();
+                    final long intended = System.nanoTime();
+                    final var current = record;
+                    senders.execute(() -> {
+                        try {
+                            replay(current, intended);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+            }
+        }
+        senders.shutdown();
+        senders.awaitTermination(1, TimeUnit.HOURS);
+        report(capturedAt, System.nanoTime() - start);
+    }
+
+    /**
+     * Учитывает запись журнала; обрезанные при записи запросы пропускаются.
+     * @param record запись журнала.
+     * @return {@code true}, если запрос можно воспроизвести.
+     */
+    private boolean isReplayable(TrafficCapture.Record record) {
+        records.incrementAndGet();
+        if (!record.isTruncated()) return true;
+        skipped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Отправляет один записанный запрос и сравнивает ответ с записанным.
+     * @param record   запись журнала.
+     * @param intended момент, от которого отсчитывается задержка.
+     */
+    private void replay(TrafficCapture.Record record, long intended) {
+        final int status;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            try {
+                final OutputStream out = socket.getOutputStream();
+                out.write(record.getBytes());
+                out.flush();
+            } catch (IOException e) {
+                // сервер мог ответить (413, 408) и закрыть подключение, не дочитав запрос
+            }
+            final InputStream in = socket.getInputStream();
+            status = readStatus(in);
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            errors.incrementAndGet();
+            return;
+        }
+        latencies.recordNanos(System.nanoTime() - intended);
+        originalLatencies.record(record.getLatencyMicros());
+        replayed.incrementAndGet();
+        if (status == record.getStatus()) {
+            matched.incrementAndGet();
+            return;
+        }
+        final var pair = record.getStatus() + " → " + status;
+        mismatches.computeIfAbsent(pair, k -> new AtomicLong()).incrementAndGet();
+        if (exampleCount.incrementAndGet() <= MAX_EXAMPLES)
+            examples.add(pair + "\t" + record.getRequestLine());
+    }
+
+    /**
+     * Считывает статус окончательного ответа, пропуская промежуточные (1xx, кроме 101).
+     * @param in входной поток подключения.
+     * @return код статуса; 0 — сервер закрыл подключение, не ответив.
+     * @throws IOException при ошибке связи.
+     */
+    private static int readStatus(InputStream in) throws IOException {
+        while (true) {
+            final var line = readLine(in);
+            if (line == null) return 0;
+            final var parts = line.split(" ", 3);
+            final int status;
+            try {
+                status = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+            if (status >= 200 || status == 101 || status < 100) return status;
+            String header;
+            while ((header = readLine(in)) != null && !header.isEmpty()) {
+                // заголовки промежуточного ответа не нужны
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        final var line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') return line.toString();
+            if (b != '\r') line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private void report(long capturedAt, long elapsedNanos) {
+        final double seconds = elapsedNanos / 1e9;
+        System.out.printf("%n\tВОСПРОИЗВЕДЕНИЕ (%s от %s, %s, подключений до %d)%n",
+                file, Instant.ofEpochMilli(capturedAt),
+                originalPacing ? "исходный темп ×" + speed : "без пауз", concurrency);
+        System.out.printf("записей\t\t= %d%nпропущено\t= %d (обрезаны при записи)%nвоспроизведено\t= %d%n" +
+                        "ошибок связи\t= %d%nстатус совпал\t= %d (%.1f%%)%nпропускная\t= %.1f запр/с%n",
+                records.get(), skipped.get(), replayed.get(), errors.get(), matched.get(),
+                replayed.get() == 0 ? 0.0 : 100.0 * matched.get() / replayed.get(), replayed.get() / seconds);
+        if (!mismatches.isEmpty()) {
+            System.out.println("расхождения статусов (записан → получен):");
+            new TreeMap<>(mismatches).forEach((pair, count) -> System.out.printf("\t%s: %d%n", pair, count.get()));
+            System.out.println("примеры:");
+            for (String example : examples)
+                System.out.println("\t" + example);
+        }
+        System.out.println("записано\t" + originalLatencies.summary());
+        System.out.println("получено\t" + latencies.summary());
+    }
+}
@@ -0,0 +1,176 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Хранилище загрузок по содержимому.
+ * <p>
+ * Файл сохраняется под именем {@code <sha-256>.<расширение>}, поэтому одинаковые загрузки
+ * занимают место один раз: если такое содержимое уже есть, запись на диск не выполняется.
+ * Новое содержимое пишется через {@link FileChannel} во временный файл, сбрасывается на диск
+ * и атомарно переименовывается, так что в хранилище никогда не бывает недописанных файлов.
+ * Вся работа с диском идёт в отдельном пуле ввода-вывода; результат — будущее,
+ * которое завершается, когда данные надёжно записаны.
+ */
+public class UploadStore {
+    private static final int WRITE_CHUNK = 64 * 1024;
+
+    private final Path directory;
+    private final ExecutorService io;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    /**
+     * Создаёт хранилище в указанной директории (создаёт её при необходимости).
+     * @param directory директория хранилища.
+     * @param ioThreads число потоков ввода-вывода.
+     * @throws IOException если директорию не удалось создать.
+     */
+    public UploadStore(Path directory, int ioThreads) throws IOException {
+        this.directory = Files.createDirectories(directory).toAbsolutePath().normalize();
+        final var counter = new AtomicLong();
+        this.io = Executors.newFixedThreadPool(ioThreads, r -> {
+            final var thread = new Thread(r, "upload-io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "UploadStore %s: записано %d, совпало с имеющимися %d"
+                .formatted(directory, written.get(), deduplicated.get());
+    }
+
+    /**
+     * Сохраняет содержимое в хранилище.
+     * @param data          содержимое.
+     * @param fileExtension расширение исходного файла (без точки); подозрительные заменяются на "bin".
+     * @return будущее с результатом, завершающееся после надёжной записи.
+     */
+    public CompletableFuture<StoredUpload> store(byte[] data, String fileExtension) {
+        return store(ByteBuffer.wrap(data), fileExtension);
+    }
+
+    /**
+     * Сохраняет содержимое буфера (от позиции до предела) в хранилище без промежуточного копирования.
+     * Содержимое буфера не должно меняться, пока будущее не завершится.
+     * @param data          буфер с содержимым; его позиция не сдвигается.
+     * @param fileExtension расширение исходного файла (без точки); подозрительные заменяются на "bin".
+     * @return будущее с результатом, завершающееся после надёжной записи.
+     */
+    public CompletableFuture<StoredUpload> store(ByteBuffer data, String fileExtension) {
+        final var content = data.duplicate();
+        final var extension = sanitizeExtension(fileExtension);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return persist(content, extension);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, io);
+    }
+
+    /**
+     * Возвращает директорию хранилища.
+     * @return значение поля directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Останавливает пул ввода-вывода, дав начатым записям завершиться.
+     */
+    public void shutdown() {
+        io.shutdown();
+    }
+
+    private StoredUpload persist(ByteBuffer data, String extension) throws IOException {
+        final var hash = sha256(data.duplicate());
+        final var size = data.remaining();
+        final var target = directory.resolve(hash + "." + extension);
+        if (Files.exists(target)) {
+            deduplicated.incrementAndGet();
+            return new StoredUpload(hash, target, size, true);
+        }
+
+        final var temp = Files.createTempFile(directory, hash, ".part");
+        try {
+            // пишем порциями через буфер вне кучи: иначе JDK сам заведёт и закэширует
+            // в потоке временный буфер размером со всю загрузку
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                 PooledBuffer chunk = BufferPool.direct().acquire(WRITE_CHUNK)) {
+                final var buffer = chunk.buffer();
+                while (data.hasRemaining()) {
+                    final var portion = data.slice().limit(Math.min(data.remaining(), buffer.capacity()));
+                    buffer.clear();
+                    buffer.put(portion).flip();
+                    data.position(data.position() + buffer.limit());
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // то же содержимое успела записать параллельная загрузка
+                deduplicated.incrementAndGet();
+                return new StoredUpload(hash, target, size, true);
+            }
+            syncDirectory();
+            written.incrementAndGet();
+            return new StoredUpload(hash, target, size, false);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Сбрасывает на диск саму директорию, чтобы переименование пережило сбой питания.
+     * Не на всех платформах директорию можно открыть как канал — там это пропускается.
+     */
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException ignored) {
+            // платформа не поддерживает сброс директорий
+        }
+    }
+
+    private static String sha256(ByteBuffer data) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+        digest.update(data);
+        final var hex = new StringBuilder(64);
+        for (byte b : digest.digest())
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    private static String sanitizeExtension(String extension) {
+        if (extension == null) return "bin";
+        final var lower = extension.toLowerCase(Locale.ROOT);
+        return lower.matches("[a-z0-9]{1,10}") ? lower : "bin";
+    }
+}
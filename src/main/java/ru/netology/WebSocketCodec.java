@@ -0,0 +1,172 @@
+package ru.netology;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Кодирование и разбор кадров WebSocket (RFC 6455, раздел 5) и вычисление ключа рукопожатия.
+ */
+final class WebSocketCodec {
+    static final int OP_CONTINUATION = 0x0;
+    static final int OP_TEXT = 0x1;
+    static final int OP_BINARY = 0x2;
+    static final int OP_CLOSE = 0x8;
+    static final int OP_PING = 0x9;
+    static final int OP_PONG = 0xA;
+
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private WebSocketCodec() {
+    }
+
+    /**
+     * Разобранный кадр. Объект и его буфер из пула переиспользуются от кадра к кадру,
+     * поэтому данные действительны только до следующего чтения.
+     * Когда кадр больше не нужен, буфер возвращается в пул методом {@link #release()}.
+     */
+    static final class Frame {
+        boolean fin;
+        int opcode;
+        private PooledBuffer buffer = BufferPool.heap().acquire(BufferPool.MIN_CLASS_SIZE);
+        byte[] payload = buffer.array();
+        int length;
+
+        boolean isControl() {
+            return (opcode & 0x8) != 0;
+        }
+
+        /**
+         * Обеспечивает место под данные кадра, меняя буфер на более вместительный из пула.
+         */
+        void ensureCapacity(int capacity) {
+            if (payload.length >= capacity) return;
+            buffer.close();
+            buffer = BufferPool.heap().acquire(capacity);
+            payload = buffer.array();
+        }
+
+        void release() {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Протокольная ошибка, при которой сессия закрывается с указанным кодом.
+     */
+    static final class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int closeCode;
+
+        ProtocolException(int closeCode, String message) {
+            super(message);
+            this.closeCode = closeCode;
+        }
+    }
+
+    /**
+     * Вычисляет значение заголовка Sec-WebSocket-Accept для ключа клиента.
+     * @param key значение заголовка Sec-WebSocket-Key.
+     * @return ключ подтверждения рукопожатия.
+     */
+    static String acceptKey(String key) {
+        try {
+            final var sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(
+                    sha1.digest((key.trim() + HANDSHAKE_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 недоступен", e);
+        }
+    }
+
+    /**
+     * Читает следующий кадр от клиента и снимает с него маску.
+     * @param in         входной поток подключения.
+     * @param frame      переиспользуемый кадр, в который пишется результат.
+     * @param maxPayload наибольшая допустимая длина данных кадра.
+     * @return тот же объект кадра.
+     * @throws IOException при ошибке связи, обрыве или нарушении протокола.
+     */
+    static Frame read(InputStream in, Frame frame, long maxPayload) throws IOException {
+        final int b0 = readByte(in);
+        final int b1 = readByte(in);
+        if ((b0 & 0x70) != 0)
+            throw new ProtocolException(WebSocketSession.PROTOCOL_ERROR, "Reserved bits set");
+        frame.fin = (b0 & 0x80) != 0;
+        frame.opcode = b0 & 0x0F;
+        if ((b1 & 0x80) == 0)
+            throw new ProtocolException(WebSocketSession.PROTOCOL_ERROR, "Client frame is not masked");
+
+        long length = b1 & 0x7F;
+        if (length == 126) {
+            length = (readByte(in) << 8) | readByte(in);
+        } else if (length == 127) {
+            length = 0;
+            for (int i = 0; i < 8; i++)
+                length = (length << 8) | readByte(in);
+            if (length < 0)
+                throw new ProtocolException(WebSocketSession.PROTOCOL_ERROR, "Invalid frame length");
+        }
+        if (frame.isControl() && (length > 125 || !frame.fin))
+            throw new ProtocolException(WebSocketSession.PROTOCOL_ERROR, "Invalid control frame");
+        if (length > maxPayload)
+            throw new ProtocolException(WebSocketSession.MESSAGE_TOO_BIG, "Frame too big");
+
+        final byte[] mask = {(byte) readByte(in), (byte) readByte(in), (byte) readByte(in), (byte) readByte(in)};
+        final int len = (int) length;
+        frame.ensureCapacity(len);
+        readFully(in, frame.payload, len);
+        for (int i = 0; i < len; i++)
+            frame.payload[i] ^= mask[i & 3];
+        frame.length = len;
+        return frame;
+    }
+
+    /**
+     * Записывает кадр сервера (без маски).
+     * @param out    буферизованный выходной поток подключения.
+     * @param fin    последний ли это кадр сообщения.
+     * @param opcode код кадра.
+     * @param data   массив с данными.
+     * @param off    начало данных в массиве.
+     * @param len    длина данных.
+     * @throws IOException при ошибке связи.
+     */
+    static void write(OutputStream out, boolean fin, int opcode, byte[] data, int off, int len) throws IOException {
+        // заголовок пишется побайтно в буферизованный поток, без промежуточного массива
+        out.write((fin ? 0x80 : 0) | opcode);
+        if (len < 126) {
+            out.write(len);
+        } else if (len <= 0xFFFF) {
+            out.write(126);
+            out.write(len >>> 8);
+            out.write(len);
+        } else {
+            out.write(127);
+            for (int i = 0; i < 8; i++)
+                out.write((int) ((long) len >>> (56 - 8 * i)));
+        }
+        out.write(data, off, len);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        final int b = in.read();
+        if (b < 0) throw new EOFException("WebSocket connection closed");
+        return b;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(buffer, read, length - read);
+            if (n < 0) throw new EOFException("WebSocket connection closed");
+            read += n;
+        }
+    }
+}
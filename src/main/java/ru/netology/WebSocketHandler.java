@@ -0,0 +1,46 @@
+package ru.netology;
+
+import java.io.IOException;
+
+/**
+ * Обработчик сообщений подключения WebSocket (RFC 6455).
+ * Методы вызываются из потока чтения сессии по порядку поступления сообщений;
+ * фрагментированные сообщения передаются уже собранными.
+ */
+public interface WebSocketHandler {
+    /**
+     * Вызывается после успешного рукопожатия.
+     * @param session открытая сессия.
+     * @throws IOException при ошибке отправки.
+     */
+    default void onOpen(WebSocketSession session) throws IOException {
+    }
+
+    /**
+     * Вызывается при получении текстового сообщения.
+     * @param session сессия, из которой пришло сообщение.
+     * @param message текст сообщения.
+     * @throws IOException при ошибке отправки.
+     */
+    void onText(WebSocketSession session, String message) throws IOException;
+
+    /**
+     * Вызывается при получении двоичного сообщения.
+     * По умолчанию такие сообщения не поддерживаются и сессия закрывается с кодом 1003.
+     * @param session сессия, из которой пришло сообщение.
+     * @param message байты сообщения.
+     * @throws IOException при ошибке отправки.
+     */
+    default void onBinary(WebSocketSession session, byte[] message) throws IOException {
+        session.close(WebSocketSession.UNSUPPORTED_DATA, "Binary messages are not supported");
+    }
+
+    /**
+     * Вызывается один раз, когда сессия закрыта (по инициативе любой стороны или из-за ошибки).
+     * @param session закрытая сессия.
+     * @param code    код закрытия.
+     * @param reason  причина закрытия (может быть пустой).
+     */
+    default void onClose(WebSocketSession session, int code, String reason) {
+    }
+}
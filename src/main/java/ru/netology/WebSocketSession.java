@@ -0,0 +1,649 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Открытое подключение WebSocket: читает кадры клиента, собирает фрагментированные сообщения,
+ * отвечает на ping, сам периодически шлёт ping и передаёт сообщения {@link WebSocketHandler}.
+ * <p>
+ * Чтение идёт в отдельном потоке общего пула сессий, поэтому рабочий поток сервера
+ * освобождается сразу после рукопожатия. Отправка потокобезопасна: {@link #send(String)}
+ * пишет сразу, {@link #offer(String)} ставит сообщение в ограниченную очередь сессии,
+ * которую вычерпывает общий пул писателей. Сессия, запись в которую зависла дольше
+ * отведённого срока или чья очередь переполнилась, обрывается.
+ * Буферы чтения и записи, кадра и сборки сообщения берутся из {@link BufferPool}
+ * и возвращаются в пул при закрытии сессии.
+ */
+public class WebSocketSession {
+    public static final int NORMAL_CLOSURE = 1000;
+    public static final int GOING_AWAY = 1001;
+    public static final int PROTOCOL_ERROR = 1002;
+    public static final int UNSUPPORTED_DATA = 1003;
+    public static final int INVALID_PAYLOAD = 1007;
+    public static final int MESSAGE_TOO_BIG = 1009;
+    public static final int INTERNAL_ERROR = 1011;
+
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(r -> {
+        final var thread = new Thread(r, "ws-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(r -> {
+        final var thread = new Thread(r, "ws-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ScheduledExecutorService KEEPALIVE = Executors.newSingleThreadScheduledExecutor(r -> {
+        final var thread = new Thread(r, "ws-keepalive");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicLong ids = new AtomicLong();
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+    /**
+     * Сколько сообщений и служебных кадров может ждать отправки в очереди сессии.
+     */
+    public static final int SEND_QUEUE_SIZE = 64;
+
+    private final long id = ids.incrementAndGet();
+    private final Socket socket;
+    private final PooledInputStream in;
+    private final PooledOutputStream out;
+    private final WebSocketHandler handler;
+    private final String path;
+    private final int maxMessageSize;
+    private final int maxFrameSize;
+    private final long pingIntervalMillis;
+    private final long writeTimeoutMillis;
+    private final ArrayBlockingQueue<Outbound> outbound = new ArrayBlockingQueue<>(SEND_QUEUE_SIZE);
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    /**
+     * Момент начала текущей записи в подключение, 0 — запись не идёт.
+     */
+    private volatile long writeSince = 0;
+
+    private final AtomicBoolean closeSent = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private ScheduledFuture<?> pinger;
+    private ScheduledFuture<?> writeWatchdog;
+    private Runnable onTerminate = () -> { };
+
+    /**
+     * Создаёт сессию поверх подключения, на котором уже завершено рукопожатие.
+     * @param socket             подключение.
+     * @param handler            обработчик сообщений.
+     * @param path               путь, по которому открыта сессия.
+     * @param maxMessageSize     наибольший размер собранного сообщения от клиента.
+     * @param pingIntervalMillis период отправки ping (0 — не отправлять).
+     * @param writeTimeoutMillis сколько может длиться одна запись, прежде чем сессия
+     *                           будет оборвана (0 — без ограничения).
+     * @throws IOException если не удалось получить потоки подключения.
+     */
+    WebSocketSession(Socket socket, WebSocketHandler handler, String path,
+                     int maxMessageSize, long pingIntervalMillis, long writeTimeoutMillis) throws IOException {
+        this.socket = socket;
+        this.in = new PooledInputStream(socket.getInputStream());
+        this.out = new PooledOutputStream(socket.getOutputStream());
+        this.handler = handler;
+        this.path = path;
+        this.maxMessageSize = maxMessageSize;
+        this.maxFrameSize = 64 * 1024;
+        this.pingIntervalMillis = pingIntervalMillis;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    /**
+     * Проводит серверную часть рукопожатия по запросу на обновление протокола.
+     * @param request запрос клиента.
+     * @param out     исходящий поток подключения.
+     * @return {@code true}, если рукопожатие состоялось; иначе клиенту уже отправлена ошибка.
+     * @throws IOException при ошибке связи.
+     */
+    static boolean handshake(Request request, OutputStream out) throws IOException {
+        final var upgrade = request.getHeader("Upgrade");
+        final var key = request.getHeader("Sec-WebSocket-Key");
+        final var version = request.getHeader("Sec-WebSocket-Version");
+        if (upgrade.isEmpty() || !"websocket".equalsIgnoreCase(upgrade.get().trim()) || key.isEmpty()) {
+            out.write(("""
+                    HTTP/1.1 400 Bad Request\r
+                    Content-Length: 0\r
+                    Connection: close\r
+                    \r
+                    """).getBytes());
+            out.flush();
+            return false;
+        }
+        if (version.isEmpty() || !"13".equals(version.get().trim())) {
+            out.write(("""
+                    HTTP/1.1 426 Upgrade Required\r
+                    Sec-WebSocket-Version: 13\r
+                    Content-Length: 0\r
+                    Connection: close\r
+                    \r
+                    """).getBytes());
+            out.flush();
+            return false;
+        }
+        out.write(("""
+                HTTP/1.1 101 Switching Protocols\r
+                Upgrade: websocket\r
+                Connection: Upgrade\r
+                Sec-WebSocket-Accept: %s\r
+                \r
+                """).formatted(WebSocketCodec.acceptKey(key.get())).getBytes());
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Запускает чтение сессии в пуле сессий и периодический ping.
+     * @param onTerminate что сделать после окончательного закрытия сессии.
+     * @throws IOException если не удалось настроить подключение.
+     */
+    void start(Runnable onTerminate) throws IOException {
+        this.onTerminate = onTerminate;
+        // живость проверяем ping'ами; если клиент молчит два периода, чтение прервётся по таймауту
+        socket.setSoTimeout(pingIntervalMillis > 0 ? (int) (pingIntervalMillis * 2) : 0);
+        if (pingIntervalMillis > 0)
+            pinger = KEEPALIVE.scheduleAtFixedRate(this::keepAlive,
+                    pingIntervalMillis, pingIntervalMillis, TimeUnit.MILLISECONDS);
+        // SO_TIMEOUT действует только на чтение; зависшую запись обрывает сторож
+        if (writeTimeoutMillis > 0) {
+            final long period = Math.max(50, Math.min(1000, writeTimeoutMillis / 4));
+            writeWatchdog = KEEPALIVE.scheduleAtFixedRate(this::checkWrite, period, period, TimeUnit.MILLISECONDS);
+        }
+        READERS.execute(this::readLoop);
+    }
+
+    @Override
+    public String toString() {
+        return "WebSocket#" + id + " " + path + " " + getRemoteAddress();
+    }
+
+    /**
+     * Сообщает номер сессии, уникальный в пределах процесса.
+     * @return значение поля id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Сообщает путь, по которому открыта сессия.
+     * @return значение поля path.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Сообщает адрес клиента.
+     * @return адрес удалённой стороны подключения.
+     */
+    public SocketAddress getRemoteAddress() {
+        return socket.getRemoteSocketAddress();
+    }
+
+    /**
+     * Сообщает, открыта ли сессия для отправки.
+     * @return {@code true}, пока не отправлен кадр закрытия.
+     */
+    public boolean isOpen() {
+        return !closeSent.get() && !closed.get();
+    }
+
+    /**
+     * Отправляет текстовое сообщение, дожидаясь окончания записи.
+     * Запись, зависшая дольше отведённого срока, обрывает сессию.
+     * @param message текст.
+     * @throws IOException при ошибке связи или если сессия уже закрывается.
+     */
+    public void send(String message) throws IOException {
+        sendMessage(WebSocketCodec.OP_TEXT, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Отправляет двоичное сообщение, дожидаясь окончания записи.
+     * Запись, зависшая дольше отведённого срока, обрывает сессию.
+     * @param message байты сообщения.
+     * @throws IOException при ошибке связи или если сессия уже закрывается.
+     */
+    public void send(byte[] message) throws IOException {
+        sendMessage(WebSocketCodec.OP_BINARY, message);
+    }
+
+    /**
+     * Ставит текстовое сообщение в очередь отправки, не дожидаясь записи.
+     * Подходит для рассылки: медленный получатель не задерживает отправителя.
+     * @param message текст.
+     * @return {@code false}, если сессия закрывается или её очередь переполнена
+     * (тогда сессия обрывается).
+     */
+    public boolean offer(String message) {
+        return !closeSent.get() && enqueue(WebSocketCodec.OP_TEXT, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Ставит двоичное сообщение в очередь отправки, не дожидаясь записи.
+     * @param message байты сообщения; после вызова их нельзя менять.
+     * @return {@code false}, если сессия закрывается или её очередь переполнена
+     * (тогда сессия обрывается).
+     */
+    public boolean offer(byte[] message) {
+        return !closeSent.get() && enqueue(WebSocketCodec.OP_BINARY, message);
+    }
+
+    /**
+     * Начинает закрытие сессии: ставит в очередь кадр закрытия и ждёт ответного.
+     * Если клиент не ответит в течение пяти секунд, подключение закрывается принудительно.
+     * @param code   код закрытия.
+     * @param reason причина (не длиннее 123 байт в UTF-8).
+     */
+    public void close(int code, String reason) {
+        if (!closeSent.compareAndSet(false, true)) return;
+        if (!enqueue(WebSocketCodec.OP_CLOSE, closePayload(code, reason))) return;
+        KEEPALIVE.schedule(() -> abort(code, reason), 5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Закрывает сессию из потока чтения: кадр закрытия пишется сразу,
+     * затем поток чтения обрывает подключение.
+     */
+    private void fail(int code, String reason) {
+        if (!closeSent.compareAndSet(false, true)) return;
+        final var payload = closePayload(code, reason);
+        try {
+            sendControl(WebSocketCodec.OP_CLOSE, payload, payload.length);
+        } catch (IOException ignored) {
+            // подключение всё равно будет закрыто
+        }
+    }
+
+    private static byte[] closePayload(int code, String reason) {
+        final var reasonBytes = reason.getBytes(StandardCharsets.UTF_8);
+        final var payload = new byte[2 + Math.min(reasonBytes.length, 123)];
+        payload[0] = (byte) (code >>> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(reasonBytes, 0, payload, 2, payload.length - 2);
+        return payload;
+    }
+
+    private void sendMessage(int opcode, byte[] message) throws IOException {
+        if (closeSent.get()) throw new IOException("WebSocket session is closing");
+        write(opcode, message, message.length, true);
+    }
+
+    private void sendControl(int opcode, byte[] payload, int length) throws IOException {
+        write(opcode, payload, length, true);
+    }
+
+    /**
+     * Пишет сообщение в подключение, отмечая для сторожа начало записи.
+     */
+    private void write(int opcode, byte[] message, int messageLength, boolean flush) throws IOException {
+        synchronized (out) {
+            writeSince = System.nanoTime();
+            try {
+                // длинные сообщения уходят фрагментами, чтобы не держать огромные кадры
+                int offset = 0;
+                int frameOpcode = opcode;
+                do {
+                    final int length = Math.min(maxFrameSize, messageLength - offset);
+                    final boolean fin = offset + length == messageLength;
+                    WebSocketCodec.write(out, fin, frameOpcode, message, offset, length);
+                    offset += length;
+                    frameOpcode = WebSocketCodec.OP_CONTINUATION;
+                } while (offset < messageLength);
+                if (flush) out.flush();
+            } finally {
+                writeSince = 0;
+            }
+        }
+    }
+
+    /**
+     * Ставит кадр в очередь отправки и при необходимости поручает её писателю.
+     * @return {@code false}, если сессия уже закрыта или очередь переполнена.
+     */
+    private boolean enqueue(int opcode, byte[] payload) {
+        if (closed.get()) return false;
+        if (!outbound.offer(new Outbound(opcode, payload))) {
+            System.out.println("WS_SEND_OVERFLOW " + this);     // мониторинг
+            abort(GOING_AWAY, "Send queue overflow");
+            return false;
+        }
+        if (writeScheduled.compareAndSet(false, true))
+            WRITERS.execute(this::drainOutbound);
+        return true;
+    }
+
+    /**
+     * Вычерпывает очередь отправки; сбрасывает поток, когда очередь опустела.
+     */
+    private void drainOutbound() {
+        try {
+            Outbound next;
+            while (!closed.get() && (next = outbound.poll()) != null)
+                write(next.opcode, next.payload, next.payload.length, outbound.isEmpty());
+        } catch (IOException e) {
+            terminate(GOING_AWAY, "Send failed");
+            return;
+        } finally {
+            writeScheduled.set(false);
+        }
+        // кадр мог прийти между опустошением очереди и сбросом признака
+        if (!closed.get() && !outbound.isEmpty() && writeScheduled.compareAndSet(false, true))
+            WRITERS.execute(this::drainOutbound);
+    }
+
+    private void keepAlive() {
+        if (closed.get()) return;
+        final var stamp = Long.toString(System.nanoTime()).getBytes(StandardCharsets.US_ASCII);
+        enqueue(WebSocketCodec.OP_PING, stamp);
+    }
+
+    private void checkWrite() {
+        final long since = writeSince;
+        if (since != 0 && System.nanoTime() - since > TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis)) {
+            System.out.println("WS_WRITE_TIMEOUT " + this);     // мониторинг
+            abort(GOING_AWAY, "Write timeout");
+        }
+    }
+
+    /**
+     * Обрывает сессию вне вызывающего потока: поток сторожа или рассылки
+     * не должен ждать, пока зависший писатель отпустит подключение.
+     */
+    private void abort(int code, String reason) {
+        if (!closed.get()) READERS.execute(() -> terminate(code, reason));
+    }
+
+    /**
+     * Цикл чтения: разбирает кадры, собирает сообщения и передаёт их обработчику.
+     */
+    @SuppressWarnings("fallthrough")
+    private void readLoop() {
+        final var frame = new WebSocketCodec.Frame();
+        // сборщик фрагментированного сообщения живёт всю сессию и переиспользуется
+        final var message = new MessageBuffer();
+        int messageOpcode = -1;
+        int closeCode = NORMAL_CLOSURE;
+        String closeReason = "";
+        try {
+            handler.onOpen(this);
+            while (!closed.get()) {
+                WebSocketCodec.read(in, frame, Math.min(maxFrameSize * 16L, maxMessageSize));
+                switch (frame.opcode) {
+                    case WebSocketCodec.OP_PING:
+                        // кадр переиспользуется, поэтому в очередь идёт копия
+                        if (!closeSent.get())
+                            enqueue(WebSocketCodec.OP_PONG, Arrays.copyOf(frame.payload, frame.length));
+                        break;
+                    case WebSocketCodec.OP_PONG:
+                        break;
+                    case WebSocketCodec.OP_CLOSE:
+                        if (frame.length >= 2) {
+                            closeCode = ((frame.payload[0] & 0xFF) << 8) | (frame.payload[1] & 0xFF);
+                            closeReason = new String(frame.payload, 2, frame.length - 2, StandardCharsets.UTF_8);
+                        } else {
+                            closeCode = 1005;       // код не указан
+                        }
+                        // отвечаем на закрытие тем же кодом, если сами его ещё не начинали
+                        if (closeSent.compareAndSet(false, true))
+                            sendControl(WebSocketCodec.OP_CLOSE, frame.payload, Math.min(frame.length, 2));
+                        return;
+                    case WebSocketCodec.OP_TEXT:
+                    case WebSocketCodec.OP_BINARY:
+                        if (messageOpcode != -1)
+                            throw new WebSocketCodec.ProtocolException(PROTOCOL_ERROR, "Expected continuation frame");
+                        messageOpcode = frame.opcode;
+                        message.reset();
+                        // fall through
+                    case WebSocketCodec.OP_CONTINUATION:
+                        if (messageOpcode == -1)
+                            throw new WebSocketCodec.ProtocolException(PROTOCOL_ERROR, "Unexpected continuation frame");
+                        if (message.length + frame.length > maxMessageSize)
+                            throw new WebSocketCodec.ProtocolException(MESSAGE_TOO_BIG, "Message too big");
+                        message.append(frame.payload, frame.length);
+                        if (frame.fin) {
+                            deliver(messageOpcode, message);
+                            messageOpcode = -1;
+                        }
+                        break;
+                    default:
+                        throw new WebSocketCodec.ProtocolException(PROTOCOL_ERROR, "Unknown opcode " + frame.opcode);
+                }
+            }
+        } catch (WebSocketCodec.ProtocolException e) {
+            closeCode = e.closeCode;
+            closeReason = e.getMessage();
+            fail(closeCode, closeReason);
+        } catch (SocketTimeoutException e) {
+            closeCode = GOING_AWAY;
+            closeReason = "Keepalive timeout";
+        } catch (IOException e) {
+            if (!closed.get()) {
+                closeCode = 1006;           // обрыв без кадра закрытия
+                closeReason = e.getMessage() == null ? "" : e.getMessage();
+            }
+        } catch (RuntimeException e) {
+            System.out.println("WS_HANDLER_ERROR " + this);
+            e.printStackTrace();
+            closeCode = INTERNAL_ERROR;
+            closeReason = "Internal error";
+            fail(closeCode, closeReason);
+        } finally {
+            terminate(closeCode, closeReason);
+            // буферами чтения пользуется только этот поток, поэтому и возвращает их он
+            frame.release();
+            message.release();
+            in.release();
+        }
+    }
+
+    private void deliver(int opcode, MessageBuffer message) throws IOException {
+        if (opcode == WebSocketCodec.OP_TEXT) {
+            final String text;
+            try {
+                text = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(message.buffer.array(), 0, message.length))
+                        .toString();
+            } catch (CharacterCodingException e) {
+                throw new WebSocketCodec.ProtocolException(INVALID_PAYLOAD, "Invalid UTF-8 in text message");
+            }
+            handler.onText(this, text);
+        } else {
+            // обработчик получает свою копию: буфер сборки переиспользуется
+            handler.onBinary(this, Arrays.copyOf(message.buffer.array(), message.length));
+        }
+    }
+
+    /**
+     * Окончательно закрывает подключение и один раз уведомляет обработчик.
+     */
+    private void terminate(int code, String reason) {
+        if (!closed.compareAndSet(false, true)) return;
+        if (pinger != null) pinger.cancel(false);
+        if (writeWatchdog != null) writeWatchdog.cancel(false);
+        outbound.clear();
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // подключение уже закрыто
+        }
+        // буфер записи возвращается под тем же замком, под которым пишут отправители
+        synchronized (out) {
+            out.release();
+        }
+        try {
+            handler.onClose(this, code, reason);
+        } catch (RuntimeException e) {
+            System.out.println("WS_HANDLER_ERROR " + this);
+            e.printStackTrace();
+        }
+        onTerminate.run();
+        System.out.println("WS_CLOSED " + this + " " + code + " " + reason);    // мониторинг
+    }
+
+    /**
+     * Кадр, ждущий отправки в очереди сессии.
+     */
+    private static final class Outbound {
+        final int opcode;
+        final byte[] payload;
+
+        Outbound(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Сборщик фрагментированного сообщения в буфере из пула; при нехватке места
+     * буфер меняется на более вместительный.
+     */
+    private static final class MessageBuffer {
+        private PooledBuffer buffer = BufferPool.heap().acquire(BufferPool.MIN_CLASS_SIZE);
+        private int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        void append(byte[] data, int len) {
+            if (buffer.capacity() - length < len) {
+                final var larger = BufferPool.heap().acquire(length + len);
+                System.arraycopy(buffer.array(), 0, larger.array(), 0, length);
+                buffer.close();
+                buffer = larger;
+            }
+            System.arraycopy(data, 0, buffer.array(), length, len);
+            length += len;
+        }
+
+        void release() {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Буферизованное чтение из подключения через буфер из пула.
+     */
+    private static final class PooledInputStream extends InputStream {
+        private final InputStream in;
+        private final PooledBuffer buffer = BufferPool.heap().acquire(STREAM_BUFFER_SIZE);
+        private int position;
+        private int limit;
+
+        PooledInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && fill() < 0) return -1;
+            return buffer.array()[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position == limit) {
+                // крупное чтение идёт мимо буфера
+                if (len >= buffer.capacity()) return in.read(b, off, len);
+                if (fill() < 0) return -1;
+            }
+            final int n = Math.min(len, limit - position);
+            System.arraycopy(buffer.array(), position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private int fill() throws IOException {
+            final int n = in.read(buffer.array(), 0, buffer.capacity());
+            position = 0;
+            limit = Math.max(n, 0);
+            return n;
+        }
+
+        void release() {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Буферизованная запись в подключение через буфер из пула.
+     * После возврата буфера запись отвергается, как в закрытое подключение.
+     */
+    private static final class PooledOutputStream extends OutputStream {
+        private final OutputStream out;
+        private PooledBuffer buffer = BufferPool.heap().acquire(STREAM_BUFFER_SIZE);
+        private int count;
+
+        PooledOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == array().length) flushBuffer();
+            array()[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            final var array = array();
+            if (len >= array.length) {
+                flushBuffer();
+                out.write(b, off, len);
+                return;
+            }
+            if (len > array.length - count) flushBuffer();
+            System.arraycopy(b, off, array, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            if (count == 0) return;
+            out.write(array(), 0, count);
+            count = 0;
+        }
+
+        private byte[] array() throws IOException {
+            if (buffer == null) throw new IOException("WebSocket session is closed");
+            return buffer.array();
+        }
+
+        void release() {
+            if (buffer == null) return;
+            buffer.close();
+            buffer = null;
+        }
+    }
+}